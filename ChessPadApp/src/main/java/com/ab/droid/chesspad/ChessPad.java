@@ -46,17 +46,22 @@ import com.ab.pgn.BitStream;
 import com.ab.pgn.Board;
 import com.ab.pgn.Book;
 import com.ab.pgn.Config;
+import com.ab.pgn.GraphJournal;
 import com.ab.pgn.dgtboard.DgtBoardEventObserver;
 import com.ab.pgn.Move;
 import com.ab.pgn.Pair;
 import com.ab.pgn.PgnGraph;
 import com.ab.pgn.Setup;
 import com.ab.pgn.Square;
+import com.ab.pgn.Tablebase;
+import com.ab.pgn.TablebaseGenerator;
 import com.ab.pgn.dgtboard.DgtBoardPad;
 import com.ab.pgn.io.CpFile;
+import com.ab.pgn.uci.JavaEngine;
 import com.ab.pgn.uci.UCI;
 import com.ab.pgn.io.FilAx;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -81,15 +86,22 @@ public class ChessPad implements Serializable, BoardHolder {
         STATUS_FILE_NAME = "status",
         CURRENT_PGN_NAME = "current-pgn",
         MOVES_NAME = "moves",
+        JOURNAL_NAME = "journal",
         DEFAULT_DIRECTORY = "/",
         DGT_BOARD_OUTPUT_DIRECTORY = "dgt_board",
         BOOK_ASSET_NAME = "book/combined.book",
+        TABLEBASE_DIRECTORY = "tablebase",
         str_dummy = null;
 
+    // generated on device, 512 KB each, in the order of their dependencies
+    private static final String[] TABLEBASE_TABLES = {"KQvK", "KRvK", "KPvK"};
+
     private static final int
         MAX_ENGINE_HINTS = 2,       // todo: prefs
         MAX_BOOK_HINTS = 5,         // todo: prefs
         PUZZLE_MOVE_DELAY_MSEC = 500,
+        LAZY_LOADING_MIN_LENGTH = 64 * 1024,   // heavily annotated games, variations are parsed on demand
+        MAX_JOURNAL_RECORDS = 1000,     // then write a new snapshot of pgnGraph
         int_dummy = 0;
 
     private static int i = -1;
@@ -207,6 +219,7 @@ public class ChessPad implements Serializable, BoardHolder {
     transient private boolean merging = false;
     transient final private String[] setupErrs;
     transient private boolean pgngraphModified = false;     // compared to status
+    transient private GraphJournal graphJournal;            // pgnGraph edits after CURRENT_PGN_NAME was written
     transient private boolean navigationEnabled = true;
     transient private DocFilAx rootFilAx;
 
@@ -295,12 +308,12 @@ public class ChessPad implements Serializable, BoardHolder {
         }
 
         try {
-            uci = new UCI(new UCI.EngineWatcher() {
+            UCI.EngineWatcher engineWatcher = new UCI.EngineWatcher() {
                 @Override
-                public String getCurrentFen() {
+                public Board getCurrentBoard() {
                     Board b = getPgnGraph().getBoard();
                     if (openingBook.getMoves(b) == null) {
-                        return b.toFEN();
+                        return b;
                     }
                     return null;
                 }
@@ -333,7 +346,14 @@ public class ChessPad implements Serializable, BoardHolder {
                 public void reportError(String message) {
                     Log.e(DEBUG_TAG, message);
                 }
-            }, new Stockfish(MainActivity.getContext()));
+            };
+            try {
+                uci = new UCI(engineWatcher, new Stockfish(MainActivity.getContext()));
+            } catch (UnsatisfiedLinkError e) {
+                Log.e(DEBUG_TAG, "stockfish library not found, using Java engine", e);
+                uci = new UCI(engineWatcher, new JavaEngine());
+            }
+            setTablebase(new File(MainActivity.getContext().getFilesDir(), TABLEBASE_DIRECTORY));
         } catch (IOException e) {
             Log.e(DEBUG_TAG, e.getMessage(), e);
         }
@@ -346,6 +366,22 @@ public class ChessPad implements Serializable, BoardHolder {
         launch();
     }
 
+    // existing tables are used at once, missing ones are generated in background
+    private void setTablebase(File dir) {
+        uci.setTablebase(new Tablebase(dir));
+        UCI.bgCall(() -> {
+            try {
+                dir.mkdirs();
+                if (new TablebaseGenerator(dir).generateMissing(TABLEBASE_TABLES)) {
+                    uci.setTablebase(new Tablebase(dir));   // drop cached misses
+                    Log.d(DEBUG_TAG, "tablebase generated");
+                }
+            } catch (Config.PGNException | OutOfMemoryError e) {
+                Log.e(DEBUG_TAG, "tablebase generation failed", e);
+            }
+        });
+    }
+
     // Called when the activity will start interacting with the user
     // after onStart() or onPause()
     // @RequiresApi(api = Build.VERSION_CODES.HONEYCOMB_MR1)
@@ -545,8 +581,8 @@ public class ChessPad implements Serializable, BoardHolder {
 
     void serialize() {
         Log.d(DEBUG_TAG, "onStop()");
-        if (merging) {
-            return;     // skip serialization
+        if (merging || unserializing) {
+            return;     // skip serialization, pgnGraph can be incomplete
         }
         if (uci != null) {
             uci.doAnalysis(false);    // no BG analysis
@@ -559,9 +595,15 @@ public class ChessPad implements Serializable, BoardHolder {
 
     private void serializePgnGraph() {
         Log.d(DEBUG_TAG, String.format("serializePgnGraph() pgngraphModified=%s", pgngraphModified));
-        if (pgngraphModified || pgnGraph.isModified()) {
+        GraphJournal journal = pgnGraph.getJournal();
+        if (pgngraphModified || journal == null || !journal.isValid() || journal.getRecords() >= MAX_JOURNAL_RECORDS) {
+            // otherwise the changes are in the journal already
+            closeJournal();
+            pgnGraph.setJournal(null);
             try (BitStream.Writer writer = new BitStream.Writer(MainActivity.getContext().openFileOutput(CURRENT_PGN_NAME, Context.MODE_PRIVATE))) {
-                pgnGraph.serializeGraph(writer, versionCode);
+                pgnGraph.serializeSnapshot(writer, versionCode);
+                pgngraphModified = false;
+                openJournal(pgnGraph, Context.MODE_PRIVATE);
             } catch (Config.PGNException | IOException e) {
                 Log.e(DEBUG_TAG, "serializePgnGraph", e);
             }
@@ -579,11 +621,32 @@ public class ChessPad implements Serializable, BoardHolder {
         boolean res = false;
         Log.d(DEBUG_TAG, "unserializePgnGraph() start");
         try (BitStream.Reader reader = new BitStream.Reader(MainActivity.getContext().openFileInput(CURRENT_PGN_NAME))) {
-            pgnGraph = new PgnGraph(reader, versionCode);
+            pgnGraph = new PgnGraph(reader, versionCode, (head) -> {
+                // show tags and the current line while the rest of the graph is loading
+                try (BitStream.Reader movesReader = new BitStream.Reader(MainActivity.getContext().openFileInput(MOVES_NAME))) {
+                    head.unserializeMoveLine(movesReader, versionCode);
+                } catch (Config.PGNException | IOException e) {
+                    Log.w(DEBUG_TAG, "unserializeMoveLine() head", e);
+                }
+                pgnGraph = head;
+                sendMessage(Config.MSG_REFRESH_SCREEN, null);
+            });
             res = true;
         } catch (Config.PGNException | IOException e) {
             Log.w(DEBUG_TAG, "unserializePgnGraph()", e);
         }
+        if (res) {
+            try (BitStream.Reader reader = new BitStream.Reader(MainActivity.getContext().openFileInput(JOURNAL_NAME))) {
+                int records = pgnGraph.replayJournal(reader);
+                Log.d(DEBUG_TAG, String.format("replayJournal() %d records", records));
+                openJournal(pgnGraph, Context.MODE_APPEND);
+            } catch (FileNotFoundException e) {
+                openJournal(pgnGraph, Context.MODE_PRIVATE);
+            } catch (Config.PGNException | IOException e) {
+                // broken or left from another snapshot, do not append to it, the next serializePgnGraph writes a snapshot
+                Log.w(DEBUG_TAG, "replayJournal()", e);
+            }
+        }
         try (BitStream.Reader reader = new BitStream.Reader(MainActivity.getContext().openFileInput(MOVES_NAME))) {
             pgnGraph.unserializeMoveLine(reader, versionCode);
         } catch (Config.PGNException | IOException e) {
@@ -593,6 +656,27 @@ public class ChessPad implements Serializable, BoardHolder {
         return res;
     }
 
+    private void openJournal(PgnGraph pgnGraph, int mode) {
+        try {
+            graphJournal = new GraphJournal(MainActivity.getContext().openFileOutput(JOURNAL_NAME, mode));
+            pgnGraph.setJournal(graphJournal);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "openJournal", e);
+        }
+    }
+
+    private void closeJournal() {
+        if (graphJournal == null) {
+            return;
+        }
+        try {
+            graphJournal.close();
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "closeJournal", e);
+        }
+        graphJournal = null;
+    }
+
     private void serializeUI() {
         Log.d(DEBUG_TAG, "serializeUI()");
         try (BitStream.Writer writer = new BitStream.Writer(MainActivity.getContext().openFileOutput(STATUS_FILE_NAME, Context.MODE_PRIVATE))) {
@@ -1266,7 +1350,8 @@ public class ChessPad implements Serializable, BoardHolder {
             public void doInBackground(final CpFile.ProgressObserver progressObserver) throws Config.PGNException {
                 Log.d(DEBUG_TAG, String.format("loadPgnGraph start, thread %s", Thread.currentThread().getName()));
                 reserveOOMBuffer();
-                pgnGraph = new PgnGraph(pgnItem);
+                String moveText = pgnItem.getMoveText();
+                pgnGraph = new PgnGraph(pgnItem, moveText != null && moveText.length() >= LAZY_LOADING_MIN_LENGTH);
             }
 
             @Override
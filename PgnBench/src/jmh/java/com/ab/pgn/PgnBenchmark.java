@@ -0,0 +1,144 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * move generation and validation throughput, results are in nodes (positions or moves) per second
+ * search is in fixed-depth searches per second
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PgnBenchmark {
+    private static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    private static final int
+        KIWIPETE_LEGAL_MOVES = 48,
+        KIWIPETE_PERFT_3 = 97862,
+        SEARCH_DEPTH = 5,
+        FEN_COUNT = 5,      // FENS.length, for @OperationsPerInvocation
+        dummy_int = 0;
+
+    private static final String[] FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        KIWIPETE,
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+    };
+
+    private Board board;
+    private Perft perft;
+    private Move[] moves;
+    private Search search;
+
+    @Setup
+    public void setup() throws Config.PGNException {
+        if (FENS.length != FEN_COUNT) {
+            throw new IllegalStateException(String.format("FEN_COUNT %d, FENS.length %d", FEN_COUNT, FENS.length));
+        }
+        board = new Board(KIWIPETE);
+        perft = new Perft(board);
+        IntMoveList moveList = new IntMoveList();
+        board.generateLegalMoves(moveList);
+        if (moveList.size() != KIWIPETE_LEGAL_MOVES) {
+            throw new IllegalStateException(String.format("KIWIPETE_LEGAL_MOVES %d, generated %d", KIWIPETE_LEGAL_MOVES, moveList.size()));
+        }
+        moves = new Move[moveList.size()];
+        for (int i = 0; i < moves.length; ++i) {
+            moves[i] = board.toMove(moveList.get(i));
+        }
+        search = new Search();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KIWIPETE_PERFT_3)
+    public long perft() {
+        return perft.perft(3);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KIWIPETE_LEGAL_MOVES)
+    public int generateLegalMoves() {
+        IntMoveList moveList = new IntMoveList();
+        return board.generateLegalMoves(moveList);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KIWIPETE_LEGAL_MOVES)
+    public long makeUnmake() {
+        long res = 0;
+        for (Move move : moves) {
+            long undo = board.makeMove(move);
+            res += board.getPositionKey();
+            board.unmakeMove(move, undo);
+        }
+        return res;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KIWIPETE_LEGAL_MOVES)
+    public int doMove() {
+        int res = 0;
+        for (Move move : moves) {
+            Board clone = board.clone();
+            clone.doMove(move);
+            res += clone.getPlyNum();
+        }
+        return res;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KIWIPETE_LEGAL_MOVES)
+    public int validatePgnMove() {
+        int res = 0;
+        for (Move move : moves) {
+            if (board.validatePgnMove(move.clone(), Config.VALIDATE_PGN_MOVE)) {
+                ++res;
+            }
+        }
+        return res;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FEN_COUNT)
+    public int fenRoundTrip() throws Config.PGNException {
+        int res = 0;
+        for (String fen : FENS) {
+            res += new Board(fen).toFEN().length();
+        }
+        return res;
+    }
+
+    @Benchmark
+    public long search() {
+        search.clear();
+        search.setPosition(board);
+        search.go(SEARCH_DEPTH, 0, 0, null);
+        return search.getNodes();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * 64-bit board masks, square index = 8 * y + x, a1 == 0, h8 == 63
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.Random;
+
+class BitBoard {
+    static final int
+        SQUARES = Config.BOARD_SIZE * Config.BOARD_SIZE,
+        dummy_int = 0;
+
+    // ray directions, the first 4 go to higher square indexes
+    static final int
+        NORTH = 0,
+        NORTH_EAST = 1,
+        EAST = 2,
+        NORTH_WEST = 3,
+        SOUTH = 4,
+        SOUTH_WEST = 5,
+        WEST = 6,
+        SOUTH_EAST = 7,
+        DIRECTIONS = 8;
+    private static final int[][] DIRECTION_STEPS = {{0,1}, {1,1}, {1,0}, {-1,1}, {0,-1}, {-1,-1}, {-1,0}, {1,-1}};
+
+    // b1, a2, ..., (x + y) odd
+    static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+    // squares strictly between two squares on the same line, 0 when not on the same line
+    static final long[][] BETWEEN = new long[SQUARES][SQUARES];
+
+    // attacked squares on empty board
+    static final long[] KNIGHT_ATTACKS = new long[SQUARES];
+    static final long[] KING_ATTACKS = new long[SQUARES];
+    static final long[][] PAWN_ATTACKS = new long[2][SQUARES];     // indexed by pawn color
+    static final long[][] RAYS = new long[DIRECTIONS][SQUARES];
+
+    // Zobrist keys
+    static final long[][] PIECE_KEYS = new long[0x10][SQUARES];        // indexed by 4-bit piece code
+    static final long[] FLAG_KEYS = new long[(Config.FLAGS_BLACK_MOVE | Config.INIT_POSITION_FLAGS) + 1];     // side to move and castle
+    static final long[] ENPASSANT_KEYS = new long[Config.BOARD_SIZE];
+
+    static {
+        Random random = new Random(20160806L);     // fixed seed, the same keys on every run
+        for (int piece = Config.KING; piece < PIECE_KEYS.length; ++piece) {
+            for (int square = 0; square < SQUARES; ++square) {
+                PIECE_KEYS[piece][square] = random.nextLong();
+            }
+        }
+        long[] flagKeys = new long[FLAG_KEYS.length];
+        for (int i = 1; i < FLAG_KEYS.length; i <<= 1) {
+            flagKeys[i] = random.nextLong();
+        }
+        for (int flags = 0; flags < FLAG_KEYS.length; ++flags) {
+            for (int i = 1; i < FLAG_KEYS.length; i <<= 1) {
+                if ((flags & i) != 0) {
+                    FLAG_KEYS[flags] ^= flagKeys[i];
+                }
+            }
+        }
+        for (int x = 0; x < ENPASSANT_KEYS.length; ++x) {
+            ENPASSANT_KEYS[x] = random.nextLong();
+        }
+
+        for (int from = 0; from < SQUARES; ++from) {
+            for (int to = 0; to < SQUARES; ++to) {
+                BETWEEN[from][to] = between(getX(from), getY(from), getX(to), getY(to));
+            }
+            int x = getX(from);
+            int y = getY(from);
+            KNIGHT_ATTACKS[from] = steps(x, y, new int[][] {{-1,-2}, {-2,-1}, {-2,1}, {-1,2}, {1,2}, {2,1}, {2,-1}, {1,-2}});
+            KING_ATTACKS[from] = steps(x, y, DIRECTION_STEPS);
+            PAWN_ATTACKS[Config.WHITE][from] = steps(x, y, new int[][] {{-1,1}, {1,1}});
+            PAWN_ATTACKS[Config.BLACK][from] = steps(x, y, new int[][] {{-1,-1}, {1,-1}});
+            for (int d = 0; d < DIRECTIONS; ++d) {
+                long ray = 0;
+                int _x = x + DIRECTION_STEPS[d][0];
+                int _y = y + DIRECTION_STEPS[d][1];
+                while (isValid(_x, _y)) {
+                    ray |= bit(_x, _y);
+                    _x += DIRECTION_STEPS[d][0];
+                    _y += DIRECTION_STEPS[d][1];
+                }
+                RAYS[d][from] = ray;
+            }
+        }
+    }
+
+    // squares reached by a slider moving from square in direction, including the first occupied one
+    static long rayAttacks(int square, int direction, long occupied) {
+        long ray = RAYS[direction][square];
+        long blockers = ray & occupied;
+        if (blockers != 0) {
+            int blocker;
+            if (direction < SOUTH) {
+                blocker = Long.numberOfTrailingZeros(blockers);
+            } else {
+                blocker = 63 - Long.numberOfLeadingZeros(blockers);
+            }
+            ray ^= RAYS[direction][blocker];
+        }
+        return ray;
+    }
+
+    static long bishopAttacks(int square, long occupied) {
+        return rayAttacks(square, NORTH_EAST, occupied) | rayAttacks(square, NORTH_WEST, occupied)
+                | rayAttacks(square, SOUTH_WEST, occupied) | rayAttacks(square, SOUTH_EAST, occupied);
+    }
+
+    static long rookAttacks(int square, long occupied) {
+        return rayAttacks(square, NORTH, occupied) | rayAttacks(square, EAST, occupied)
+                | rayAttacks(square, SOUTH, occupied) | rayAttacks(square, WEST, occupied);
+    }
+
+    private static boolean isValid(int x, int y) {
+        return x >= 0 && x < Config.BOARD_SIZE && y >= 0 && y < Config.BOARD_SIZE;
+    }
+
+    private static long steps(int x, int y, int[][] steps) {
+        long res = 0;
+        for (int[] step : steps) {
+            int _x = x + step[0];
+            int _y = y + step[1];
+            if (isValid(_x, _y)) {
+                res |= bit(_x, _y);
+            }
+        }
+        return res;
+    }
+
+    static int square(int x, int y) {
+        return (y << 3) + x;
+    }
+
+    static int getX(int square) {
+        return square & 0x07;
+    }
+
+    static int getY(int square) {
+        return square >> 3;
+    }
+
+    static long bit(int x, int y) {
+        return 1L << square(x, y);
+    }
+
+    static long fileMask(int x) {
+        return 0x0101010101010101L << x;
+    }
+
+    static long rankMask(int y) {
+        return 0x0ffL << (y << 3);
+    }
+
+    private static long between(int fromX, int fromY, int toX, int toY) {
+        int dx = toX - fromX;
+        int dy = toY - fromY;
+        if (dx == 0 && dy == 0 || dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy)) {
+            return 0;
+        }
+        dx = Integer.signum(dx);
+        dy = Integer.signum(dy);
+        long res = 0;
+        int x = fromX + dx;
+        int y = fromY + dy;
+        while (x != toX || y != toY) {
+            res |= bit(x, y);
+            x += dx;
+            y += dy;
+        }
+        return res;
+    }
+}
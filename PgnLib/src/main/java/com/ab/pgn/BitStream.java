@@ -250,6 +250,11 @@ public abstract class BitStream implements Closeable {
             }
         }
 
+        // skip the rest of the current byte, pairs with Writer.flush()
+        public void align() {
+            bitIndex = 8;
+        }
+
         int available() throws IOException {
             return is.available();
         }
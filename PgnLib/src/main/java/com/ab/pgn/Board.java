@@ -21,10 +21,10 @@
 package com.ab.pgn;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.StringTokenizer;
 
 public class Board {
     public static boolean DEBUG = false;
@@ -56,14 +56,14 @@ public class Board {
         PLY_NUM_LENGTH = 9,
         PLY_NUM_MASK = 0x01ff,
         REVERSIBLE_PLY_NUM_OFFSET = PLY_NUM_OFFSET + PLY_NUM_LENGTH,    //  9
-        REVERSIBLE_PLY_NUM_LENGTH = 7,
-        REVERSIBLE_PLY_NUM_MASK = 0x007f,
+        REVERSIBLE_PLY_NUM_LENGTH = 8,      // saturates at the mask, enough for 75-move rule
+        REVERSIBLE_PLY_NUM_MASK = 0x00ff,
 
-        IN_MOVES_OFFSET = REVERSIBLE_PLY_NUM_OFFSET + REVERSIBLE_PLY_NUM_LENGTH,    // 16
+        IN_MOVES_OFFSET = REVERSIBLE_PLY_NUM_OFFSET + REVERSIBLE_PLY_NUM_LENGTH,    // 17
         IN_MOVES_LENGTH = 3,
         IN_MOVES_MASK = 0x7,
 
-        BOARD_COUNTS_PACK_LENGTH = IN_MOVES_OFFSET + IN_MOVES_LENGTH,               // 19
+        BOARD_COUNTS_PACK_LENGTH = IN_MOVES_OFFSET + IN_MOVES_LENGTH,               // 20
 
         dummy_int = 0;
 
@@ -78,6 +78,18 @@ public class Board {
         {Config.BLACK_ROOK, Config.BLACK_KNIGHT, Config.BLACK_BISHOP, Config.BLACK_QUEEN, Config.BLACK_KING, Config.BLACK_BISHOP, Config.BLACK_KNIGHT, Config.BLACK_ROOK},
     };
 
+    // queens, rooks and pawns of both colors in material signature
+    private static final long MAJOR_OR_PAWN_SIGNATURE_MASK =
+        0xffL << (Config.QUEEN << 2) | 0xffL << (Config.ROOK << 2) | 0xffL << (Config.PAWN << 2);
+
+    // mate search cache is kept between findMate calls, MateSolver is not thread safe
+    private static final ThreadLocal<MateSolver> mateSolvers = new ThreadLocal<MateSolver>() {
+        @Override
+        protected MateSolver initialValue() {
+            return new MateSolver();
+        }
+    };
+
     private static final int[][] empty = {
         {Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY},
         {Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY, Config.EMPTY},
@@ -95,7 +107,15 @@ public class Board {
     private int boardCounts;      // plynum, reversable plynum
     private int boardData;        // enpassant x-coord (3), 7-bit flags (7), kings (12) == 22
 
+    // bitboards, BitBoard square index, kept in sync with board[]
+    private final long[] pieceBits = new long[Config.BOARD_SIZE];   // indexed by piece >> 1
+    private final long[] colorBits = new long[2];                   // white, black
+    private long pieceKey;                                          // Zobrist key of pieces on board
+    private long materialSignature;                                 // 4-bit piece count per piece code
+
     private Move move;              // moves made in this position
+    private PositionTable positionTable;    // not null when the board is a view of a PgnGraph position
+    private int positionId;
 
 /* uncomment to emulate OOM
     int[] debugData = new int[4 * 1024];
@@ -116,7 +136,7 @@ public class Board {
     public void serialize(BitStream.Writer writer) throws Config.PGNException {
         try {
             pack(writer);
-            writer.write(this.boardCounts, BOARD_COUNTS_PACK_LENGTH);
+            writer.write(getBoardCounts(), BOARD_COUNTS_PACK_LENGTH);
         } catch (IOException e) {
             throw new Config.PGNException(e);
         }
@@ -238,36 +258,49 @@ public class Board {
 
     Square getEnpassant() {
         Square square = new Square();
+        if ((this.getFlags() & Config.FLAGS_ENPASSANT_OK) == 0) {
+            return square;        // invalid square
+        }
+        if ((this.getFlags() & Config.FLAGS_BLACK_MOVE) == 0) {
+            square.y = 5;
+        } else {
+            square.y = 2;
+        }
+        square.setX(getValidEnpassantX());
+        return square;
+    }
+
+    // en passant x if the flag is set and the position allows en passant, -1 otherwise
+    private int getValidEnpassantX() {
         int flags = this.getFlags();
         if ((flags & Config.FLAGS_ENPASSANT_OK) == 0) {
-            return square;        // invalid square
+            return -1;
         }
         int enpass = getEnpassantX();
         int pawn, otherPawn;
-        int y, y1;
+        int y, y1, y2;
         if ((flags & Config.FLAGS_BLACK_MOVE) == 0) {
             y = 4;
             y1 = 6;
-            square.y = 5;
+            y2 = 5;
             pawn = Config.WHITE_PAWN;
             otherPawn = Config.BLACK_PAWN;
         } else {
             y = 3;
             y1 = 1;
-            square.y = 2;
+            y2 = 2;
             pawn = Config.BLACK_PAWN;
             otherPawn = Config.WHITE_PAWN;
         }
 
         if (pawn == this.getPiece(enpass - 1, y) || pawn == this.getPiece(enpass + 1, y)) {
             if (otherPawn == this.getPiece(enpass, y)
-                    && Config.EMPTY == this.getPiece(enpass, square.y)
+                    && Config.EMPTY == this.getPiece(enpass, y2)
                     && Config.EMPTY == this.getPiece(enpass, y1)) {
-                square.setX(enpass);
-                return square;
+                return enpass;
             }
         }
-        return square;
+        return -1;
     }
 
     private void setWKingX(int x) {
@@ -328,40 +361,83 @@ public class Board {
         return new Square(getBKingX(), getBKingY());
     }
 
+    int getBoardData() {
+        return boardData;
+    }
+
     public void setPlyNum(int x) {
-        boardCounts = Util.setValue(boardCounts, x, PLY_NUM_MASK, PLY_NUM_OFFSET);
+        setBoardCounts(Util.setValue(getBoardCounts(), x, PLY_NUM_MASK, PLY_NUM_OFFSET));
     }
 
     public int getPlyNum() {
-        return Util.getValue(boardCounts, PLY_NUM_MASK, PLY_NUM_OFFSET);
+        return Util.getValue(getBoardCounts(), PLY_NUM_MASK, PLY_NUM_OFFSET);
     }
 
     void incrementPlyNum(int x) {
-        boardCounts = Util.incrementValue(boardCounts, x, PLY_NUM_MASK, PLY_NUM_OFFSET);
+        setBoardCounts(Util.incrementValue(getBoardCounts(), x, PLY_NUM_MASK, PLY_NUM_OFFSET));
     }
 
     public void setReversiblePlyNum(int x) {
-        boardCounts = Util.setValue(boardCounts, x, REVERSIBLE_PLY_NUM_MASK, REVERSIBLE_PLY_NUM_OFFSET);
+        x = Math.min(x, REVERSIBLE_PLY_NUM_MASK);   // saturate, do not wrap
+        setBoardCounts(Util.setValue(getBoardCounts(), x, REVERSIBLE_PLY_NUM_MASK, REVERSIBLE_PLY_NUM_OFFSET));
     }
 
     private void incrementReversiblePlyNum(int x) {
-        boardCounts = Util.incrementValue(boardCounts, x, REVERSIBLE_PLY_NUM_MASK, REVERSIBLE_PLY_NUM_OFFSET);
+        setReversiblePlyNum(getReversiblePlyNum() + x);
     }
 
     public int getReversiblePlyNum() {
-        return Util.getValue(boardCounts, REVERSIBLE_PLY_NUM_MASK, REVERSIBLE_PLY_NUM_OFFSET);
+        return Util.getValue(getBoardCounts(), REVERSIBLE_PLY_NUM_MASK, REVERSIBLE_PLY_NUM_OFFSET);
     }
 
     void setInMoves(int x) {
-        boardCounts = Util.setValue(boardCounts, x, IN_MOVES_MASK, IN_MOVES_OFFSET);
+        setBoardCounts(Util.setValue(getBoardCounts(), x, IN_MOVES_MASK, IN_MOVES_OFFSET));
     }
 
     void incrementInMoves(int x) {
-        boardCounts = Util.incrementValue(boardCounts, x, IN_MOVES_MASK, IN_MOVES_OFFSET);
+        setBoardCounts(Util.incrementValue(getBoardCounts(), x, IN_MOVES_MASK, IN_MOVES_OFFSET));
     }
 
     int getInMoves() {
-        return Util.getValue(boardCounts, IN_MOVES_MASK, IN_MOVES_OFFSET);
+        return Util.getValue(getBoardCounts(), IN_MOVES_MASK, IN_MOVES_OFFSET);
+    }
+
+    int getBoardCounts() {
+        if (positionTable != null) {
+            return positionTable.getBoardCounts(positionId);
+        }
+        return boardCounts;
+    }
+
+    private void setBoardCounts(int boardCounts) {
+        this.boardCounts = boardCounts;
+        if (positionTable != null) {
+            positionTable.setBoardCounts(positionId, boardCounts);
+        }
+    }
+
+    // make the board a view of PositionTable entry, move, counts and vertex flags are kept in the table
+    // null positionTable detaches the board with the current values
+    void attach(PositionTable positionTable, int positionId) {
+        if (this.positionTable != null) {
+            this.boardCounts = getBoardCounts();
+            this.boardData = getVertexData();
+            this.move = getMove();
+        }
+        this.positionTable = positionTable;
+        this.positionId = positionId;
+    }
+
+    // -1 when the board is not a view
+    int getPositionId() {
+        if (positionTable == null) {
+            return -1;
+        }
+        return positionId;
+    }
+
+    boolean isViewOf(PositionTable positionTable, int positionId) {
+        return this.positionTable == positionTable && this.positionId == positionId;
     }
 
     private void validate(Move move) {
@@ -388,41 +464,64 @@ public class Board {
     }
 
     public Move getMove() {
+        if (positionTable != null) {
+            return positionTable.getMove(positionId);
+        }
         return move;
     }
 
     public void setMove(Move move) {
         this.move = move;
+        if (positionTable != null) {
+            positionTable.setMove(positionId, move);
+        }
     }
 
     void setVisited(boolean visited) {
         int flag = visited ? 1 : 0;
-        boardData = Util.setValue(boardData, flag, VERTEX_VISITED_MASK, VERTEX_VISITED_OFFSET);
-//System.out.printf("%08x\n", boardData);
+        setVertexData(Util.setValue(getVertexData(), flag, VERTEX_VISITED_MASK, VERTEX_VISITED_OFFSET));
     }
 
     boolean getVisited() {
-        return Util.getValue(boardData, VERTEX_VISITED_MASK, VERTEX_VISITED_OFFSET) == 1;
+        return Util.getValue(getVertexData(), VERTEX_VISITED_MASK, VERTEX_VISITED_OFFSET) == 1;
     }
 
     void setSerialized(boolean visited) {
         int flag = visited ? 1 : 0;
-        boardData = Util.setValue(boardData, flag, VERTEX_VISITED_MASK, VERTEX_SERIALIZATION_VISITED_OFFSET);
-//System.out.printf("%08x\n", boardData);
+        setVertexData(Util.setValue(getVertexData(), flag, VERTEX_VISITED_MASK, VERTEX_SERIALIZATION_VISITED_OFFSET));
     }
 
     boolean getSerialized() {
-        return Util.getValue(boardData, VERTEX_VISITED_MASK, VERTEX_SERIALIZATION_VISITED_OFFSET) == 1;
+        return Util.getValue(getVertexData(), VERTEX_VISITED_MASK, VERTEX_SERIALIZATION_VISITED_OFFSET) == 1;
+    }
+
+    // boardData with vertex flags
+    private int getVertexData() {
+        if (positionTable != null) {
+            return boardData & ((1 << BOARD_DATA_PACK_LENGTH) - 1) | positionTable.getVertexFlags(positionId) << VERTEX_VISITED_OFFSET;
+        }
+        return boardData;
+    }
+
+    private void setVertexData(int boardData) {
+        this.boardData = boardData;
+        if (positionTable != null) {
+            positionTable.setVertexFlags(positionId, boardData >>> VERTEX_VISITED_OFFSET);
+        }
+    }
+
+    int getVertexFlags() {
+        return getVertexData() >>> VERTEX_VISITED_OFFSET;
     }
 
     private void copy(Board src) {
-        this.boardCounts = src.boardCounts;
-        this.boardData = src.boardData;
+        this.boardCounts = src.getBoardCounts();
+        this.boardData = src.getVertexData();
         copyPosition(src);
     }
 
     void copyPosition(Board src) {
-        this.copyBoard(src.board);
+        this.copyBoard(src);
         this.setWKing(src.getWKing());
         this.setBKing(src.getBKing());
     }
@@ -466,33 +565,31 @@ public class Board {
         return sb.toString();
     }
 
+    // the same as comparing packs: ply number is ignored, flags, en passant and kings are compared
     @Override
     public boolean equals(Object that) {
         if (!(that instanceof Board)) {
             return false;
         }
-        Pack thisPack, thatPack;
-        try {
-            thisPack = new Pack(this.pack());
-        } catch (Config.PGNException e) {
-            logger.error(e.getMessage(), e);
-            return false;
-        }
-        try {
-            thatPack = new Pack(((Board) that).pack());
-            return thisPack.equalPosition(thatPack);
-        } catch (Config.PGNException e) {
-            logger.error(e.getMessage(), e);
+        Board thatBoard = (Board) that;
+        if (((this.boardData ^ thatBoard.boardData) & ((1 << BOARD_DATA_PACK_LENGTH) - 1)) != 0) {
             return false;
         }
+        return samePosition(thatBoard);
+    }
+
+    @Override
+    public int hashCode() {
+        long key = getPositionKey();
+        return (int) (key ^ (key >>> 32));
     }
 
     @Override
     public Board clone() {
         Board board = new Board();
-        board.copyBoard(this.board);
-        board.boardCounts = this.boardCounts;
-        board.boardData = this.boardData;
+        board.copyBoard(this);
+        board.boardCounts = this.getBoardCounts();
+        board.boardData = this.getVertexData();
         board.setInMoves(0);
         board.setWKing(this.getWKing());
         board.setBKing(this.getBKing());
@@ -514,10 +611,123 @@ public class Board {
             }
             board[j] = line;
         }
+        initBitBoards();
     }
 
     private void copyBoard(int[] from) {
         System.arraycopy(from, 0, this.board, 0, from.length);
+        initBitBoards();
+    }
+
+    private void copyBoard(Board src) {
+        System.arraycopy(src.board, 0, this.board, 0, this.board.length);
+        System.arraycopy(src.pieceBits, 0, this.pieceBits, 0, this.pieceBits.length);
+        System.arraycopy(src.colorBits, 0, this.colorBits, 0, this.colorBits.length);
+        this.pieceKey = src.pieceKey;
+        this.materialSignature = src.materialSignature;
+    }
+
+    private void initBitBoards() {
+        Arrays.fill(pieceBits, 0);
+        Arrays.fill(colorBits, 0);
+        pieceKey = 0;
+        materialSignature = 0;
+        for (int y = 0; y < board.length; ++y) {
+            int line = board[y];
+            for (int x = 0; x < Config.BOARD_SIZE; ++x) {
+                int piece = line & 0x0f;
+                if (piece != Config.EMPTY) {
+                    long bit = BitBoard.bit(x, y);
+                    pieceBits[piece >> 1] |= bit;
+                    colorBits[piece & Config.BLACK] |= bit;
+                    pieceKey ^= BitBoard.PIECE_KEYS[piece][BitBoard.square(x, y)];
+                    materialSignature += 1L << (piece << 2);
+                }
+                line >>= 4;
+            }
+        }
+    }
+
+    long getOccupied() {
+        return colorBits[Config.WHITE] | colorBits[Config.BLACK];
+    }
+
+    long getColorBits(int color) {
+        return colorBits[color];
+    }
+
+    // piece with color
+    long getPieceBits(int piece) {
+        return pieceBits[piece >> 1] & colorBits[piece & Config.BLACK];
+    }
+
+    /**
+     * Zobrist key of the position: pieces, side to move, castle and en passant flags
+     * the pieces part is updated on every setPiece
+     * @return 64-bit key, the same for equal positions regardless of ply number
+     */
+    long getPositionKey() {
+        int flags = getFlags();
+        long key = pieceKey ^ BitBoard.FLAG_KEYS[flags & (Config.FLAGS_BLACK_MOVE | Config.INIT_POSITION_FLAGS)];
+        if ((flags & Config.FLAGS_ENPASSANT_OK) != 0) {
+            key ^= BitBoard.ENPASSANT_KEYS[getEnpassantX()];
+        }
+        return key;
+    }
+
+    /**
+     * Material signature, piece count for each piece code in 4 bits, piece code << 2 is the offset.
+     * Equal for positions with the same material, exact while there are no more than 15 pieces of a kind.
+     * Maintained in setPiece, so it follows doMove/makeMove/unmakeMove.
+     */
+    public long getMaterialSignature() {
+        return materialSignature;
+    }
+
+    /**
+     * @param pieces FEN piece letters, e.g. "KRPkr"
+     * @return material signature for the pieces
+     */
+    public static long getMaterialSignature(String pieces) throws Config.PGNException {
+        long res = 0;
+        for (int i = 0; i < pieces.length(); ++i) {
+            int piece = Config.FEN_PIECES.indexOf(pieces.charAt(i));
+            if (piece < Config.KING) {
+                throw new Config.PGNException("invalid piece " + pieces.charAt(i));
+            }
+            res += 1L << (piece << 2);
+        }
+        return res;
+    }
+
+    // piece with color
+    public int getPieceCount(int piece) {
+        return (int) (materialSignature >>> (piece << 2)) & 0x0f;
+    }
+
+    // all pieces including kings
+    public int getNumberOfPieces() {
+        return Long.bitCount(getOccupied());
+    }
+
+    /**
+     * Dead position by material: bare kings, a single minor piece,
+     * or only bishops all on the same square color.
+     */
+    public boolean isInsufficientMaterial() {
+        if ((materialSignature & MAJOR_OR_PAWN_SIGNATURE_MASK) != 0) {
+            return false;
+        }
+        long bishops = pieceBits[Config.BISHOP >> 1];
+        long minors = bishops | pieceBits[Config.KNIGHT >> 1];
+        if (Long.bitCount(minors) <= 1) {
+            return true;
+        }
+        return minors == bishops && ((bishops & BitBoard.LIGHT_SQUARES) == 0 || (bishops & ~BitBoard.LIGHT_SQUARES) == 0);
+    }
+
+    Pack toPack() throws Config.PGNException {
+        return new Pack(pack(), getPositionKey());
     }
 
     /**
@@ -526,72 +736,87 @@ public class Board {
     public Board(String fen) throws Config.PGNException {
         ySize =
         xSize = Config.BOARD_SIZE;
+        setFEN(fen);
+    }
+
+    /**
+     * parse FEN into this board, all previous content is discarded
+     * described in http://en.wikipedia.org/wiki/Forsyth-Edwards_Notation
+     */
+    public void setFEN(CharSequence fen) throws Config.PGNException {
+        this.boardCounts = 0;
+        this.boardData = 0;
+        this.move = null;
+        this.positionTable = null;
         this.toEmpty();
-        StringTokenizer st = new StringTokenizer(fen, "/ ");
+        int length = fen.length();
+        int pos = 0;
         for (int j = Config.BOARD_SIZE - 1; j >= 0; j--) {
-            if (!st.hasMoreTokens()) {
+            pos = skipFenDelimiters(fen, pos);
+            if (pos >= length) {
                 throw new Config.PGNException("invalid FEN " + fen);
             }
-            String line = st.nextToken();
             int i = 0;
-            for (int k = 0; k < line.length(); k++) {
-                char ch = line.charAt(k);
+            for (; pos < length && !isFenDelimiter(fen.charAt(pos)); ++pos) {
+                char ch = fen.charAt(pos);
                 if (Character.isDigit(ch)) {
                     i += ch - '0';  // empty squares
                 } else {
                     int piece = Config.FEN_PIECES.indexOf(ch);
-                    this.setPiece(i, j, piece);
-                    if (piece == Config.WHITE_KING) {
-                        this.setWKing(i, j);
-                    }
-                    if (piece == Config.BLACK_KING) {
-                        this.setBKing(i, j);
+                    if (piece < Config.KING || i >= Config.BOARD_SIZE) {
+                        throw new Config.PGNException("invalid FEN " + fen);
                     }
+                    this.setPiece(i, j, piece);     // sets king position too
                     ++i;
                 }
             }
         }
 
         int flags = 0;
-        if (st.hasMoreTokens()) {
-            String turn = st.nextToken();
-            if (turn.equals("b")) {
+        pos = skipFenDelimiters(fen, pos);
+        if (pos < length) {
+            int end = getFenTokenEnd(fen, pos);
+            if (end - pos == 1 && fen.charAt(pos) == 'b') {
                 flags |= Config.FLAGS_BLACK_MOVE;      // previous move was black
             }
-        }
-
-        if (st.hasMoreTokens()) {
-            String castle = st.nextToken();
-            if (castle.indexOf('K') >= 0) {
-                flags |= Config.FLAGS_W_KING_OK;
-            }
-            if (castle.indexOf('Q') >= 0) {
-                flags |= Config.FLAGS_W_QUEEN_OK;
-            }
-            if (castle.indexOf('k') >= 0) {
-                flags |= Config.FLAGS_B_KING_OK;
-            }
-            if (castle.indexOf('q') >= 0) {
-                flags |= Config.FLAGS_B_QUEEN_OK;
+            pos = skipFenDelimiters(fen, end);
+        }
+
+        if (pos < length) {
+            int end = getFenTokenEnd(fen, pos);
+            for (; pos < end; ++pos) {
+                char ch = fen.charAt(pos);
+                if (ch == 'K') {
+                    flags |= Config.FLAGS_W_KING_OK;
+                } else if (ch == 'Q') {
+                    flags |= Config.FLAGS_W_QUEEN_OK;
+                } else if (ch == 'k') {
+                    flags |= Config.FLAGS_B_KING_OK;
+                } else if (ch == 'q') {
+                    flags |= Config.FLAGS_B_QUEEN_OK;
+                }
             }
+            pos = skipFenDelimiters(fen, end);
         }
 
-        if (st.hasMoreTokens()) {
-            String enpass = st.nextToken();
-            if (!enpass.equals("-")) {
-                this.setEnpassantX(calcEnpass(enpass));
+        if (pos < length) {
+            int end = getFenTokenEnd(fen, pos);
+            if (end - pos != 1 || fen.charAt(pos) != '-') {
+                this.setEnpassantX(fen.charAt(pos) - 'a');
                 flags |= Config.FLAGS_ENPASSANT_OK;
             }
+            pos = skipFenDelimiters(fen, end);
         }
 
-        if (st.hasMoreTokens()) {
-            String reversible_ply_num = st.nextToken();
-            this.setReversiblePlyNum(Integer.parseInt(reversible_ply_num));
+        if (pos < length) {
+            int end = getFenTokenEnd(fen, pos);
+            this.setReversiblePlyNum(parseFenNumber(fen, pos, end));
+            pos = skipFenDelimiters(fen, end);
         }
 
-        if (st.hasMoreTokens()) {
+        if (pos < length) {
             // this is the next move number!
-            int fullMoveNum = Integer.parseInt(st.nextToken());
+            int fullMoveNum = parseFenNumber(fen, pos, getFenTokenEnd(fen, pos));
             if (fullMoveNum < 1) {
                 fullMoveNum = 1;    // fix for invalid fen, e.g. 4kb1r/p2n1ppp/4q3/4p1B1/4P3/1Q6/PPP2PPP/2KR4 w k - 1 0
             }
@@ -604,19 +829,55 @@ public class Board {
         this.setFlags(flags);
     }
 
+    private static boolean isFenDelimiter(char ch) {
+        return ch == '/' || ch == ' ';
+    }
+
+    private static int skipFenDelimiters(CharSequence fen, int pos) {
+        while (pos < fen.length() && isFenDelimiter(fen.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int getFenTokenEnd(CharSequence fen, int pos) {
+        while (pos < fen.length() && !isFenDelimiter(fen.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int parseFenNumber(CharSequence fen, int start, int end) throws Config.PGNException {
+        int res = 0;
+        for (int pos = start; pos < end; ++pos) {
+            char ch = fen.charAt(pos);
+            if (!Character.isDigit(ch)) {
+                throw new Config.PGNException("invalid FEN " + fen);
+            }
+            res = 10 * res + ch - '0';
+        }
+        return res;
+    }
+
     /**
      * described in http://en.wikipedia.org/wiki/Forsyth-Edwards_Notation
      *
      * @return FEN
      */
     public String toFEN() {
-        StringBuilder sb = new StringBuilder();
-        String sep = "";
+        return toFEN(new StringBuilder(FEN_LENGTH)).toString();
+    }
 
+    /**
+     * append FEN to sb
+     * @return sb
+     */
+    public StringBuilder toFEN(StringBuilder sb) {
         for (int j = Config.BOARD_SIZE - 1; j >= 0; j--) {
             int empty = 0;
-            sb.append(sep);
-            sep = "/";
+            if (j < Config.BOARD_SIZE - 1) {
+                sb.append('/');
+            }
             for (int i = 0; i < Config.BOARD_SIZE; i++) {
                 int piece = this.getPiece(i, j);
                 if (piece == Config.EMPTY) {
@@ -641,31 +902,82 @@ public class Board {
         }
 
         if ((this.getFlags() & Config.INIT_POSITION_FLAGS) == 0) {
-            sb.append("-");
+            sb.append('-');
         } else {
             if ((this.getFlags() & Config.FLAGS_W_KING_OK) != 0) {
-                sb.append("K");
+                sb.append('K');
             }
             if ((this.getFlags() & Config.FLAGS_W_QUEEN_OK) != 0) {
-                sb.append("Q");
+                sb.append('Q');
             }
             if ((this.getFlags() & Config.FLAGS_B_KING_OK) != 0) {
-                sb.append("k");
+                sb.append('k');
             }
             if ((this.getFlags() & Config.FLAGS_B_QUEEN_OK) != 0) {
-                sb.append("q");
+                sb.append('q');
             }
         }
-        sb.append(" ");
+        sb.append(' ');
 
-        if ((this.getFlags() & Config.FLAGS_ENPASSANT_OK) == 0) {
-            sb.append("-");
+        int enpass = getValidEnpassantX();
+        if (enpass < 0) {
+            sb.append('-');
         } else {
-            sb.append(this.getEnpassant());
+            sb.append((char) ('a' + enpass));
+            sb.append((this.getFlags() & Config.FLAGS_BLACK_MOVE) == 0 ? '6' : '3');
         }
-        sb.append(" ").append(this.getReversiblePlyNum());
-        sb.append(" ").append((1 + this.getPlyNum() / 2));
-        return new String(sb);
+        sb.append(' ').append(this.getReversiblePlyNum());
+        sb.append(' ').append((1 + this.getPlyNum() / 2));
+        return sb;
+    }
+
+    /**
+     * Parse FEN lines one by one into the same board, empty lines are skipped
+     * @param reader FEN lines
+     * @param fenHandler gets the board after each line, the board is reused for the next line
+     * @return number of FEN lines parsed
+     */
+    public static int parseFENs(Reader reader, FenHandler fenHandler) throws Config.PGNException {
+        Board board = new Board();
+        StringBuilder line = new StringBuilder(FEN_LENGTH);
+        char[] buf = new char[8 * 1024];
+        int count = 0;
+        boolean more = true;
+        try {
+            int len;
+            while (more && (len = reader.read(buf)) >= 0) {
+                for (int i = 0; i < len && more; ++i) {
+                    char ch = buf[i];
+                    if (ch != '\n' && ch != '\r') {
+                        line.append(ch);
+                        continue;
+                    }
+                    if (!isBlank(line)) {
+                        board.setFEN(line);
+                        ++count;
+                        more = fenHandler.onFEN(board);
+                    }
+                    line.setLength(0);
+                }
+            }
+            if (more && !isBlank(line)) {
+                board.setFEN(line);
+                ++count;
+                fenHandler.onFEN(board);
+            }
+        } catch (IOException e) {
+            throw new Config.PGNException(e);
+        }
+        return count;
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); ++i) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public int getPiece(int x, int y) {
@@ -679,11 +991,33 @@ public class Board {
         return getPiece(square.x, square.y);
     }
 
+    // index = 8 * y + x
+    public int getPiece(int index) {
+        return (board[index >> 3] >> (4 * (index & 0x07))) & 0x0f;
+    }
+
     public void setPiece(int x, int y, int piece) {
+        long bit = BitBoard.bit(x, y);
+        int oldPiece = (board[y] >> (4 * x)) & 0x0f;
+        if (oldPiece != Config.EMPTY) {
+            pieceBits[oldPiece >> 1] &= ~bit;
+            colorBits[oldPiece & Config.BLACK] &= ~bit;
+            pieceKey ^= BitBoard.PIECE_KEYS[oldPiece][BitBoard.square(x, y)];
+            materialSignature -= 1L << (oldPiece << 2);
+        }
+
         int mask = 0x0f << (4 * x);
         board[y] &= ~mask;
         board[y] |= piece << (4 * x);
 
+        piece = (board[y] >> (4 * x)) & 0x0f;
+        if (piece != Config.EMPTY) {
+            pieceBits[piece >> 1] |= bit;
+            colorBits[piece & Config.BLACK] |= bit;
+            pieceKey ^= BitBoard.PIECE_KEYS[piece][BitBoard.square(x, y)];
+            materialSignature += 1L << (piece << 2);
+        }
+
         if (piece == Config.WHITE_KING) {
             setWKing(x, y);
         }
@@ -696,6 +1030,10 @@ public class Board {
         setPiece(square.x, square.y, piece);
     }
 
+    public void setPiece(int index, int piece) {
+        setPiece(index & 0x07, index >> 3, piece);
+    }
+
     public Move newMove() {
         return new Move(this.getFlags());
     }
@@ -794,13 +1132,7 @@ public class Board {
         }
 
         // verify if the other king is checked:
-        int i;
-        if ((this.getFlags() & Config.FLAGS_BLACK_MOVE) == 0) {
-            i = 1;
-        } else {
-            i = 0;
-        }
-        return findAttack(king[i], null) == null ? 0 : 12;
+        return isKingAttacked((this.getFlags() & Config.BLACK) ^ Config.BLACK) ? 12 : 0;
     }
 
     private int getPositionFlags() {
@@ -872,18 +1204,80 @@ public class Board {
             return true;
         }
 
-        Board tmp = this.clone();
-        tmp.doMove(move);
-        tmp.validate(move);
+        long undo = makeMove(move);
+        validate(move);
 
         // 3. validate own king is checked
-        Square target;
-        if ((move.getPiece() & Config.BLACK) == 0) {
-            target = tmp.getWKing();
-        } else {
-            target = tmp.getBKing();
+        boolean res = !isKingAttacked(move.getPiece() & Config.BLACK);
+        unmakeMove(move, undo);
+        return res;
+    }
+
+    /**
+     * Find move.from for a parsed SAN move with move.to, piece and optional from x/y set.
+     * Candidates come from reverse attack lookup at move.to, each is checked with validatePgnMove
+     * @return true if move.from is found, move flags are updated
+     */
+    boolean resolvePgnMove(Move move) {
+        int color = move.getPiece() & Config.BLACK;
+        int to = move.getToIndex();
+        long candidates;
+        int colorlessPiece = move.getColorlessPiece();
+        switch (colorlessPiece) {
+            case Config.KNIGHT:
+                candidates = BitBoard.KNIGHT_ATTACKS[to];
+                break;
+
+            case Config.BISHOP:
+                candidates = BitBoard.bishopAttacks(to, getOccupied());
+                break;
+
+            case Config.ROOK:
+                candidates = BitBoard.rookAttacks(to, getOccupied());
+                break;
+
+            case Config.QUEEN:
+                candidates = BitBoard.bishopAttacks(to, getOccupied()) | BitBoard.rookAttacks(to, getOccupied());
+                break;
+
+            case Config.PAWN:
+                if (!move.isFromXSet()) {
+                    move.setFromX(move.getToX());
+                }
+                if (move.getFromX() == move.getToX()) {
+                    int back = color == Config.WHITE ? -Config.BOARD_SIZE : Config.BOARD_SIZE;
+                    int from = to + back;
+                    if (from < 0 || from >= BitBoard.SQUARES) {
+                        return false;
+                    }
+                    candidates = 1L << from;
+                    if (getPiece(from) == Config.EMPTY && from + back >= 0 && from + back < BitBoard.SQUARES) {
+                        candidates = 1L << (from + back);     // initial 2-square move
+                    }
+                } else {
+                    candidates = BitBoard.PAWN_ATTACKS[color ^ Config.BLACK][to];
+                }
+                break;
+
+            default:
+                return false;
+        }
+        candidates &= pieceBits[colorlessPiece >> 1] & colorBits[color];
+        if (move.isFromXSet()) {
+            candidates &= BitBoard.fileMask(move.getFromX());
+        }
+        if (move.isFromYSet()) {
+            candidates &= BitBoard.rankMask(move.getFromY());
         }
-        return tmp.findAttack(target, null) == null;
+        while (candidates != 0) {
+            int from = Long.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            move.setFrom(from);
+            if (validatePgnMove(move, Config.VALIDATE_PGN_MOVE)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // e4, dxe5, c1=Q, dxe8=R
@@ -912,7 +1306,7 @@ public class Board {
                 // initial 2-square move
                 if (adx == 0 && move.getFromY() == start_y
                         && this.getPiece(move.getFromX(), start_y + d) == Config.EMPTY
-                        && this.getPiece(move.getTo()) == Config.EMPTY) {
+                        && this.getPiece(move.getToIndex()) == Config.EMPTY) {
                     if (this.getPiece(move.getToX() - 1, move.getToY()) == hisPawn
                             || this.getPiece(move.getToX() + 1, move.getToY()) == hisPawn) {
                         move.moveFlags |= Config.FLAGS_ENPASSANT_OK;
@@ -926,12 +1320,12 @@ public class Board {
         boolean ok = false;
         if (adx == 0) {
             // regular 1-square move
-            if (this.getPiece(move.getTo()) == Config.EMPTY) {
+            if (this.getPiece(move.getToIndex()) == Config.EMPTY) {
                 ok = true;
             }
         } else if (adx == 1) {
-            int pieceTaken = this.getPiece(move.getTo());
-            if (pieceTaken != Config.EMPTY && (pieceTaken & Config.BLACK) != (this.getPiece(move.getFrom()) & Config.BLACK)) {
+            int pieceTaken = this.getPiece(move.getToIndex());
+            if (pieceTaken != Config.EMPTY && (pieceTaken & Config.BLACK) != (this.getPiece(move.getFromIndex()) & Config.BLACK)) {
                 ok = true;
             } else if (this.getEnpassantX() == move.getToX()) {
                 pieceTaken = this.getPiece(move.getToX(), move.getToY() - d);
@@ -954,30 +1348,12 @@ public class Board {
     }
 
     private boolean isObstructed(Move move) {
-        int y = move.getToY() - move.getFromY();
-        int dy = (y == 0) ? 0 : (y > 0) ? 1 : -1;
-        int x = move.getToX() - move.getFromX();
-        int dx = (x == 0) ? 0 : (x > 0) ? 1 : -1;
-
-        int n = y;
-        if (y == 0) {
-            n = x;
-        }
-        if (n == 0) {
+        int from = BitBoard.square(move.getFromX(), move.getFromY());
+        int to = BitBoard.square(move.getToX(), move.getToY());
+        if (from == to) {
             return true;    // for the sake of simplicity consider 0-distanced cells as obstructed
         }
-
-        n = Math.abs(n) - 1;
-        y = move.getFromY();
-        x = move.getFromX();
-        for (int i = 0; i < n; ++i) {
-            y += dy;
-            x += dx;
-            if (getPiece(x, y) != Config.EMPTY) {
-                return true;
-            }
-        }
-        return false;
+        return (BitBoard.BETWEEN[from][to] & getOccupied()) != 0;
     }
 
     public boolean validateKingMove(Move move) {
@@ -986,7 +1362,7 @@ public class Board {
         int ady = Math.abs(dy);
         int adx = Math.abs(dx);
 
-        Square rook = new Square(-1, move.getToY());
+        int rookX;
 
         int clearX0, clearX1, checkedX0, checkedX1;
         if (adx <= 1 && ady <= 1) {
@@ -1002,14 +1378,13 @@ public class Board {
                     if ((this.getFlags() & Config.FLAGS_W_QUEEN_OK) == 0) {
                         return false;
                     }
-                    rook.x = 0;
+                    rookX = 0;
                 } else if ((this.getFlags() & Config.FLAGS_W_KING_OK) == 0) {
                     return false;
                 } else {
-                    rook.x = 7;
+                    rookX = 7;
                 }
-                rook.y = 0;
-                if (getPiece(rook) != Config.WHITE_ROOK) {
+                if (getPiece(rookX, 0) != Config.WHITE_ROOK) {
                     return false;
                 }
             } else {
@@ -1017,19 +1392,18 @@ public class Board {
                     if ((this.getFlags() & Config.FLAGS_B_QUEEN_OK) == 0) {
                         return false;
                     }
-                    rook.x = 0;
+                    rookX = 0;
                 } else if ((this.getFlags() & Config.FLAGS_B_KING_OK) == 0) {
                     return false;
                 } else {
-                    rook.x = 7;
+                    rookX = 7;
                 }
-                rook.y = 7;
-                if (getPiece(rook) != Config.BLACK_ROOK) {
+                if (getPiece(rookX, 7) != Config.BLACK_ROOK) {
                     return false;
                 }
             }
 
-            if (rook.x == 0) {
+            if (rookX == 0) {
                 clearX0 = 1;
                 clearX1 = 3;
                 checkedX0 = 2;
@@ -1049,260 +1423,610 @@ public class Board {
         }
 
         // validate if King or the next square is checked
-        Board tmp = this.clone();
-        tmp.doMove(move);
+        long undo = makeMove(move);
+        int color = getFlags() & Config.BLACK;
+        boolean res = true;
         for (int x = checkedX0; x <= checkedX1; ++x) {
-            Square target = new Square(x, move.getToY());
-            if (tmp.findAttack(target, null) != null) {
-                return false;                                   // checked
+            if (isSquareAttacked(BitBoard.square(x, move.getToY()), color)) {
+                res = false;                                    // checked
+                break;
             }
         }
-
-        return true;
+        unmakeMove(move, undo);
+        return res;
     }
 
     // true means not checked, move is ok
     boolean validateOwnKingCheck(Move move) {
-        Board tmp = this.clone();
-        tmp.doMove(move);
-        Square sq;
-        if ((tmp.getFlags() & Config.FLAGS_BLACK_MOVE) == 0) {
-            sq = tmp.getBKing();
-        } else {
-            sq = tmp.getWKing();
-        }
-        return tmp.findAttack(sq, null) == null;
-    }
-
-    // check if any piece attacks trg square, not necessarily a valid move
-    // except != null when verifying double-check
-    Move findAttack(Square trg, Square except) {
-        int probeX = 0, probeY = 0;
-        if (except != null) {
-            probeX = except.getX() + 1;
-            probeY = except.getY();
-            if (probeX == Config.BOARD_SIZE) {
-                probeX = 0;
-                ++probeY;
-            }
-        }
-        int trgPiece = getPiece(trg);
-        Move probeMove = newMove();
-        probeMove.setTo(trg);
-        for (; probeY < Config.BOARD_SIZE; ++probeY) {
-            for (; probeX < Config.BOARD_SIZE; ++probeX) {
-                int piece = getPiece(probeX, probeY);
-                if (piece == Config.EMPTY || (this.getFlags() & Config.BLACK) != (piece & Config.BLACK)) {
-                    continue;
-                }
-                if (trgPiece == Config.EMPTY || (trgPiece & Config.BLACK) != (piece & Config.BLACK)) {
-                    probeMove.setPiece(getPiece(probeX, probeY));
-                    probeMove.setFrom(probeX, probeY);
-                    if (validatePgnMove(probeMove, Config.VALIDATE_CHECK)) {
-                        return probeMove;
-                    }
-                }
+        int color = getFlags() & Config.BLACK;
+        int kingSquare = getKingSquare(color);
+        if (kingSquare >= 0 && !move.isNullMove() && !isEnPassant(move)
+                && (move.getColorlessPiece() != Config.KING || Math.abs(move.getToX() - move.getFromX()) <= 1)) {
+            if (getPiece(move.getToIndex()) != Config.EMPTY) {
+                move.moveFlags |= Config.FLAGS_CAPTURE;     // as doMove does
+            }
+            int hisColor = color ^ Config.BLACK;
+            return isLegal(move.getFromIndex(), move.getToIndex(), kingSquare,
+                    getAttackers(kingSquare, hisColor), getPinned(kingSquare, color));
+        }
+        long undo = makeMove(move);
+        boolean res = !isKingAttacked((getFlags() & Config.BLACK) ^ Config.BLACK);
+        unmakeMove(move, undo);
+        return res;
+    }
+
+    /**
+     * @param square BitBoard square index
+     * @param byColor Config.WHITE or Config.BLACK
+     * @return true if any piece of byColor attacks the square
+     */
+    public boolean isSquareAttacked(int square, int byColor) {
+        return getAttackers(square, byColor) != 0;
+    }
+
+    // mask of byColor pieces attacking the square
+    long getAttackers(int square, int byColor) {
+        return getAttackers(square, byColor, getOccupied());
+    }
+
+    // sliders are blocked by occupied only
+    private long getAttackers(int square, int byColor, long occupied) {
+        long queens = pieceBits[Config.QUEEN >> 1];
+        long attackers = BitBoard.KNIGHT_ATTACKS[square] & pieceBits[Config.KNIGHT >> 1]
+                | BitBoard.KING_ATTACKS[square] & pieceBits[Config.KING >> 1]
+                | BitBoard.PAWN_ATTACKS[byColor ^ Config.BLACK][square] & pieceBits[Config.PAWN >> 1]
+                | BitBoard.bishopAttacks(square, occupied) & (pieceBits[Config.BISHOP >> 1] | queens)
+                | BitBoard.rookAttacks(square, occupied) & (pieceBits[Config.ROOK >> 1] | queens);
+        return attackers & colorBits[byColor];
+    }
+
+    // BitBoard square index of the king, -1 if there is no king
+    int getKingSquare(int color) {
+        long king = pieceBits[Config.KING >> 1] & colorBits[color];
+        if (king == 0) {
+            return -1;
+        }
+        return Long.numberOfTrailingZeros(king);
+    }
+
+    // true if the king of color is attacked
+    boolean isKingAttacked(int color) {
+        int king = getKingSquare(color);
+        return king >= 0 && isSquareAttacked(king, color ^ Config.BLACK);
+    }
+
+    /**
+     * Pieces of color that alone shield the king from a bishop, rook or queen of the other side
+     * @param kingSquare BitBoard square index of the king of color
+     * @return mask of pinned pieces
+     */
+    long getPinned(int kingSquare, int color) {
+        long occupied = getOccupied();
+        long queens = pieceBits[Config.QUEEN >> 1];
+        long snipers = (BitBoard.bishopAttacks(kingSquare, 0) & (pieceBits[Config.BISHOP >> 1] | queens)
+                | BitBoard.rookAttacks(kingSquare, 0) & (pieceBits[Config.ROOK >> 1] | queens))
+                & colorBits[color ^ Config.BLACK];
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long between = BitBoard.BETWEEN[kingSquare][sniper] & occupied;
+            if (between != 0 && (between & (between - 1)) == 0) {
+                pinned |= between & colorBits[color];
             }
-            probeX = 0;
         }
-        return null;
+        return pinned;
     }
 
-    // move contains the attacking piece
-    boolean validateCheckmate(Move move) {
-        Move probeMove = new Move(move.moveFlags ^ Config.FLAGS_BLACK_MOVE);
-        int probeTo_x, probeTo_y;
+    /**
+     * Legality of a non-castle, non-en-passant move of the side to move without making it
+     * @param kingSquare BitBoard square index of the moving side king
+     * @param checkers pieces checking the king
+     * @param pinned from getPinned
+     * @return true if the king is not checked after the move
+     */
+    private boolean isLegal(int from, int to, int kingSquare, long checkers, long pinned) {
+        if (from == kingSquare) {
+            int hisColor = (getPiece(from) & Config.BLACK) ^ Config.BLACK;
+            return getAttackers(to, hisColor, getOccupied() ^ (1L << from)) == 0;
+        }
+        if (checkers != 0) {
+            if ((checkers & (checkers - 1)) != 0) {
+                return false;       // double check, only the king can move
+            }
+            long checkMask = checkers | BitBoard.BETWEEN[kingSquare][Long.numberOfTrailingZeros(checkers)];
+            if ((checkMask & (1L << to)) == 0) {
+                return false;
+            }
+        }
+        if ((pinned & (1L << from)) != 0) {
+            // stay on the line between the king and the pinner
+            return (BitBoard.BETWEEN[kingSquare][to] & (1L << from)) != 0
+                    || (BitBoard.BETWEEN[kingSquare][from] & (1L << to)) != 0;
+        }
+        return true;
+    }
 
-        // 1. validate king moves
-        // his move
-        this.invertFlags(Config.FLAGS_BLACK_MOVE);
-        int attackedPiece = this.getPiece(move.getTo());
-        probeMove.setPiece(attackedPiece);
-        probeMove.setFrom(move.getTo());
+    // the side to move is checked, true if it has no legal moves
+    boolean validateCheckmate() {
+        return !hasLegalMoves();
+    }
 
-        for (probeTo_y = probeMove.getFromY() - 1; probeTo_y <= probeMove.getFromY() + 1; ++probeTo_y) {
-            if (probeTo_y < 0) {
-                continue;
+    // the side to move is not checked, true if it has no legal moves
+    boolean validateStalemate() {
+        return !hasLegalMoves();
+    }
+
+    private static final int[][]
+        KNIGHT_DIRECTIONS = {{-1,-2}, {-2,-1}, {-2,1}, {-1,2}, {1,2}, {2,1}, {2,-1}, {1,-2}},
+        KING_DIRECTIONS = {{-1,0}, {-1,1}, {0,1}, {1,1}, {1,0}, {1,-1}, {0,-1}, {-1,-1}},
+        BISHOP_DIRECTIONS = {{-1,-1}, {-1,1}, {1,1}, {1,-1}},
+        ROOK_DIRECTIONS = {{-1,0}, {0,1}, {1,0}, {0,-1}};
+
+    private static final int[] PROMOTIONS = {Config.QUEEN, Config.BISHOP, Config.KNIGHT, Config.ROOK};
+
+    /**
+     * All moves of the side to move that obey piece movement rules, own king can be left checked.
+     * Castling is generated when the rook is in place and the squares between are empty,
+     * passing through check is verified in generateLegalMoves.
+     * @param moves list to fill, cleared first
+     * @return number of moves
+     */
+    public int generatePseudoLegalMoves(IntMoveList moves) {
+        moves.clear();
+        generateMoves(moves, false);
+        return moves.size();
+    }
+
+    /**
+     * Captures, including en passant and capturing promotions, own king can be left checked.
+     * @param moves list to fill, cleared first
+     * @return number of moves
+     */
+    public int generateCaptures(IntMoveList moves) {
+        moves.clear();
+        generateMoves(moves, true);
+        return moves.size();
+    }
+
+    /**
+     * Checkers and pinned pieces are found once, each move is then checked with masks,
+     * only en passant is verified with makeMove. In check only evasions are generated.
+     * @param moves list to fill, cleared first
+     * @return number of legal moves
+     */
+    public int generateLegalMoves(IntMoveList moves) {
+        moves.clear();
+        int color = getFlags() & Config.BLACK;
+        int kingSquare = getKingSquare(color);
+        if (kingSquare < 0) {
+            // invalid position
+            generateMoves(moves, false);
+            return filterLegal(moves, -1, 0, 0);
+        }
+        long checkers = getAttackers(kingSquare, color ^ Config.BLACK);
+        if (checkers == 0) {
+            generateMoves(moves, false);
+        } else {
+            generateEvasions(moves, kingSquare, checkers);
+        }
+        return filterLegal(moves, kingSquare, checkers, getPinned(kingSquare, color));
+    }
+
+    /**
+     * Legal captures, including en passant and capturing promotions, all evasions when in check
+     * @param moves list to fill, cleared first
+     * @return number of moves
+     */
+    public int generateLegalCaptures(IntMoveList moves) {
+        moves.clear();
+        int color = getFlags() & Config.BLACK;
+        int kingSquare = getKingSquare(color);
+        if (kingSquare < 0) {
+            generateMoves(moves, true);
+            return filterLegal(moves, -1, 0, 0);
+        }
+        long checkers = getAttackers(kingSquare, color ^ Config.BLACK);
+        if (checkers == 0) {
+            generateMoves(moves, true);
+        } else {
+            generateEvasions(moves, kingSquare, checkers);
+        }
+        return filterLegal(moves, kingSquare, checkers, getPinned(kingSquare, color));
+    }
+
+    boolean hasLegalMoves() {
+        return generateLegalMoves(new IntMoveList()) > 0;
+    }
+
+    public int findMate(int maxMoves) {
+        return findMate(maxMoves, null);
+    }
+
+    /**
+     * Exhaustive search, repetitions and the 50-move rule are ignored.
+     * @param maxMoves depth limit in moves of the side to move
+     * @param solutions if not null, filled with all first moves that mate in the returned number of moves
+     * @return number of moves to mate, 0 if there is no mate within maxMoves
+     */
+    public int findMate(int maxMoves, IntMoveList solutions) {
+        return mateSolvers.get().findMate(this, maxMoves, solutions);
+    }
+
+    // pseudo-legal move from the generator
+    boolean isLegal(int move) {
+        int color = getFlags() & Config.BLACK;
+        int kingSquare = getKingSquare(color);
+        if (kingSquare < 0) {
+            return isLegal(move, -1, 0, 0);
+        }
+        return isLegal(move, kingSquare, getAttackers(kingSquare, color ^ Config.BLACK), getPinned(kingSquare, color));
+    }
+
+    private int filterLegal(IntMoveList moves, int kingSquare, long checkers, long pinned) {
+        int n = 0;
+        for (int i = 0; i < moves.size(); ++i) {
+            int move = moves.get(i);
+            if (isLegal(move, kingSquare, checkers, pinned)) {
+                moves.set(n++, move);
             }
-            if (probeTo_y >= Config.BOARD_SIZE) {
-                break;
+        }
+        moves.truncate(n);
+        return n;
+    }
+
+    // kingSquare < 0 for positions without king, every move is made then
+    private boolean isLegal(int move, int kingSquare, long checkers, long pinned) {
+        if (IntMoveList.isCastle(move)) {
+            if (checkers != 0) {
+                return false;
             }
-            for (probeTo_x = probeMove.getFromX() - 1; probeTo_x <= probeMove.getFromX() + 1; ++probeTo_x) {
-                if (probeTo_x < 0) {
-                    continue;
+            // the generator verified the rook and the empty squares, the king must not pass an attacked square
+            int from = IntMoveList.getFrom(move);
+            int to = IntMoveList.getTo(move);
+            int hisColor = (getPiece(from) & Config.BLACK) ^ Config.BLACK;
+            long path = BitBoard.BETWEEN[from][to] | 1L << to;
+            while (path != 0) {
+                if (isSquareAttacked(Long.numberOfTrailingZeros(path), hisColor)) {
+                    return false;
                 }
-                if (probeTo_x >= Config.BOARD_SIZE) {
-                    break;
+                path &= path - 1;
+            }
+            return true;
+        }
+        if (kingSquare < 0 || IntMoveList.isEnPassant(move)) {
+            // en passant removes two pieces from the line to the king
+            Move m = toMove(move);
+            long undo = makeMove(m);
+            boolean res = !isKingAttacked((getFlags() & Config.BLACK) ^ Config.BLACK);
+            unmakeMove(m, undo);
+            return res;
+        }
+        return isLegal(IntMoveList.getFrom(move), IntMoveList.getTo(move), kingSquare, checkers, pinned);
+    }
+
+    /**
+     * Pseudo-legal check evasions: king moves, then captures of the checker
+     * and interpositions, found by reverse lookup from the target squares
+     */
+    private void generateEvasions(IntMoveList moves, int kingSquare, long checkers) {
+        int king = getPiece(kingSquare);
+        int color = king & Config.BLACK;
+        generatePieceMoves(moves, BitBoard.getX(kingSquare), BitBoard.getY(kingSquare), king, KING_DIRECTIONS, 1, false);
+        if ((checkers & (checkers - 1)) != 0) {
+            return;     // double check
+        }
+        int checker = Long.numberOfTrailingZeros(checkers);
+        long targets = checkers | BitBoard.BETWEEN[kingSquare][checker];
+        long occupied = getOccupied();
+        long queens = pieceBits[Config.QUEEN >> 1];
+        long ownPawns = pieceBits[Config.PAWN >> 1] & colorBits[color];
+        int pawn = Config.PAWN | color;
+        int d, startY, finalY, enpassY;
+        if (color == Config.WHITE) {
+            d = Config.BOARD_SIZE;
+            startY = 1;
+            finalY = 7;
+            enpassY = 4;
+        } else {
+            d = -Config.BOARD_SIZE;
+            startY = 6;
+            finalY = 0;
+            enpassY = 3;
+        }
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            int captured = getPiece(to);
+            long sources = (BitBoard.KNIGHT_ATTACKS[to] & pieceBits[Config.KNIGHT >> 1]
+                    | BitBoard.bishopAttacks(to, occupied) & (pieceBits[Config.BISHOP >> 1] | queens)
+                    | BitBoard.rookAttacks(to, occupied) & (pieceBits[Config.ROOK >> 1] | queens))
+                    & colorBits[color];
+            while (sources != 0) {
+                int from = Long.numberOfTrailingZeros(sources);
+                sources &= sources - 1;
+                moves.add(IntMoveList.encode(from, to, getPiece(from), Config.EMPTY, captured, 0));
+            }
+            boolean promotion = BitBoard.getY(to) == finalY;
+            if (captured != Config.EMPTY) {
+                sources = BitBoard.PAWN_ATTACKS[color ^ Config.BLACK][to] & ownPawns;
+                while (sources != 0) {
+                    int from = Long.numberOfTrailingZeros(sources);
+                    sources &= sources - 1;
+                    addPawnMove(moves, from, to, pawn, captured, 0, promotion);
                 }
-                int piece = getPiece(probeTo_x, probeTo_y);
-                if (piece == Config.EMPTY || (piece & Config.BLACK) != (attackedPiece & Config.BLACK)) {
-                    probeMove.setTo(probeTo_x, probeTo_y);
-                    if (validateKingMove(probeMove)) {
-                        if (validateOwnKingCheck(probeMove)) {
-                            this.invertFlags(Config.FLAGS_BLACK_MOVE);
-                            return false;
-                        }
-                    }
+                continue;
+            }
+            int from = to - d;
+            if (from < 0 || from >= BitBoard.SQUARES) {
+                continue;
+            }
+            if (getPiece(from) == pawn) {
+                addPawnMove(moves, from, to, pawn, Config.EMPTY, 0, promotion);
+            } else if (getPiece(from) == Config.EMPTY && BitBoard.getY(from - d) == startY && getPiece(from - d) == pawn) {
+                moves.add(IntMoveList.encode(from - d, to, pawn, Config.EMPTY, Config.EMPTY, IntMoveList.DOUBLE_PUSH));
+            }
+        }
+
+        // checking pawn that has just made a double push
+        int hisPawn = pawn ^ Config.BLACK;
+        int checkerX = BitBoard.getX(checker);
+        if (getPiece(checker) == hisPawn && BitBoard.getY(checker) == enpassY && checkerX == getEnpassantX()) {
+            for (int x = checkerX - 1; x <= checkerX + 1; x += 2) {
+                if (x >= 0 && x < Config.BOARD_SIZE && getPiece(x, enpassY) == pawn) {
+                    moves.add(IntMoveList.encode(BitBoard.square(x, enpassY), checker + d, pawn, Config.EMPTY, hisPawn, IntMoveList.EN_PASSANT));
                 }
             }
         }
-        this.invertFlags(Config.FLAGS_BLACK_MOVE);
+    }
 
-        // 2. verify if it is a double-check, skip verified squares
-        // my move
-        if (findAttack(move.getTo(), move.getFrom()) != null) {
-            return true;
+    // convert generated move to Move with moveFlags set
+    public Move toMove(int move) {
+        Move m = newMove();
+        m.moveFlags &= ~Config.FLAGS_ENPASSANT_OK;
+        int from = IntMoveList.getFrom(move);
+        int to = IntMoveList.getTo(move);
+        int toX = BitBoard.getX(to);
+        int toY = BitBoard.getY(to);
+        int piece = IntMoveList.getPiece(move);
+        m.setFrom(BitBoard.getX(from), BitBoard.getY(from));
+        m.setTo(toX, toY);
+        m.setPiece(piece);
+        if (IntMoveList.getPromoted(move) != Config.EMPTY) {
+            m.setPiecePromoted(IntMoveList.getPromoted(move));
+        }
+        if (IntMoveList.isCapture(move)) {
+            m.moveFlags |= Config.FLAGS_CAPTURE;
+        }
+        if (IntMoveList.isCastle(move)) {
+            m.moveFlags |= Config.FLAGS_CASTLE;
+        }
+        if (IntMoveList.isDoublePush(move)) {
+            int hisPawn = piece ^ Config.BLACK;
+            if (getPiece(toX - 1, toY) == hisPawn || getPiece(toX + 1, toY) == hisPawn) {
+                m.moveFlags |= Config.FLAGS_ENPASSANT_OK;
+            }
         }
+        return m;
+    }
 
-        // 3. verify if the attacking piece can be blocked/captured
-        // his move
-        this.invertFlags(Config.FLAGS_BLACK_MOVE);
-        probeMove = move.clone();
-        probeMove.moveFlags ^= Config.FLAGS_BLACK_MOVE;
-        int dx = 0, dy = 0, n = 1;
-        if ((move.getPiece() & ~Config.BLACK) == Config.KNIGHT) {
-            probeMove.setToX(probeMove.getFromX());
-            probeMove.setToY(probeMove.getFromY());
-        } else {
-            if (probeMove.getToX() < probeMove.getFromX()) {
-                dx = 1;
-                n = probeMove.getFromX() - probeMove.getToX();
-            } else if (probeMove.getToX() > probeMove.getFromX()) {
-                dx = -1;
-                n = probeMove.getToX() - probeMove.getFromX();
-            }
-            if (probeMove.getToY() < probeMove.getFromY()) {
-                dy = 1;
-                n = probeMove.getFromY() - probeMove.getToY();
-            } else if (probeMove.getToY() > probeMove.getFromY()) {
-                dy = -1;
-                n = probeMove.getToY() - probeMove.getFromY();
-            }
-        }
-
-        int probeFrom_x, probeFrom_y;
-        for (int i = 0; i < n; ++i) {
-            probeMove.setToX(probeMove.getToX() + dx);
-            probeMove.setToY(probeMove.getToY() + dy);
-            for (probeFrom_y = 0; probeFrom_y < Config.BOARD_SIZE; ++probeFrom_y) {
-                for (probeFrom_x = 0; probeFrom_x < Config.BOARD_SIZE; ++probeFrom_x) {
-                    int piece = getPiece(probeFrom_x, probeFrom_y);
-                    if (piece == Config.EMPTY || (this.getFlags() & Config.BLACK) != (piece & Config.BLACK)) {
-                        continue;
+    private void generateMoves(IntMoveList moves, boolean capturesOnly) {
+        long pieces = colorBits[getFlags() & Config.BLACK];
+        while (pieces != 0) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            int x = BitBoard.getX(from);
+            int y = BitBoard.getY(from);
+            int piece = getPiece(x, y);
+            switch (piece & ~Config.BLACK) {
+                case Config.PAWN:
+                    generatePawnMoves(moves, x, y, piece, capturesOnly);
+                    break;
+
+                case Config.KNIGHT:
+                    generatePieceMoves(moves, x, y, piece, KNIGHT_DIRECTIONS, 1, capturesOnly);
+                    break;
+
+                case Config.BISHOP:
+                    generatePieceMoves(moves, x, y, piece, BISHOP_DIRECTIONS, Config.BOARD_SIZE, capturesOnly);
+                    break;
+
+                case Config.ROOK:
+                    generatePieceMoves(moves, x, y, piece, ROOK_DIRECTIONS, Config.BOARD_SIZE, capturesOnly);
+                    break;
+
+                case Config.QUEEN:
+                    generatePieceMoves(moves, x, y, piece, KING_DIRECTIONS, Config.BOARD_SIZE, capturesOnly);
+                    break;
+
+                case Config.KING:
+                    generatePieceMoves(moves, x, y, piece, KING_DIRECTIONS, 1, capturesOnly);
+                    if (!capturesOnly) {
+                        generateCastleMoves(moves, x, y, piece);
                     }
-                    probeMove.setFrom(probeFrom_x, probeFrom_y);
-                    probeMove.setPiece(piece);
-                    if (validatePgnMove(probeMove, Config.VALIDATE_USER_MOVE)) {
-                        this.invertFlags(Config.FLAGS_BLACK_MOVE);
-                        return false;
+                    break;
+            }
+        }
+    }
+
+    private void generatePieceMoves(IntMoveList moves, int x, int y, int piece, int[][] directions, int maxSteps, boolean capturesOnly) {
+        int from = BitBoard.square(x, y);
+        for (int[] direction : directions) {
+            int toX = x;
+            int toY = y;
+            for (int i = 0; i < maxSteps; ++i) {
+                toX += direction[0];
+                toY += direction[1];
+                if (toX < 0 || toX >= Config.BOARD_SIZE || toY < 0 || toY >= Config.BOARD_SIZE) {
+                    break;
+                }
+                int trgPiece = getPiece(toX, toY);
+                if (trgPiece == Config.EMPTY) {
+                    if (!capturesOnly) {
+                        moves.add(IntMoveList.encode(from, BitBoard.square(toX, toY), piece, Config.EMPTY, Config.EMPTY, 0));
                     }
+                    continue;
                 }
+                if ((trgPiece & Config.BLACK) != (piece & Config.BLACK)) {
+                    moves.add(IntMoveList.encode(from, BitBoard.square(toX, toY), piece, Config.EMPTY, trgPiece, 0));
+                }
+                break;
             }
         }
+    }
 
-        // 4. special case: mating move by pawn that can be taken by en passant
-        if ((this.getFlags() & Config.FLAGS_ENPASSANT_OK) != 0) {
-            probeMove = this.newMove();
-            if ((this.getFlags() & Config.FLAGS_BLACK_MOVE) != 0) {
-                probeMove.setFromY(3);
-                probeMove.setToY(2);
-                probeMove.setPiece(Config.BLACK_PAWN);
-            } else {
-                probeMove.setFromY(4);
-                probeMove.setToY(5);
-                probeMove.setPiece(Config.WHITE_PAWN);
-            }
-            int enpass = this.getEnpassantX();
-            probeMove.setToX(enpass);
-            if (getPiece(enpass - 1, probeMove.getFromY()) == probeMove.getPiece()) {
-                probeMove.setFromX(enpass - 1);
-                if (validatePgnMove(probeMove, Config.VALIDATE_USER_MOVE)) {
-                    this.invertFlags(Config.FLAGS_BLACK_MOVE);
-                    return false;
-                }
+    private void generateCastleMoves(IntMoveList moves, int x, int y, int piece) {
+        int y0, kingSideOk, queenSideOk;
+        if ((piece & Config.BLACK) == 0) {
+            y0 = 0;
+            kingSideOk = Config.FLAGS_W_KING_OK;
+            queenSideOk = Config.FLAGS_W_QUEEN_OK;
+        } else {
+            y0 = Config.BOARD_SIZE - 1;
+            kingSideOk = Config.FLAGS_B_KING_OK;
+            queenSideOk = Config.FLAGS_B_QUEEN_OK;
+        }
+        if (x != 4 || y != y0) {
+            return;
+        }
+        int from = BitBoard.square(x, y);
+        int rook = Config.ROOK | (piece & Config.BLACK);
+        long occupied = getOccupied();
+        if ((getFlags() & kingSideOk) != 0 && getPiece(7, y0) == rook
+                && (BitBoard.BETWEEN[from][BitBoard.square(7, y0)] & occupied) == 0) {
+            moves.add(IntMoveList.encode(from, BitBoard.square(6, y0), piece, Config.EMPTY, Config.EMPTY, IntMoveList.CASTLE));
+        }
+        if ((getFlags() & queenSideOk) != 0 && getPiece(0, y0) == rook
+                && (BitBoard.BETWEEN[from][BitBoard.square(0, y0)] & occupied) == 0) {
+            moves.add(IntMoveList.encode(from, BitBoard.square(2, y0), piece, Config.EMPTY, Config.EMPTY, IntMoveList.CASTLE));
+        }
+    }
+
+    private void generatePawnMoves(IntMoveList moves, int x, int y, int piece, boolean capturesOnly) {
+        int d, startY, finalY, enpassY;
+        if ((piece & Config.BLACK) == 0) {
+            d = 1;
+            startY = 1;
+            finalY = 7;
+            enpassY = 4;
+        } else {
+            d = -1;
+            startY = 6;
+            finalY = 0;
+            enpassY = 3;
+        }
+        int toY = y + d;
+        if (toY < 0 || toY >= Config.BOARD_SIZE) {
+            return;     // invalid position
+        }
+        int from = BitBoard.square(x, y);
+        if (!capturesOnly && getPiece(x, toY) == Config.EMPTY) {
+            addPawnMove(moves, from, BitBoard.square(x, toY), piece, Config.EMPTY, 0, toY == finalY);
+            if (y == startY && getPiece(x, toY + d) == Config.EMPTY) {
+                moves.add(IntMoveList.encode(from, BitBoard.square(x, toY + d), piece, Config.EMPTY, Config.EMPTY, IntMoveList.DOUBLE_PUSH));
             }
-            if (getPiece(enpass + 1, probeMove.getFromY()) == probeMove.getPiece()) {
-                probeMove.setFromX(enpass + 1);
-                if (validatePgnMove(probeMove, Config.VALIDATE_USER_MOVE)) {
-                    this.invertFlags(Config.FLAGS_BLACK_MOVE);
-                    return false;
+        }
+        int hisPawn = piece ^ Config.BLACK;
+        for (int toX = x - 1; toX <= x + 1; toX += 2) {
+            if (toX < 0 || toX >= Config.BOARD_SIZE) {
+                continue;
+            }
+            int trgPiece = getPiece(toX, toY);
+            if (trgPiece != Config.EMPTY) {
+                if ((trgPiece & Config.BLACK) != (piece & Config.BLACK)) {
+                    addPawnMove(moves, from, BitBoard.square(toX, toY), piece, trgPiece, 0, toY == finalY);
                 }
+            } else if (y == enpassY && toX == getEnpassantX() && getPiece(toX, y) == hisPawn) {
+                moves.add(IntMoveList.encode(from, BitBoard.square(toX, toY), piece, Config.EMPTY, hisPawn, IntMoveList.EN_PASSANT));
             }
         }
-        this.invertFlags(Config.FLAGS_BLACK_MOVE);
-        return true;
     }
 
-    boolean validateStalemate() {
-        final int[][][] probePawnMoves = {
-            {{0,1}, {-1,1}, {1,1}},             // white
-            {{0, -1}, {-1, -1}, {1, -1}},       // black
-        };
-        final int[][] probeKnigthMoves = {{-1,-2}, {-2,-1}, {-2,1}, {-1,2}, {1,2}, {2,1}, {2,-1}, {1,-2}};
-        final int[][] probeKingMoves = {{-1,0}, {-1,1}, {0,1}, {1,1}, {1,0}, {1,-1}, {0,-1}, {-1,-1}};
-        final int[][] probeBishopMoves = {{-1,-1}, {-1,1}, {1,1}, {1,-1}};
-        final int[][] probeRookMoves = {{-1,0}, {0,1}, {1,0}, {0,-1}};
-
-        Board tmp = this.clone();
-        int myColor = tmp.getFlags() & Config.BLACK;
-        int hisColor = Config.BLACK - myColor;
-        for (int i = 0; i < Config.BOARD_SIZE; ++i) {
-            for (int j = 0; j < Config.BOARD_SIZE; ++j) {
-                int piece = tmp.getPiece(i, j);
-                if (piece == Config.EMPTY || (piece & Config.BLACK) == hisColor) {
-                    continue;
-                }
-                Move move = tmp.newMove();
-                int moveFlags = move.moveFlags;
-                move.setFrom(i, j);
-                move.setPiece(piece);
-                int[][] probeMoves;
-                switch (piece & ~Config.BLACK) {
-                    case Config.PAWN:
-                        probeMoves = probePawnMoves[myColor];       // ASSUMING Config.BLACK == 1!!
-                        break;
-
-                    case Config.KNIGHT:
-                        probeMoves = probeKnigthMoves;
-                        break;
-
-                    case Config.ROOK:
-                        probeMoves = probeRookMoves;
-                        break;
-
-                    case Config.BISHOP:
-                        probeMoves = probeBishopMoves;
-                        break;
-
-                    default:
-                        probeMoves = probeKingMoves;
-                        break;
-                }
-                for (int[] probeMove : probeMoves) {
-                    int x = i + probeMove[0];
-                    if (x < 0 || x >= Config.BOARD_SIZE) {
-                        continue;
-                    }
-                    int y = j + probeMove[1];
-                    if (y < 0 || y >= Config.BOARD_SIZE) {
-                        continue;
-                    }
-                    int trgPiece = tmp.getPiece(x, y);
-                    if (trgPiece != Config.EMPTY && (trgPiece & Config.BLACK) == (piece & Config.BLACK)) {
-                        continue;
-                    }
-                    move.setTo(x, y);
-                    move.moveFlags = moveFlags;
-                    if (DEBUG) {
-                        logger.debug(String.format("stalemate probe %s\n%s", move.toString(), tmp.toString()));
-                    }
-                    if (tmp.validatePgnMove(move, Config.VALIDATE_USER_MOVE)) {
-                        return false;
-                    }
+    private void addPawnMove(IntMoveList moves, int from, int to, int piece, int captured, int flags, boolean promotion) {
+        if (!promotion) {
+            moves.add(IntMoveList.encode(from, to, piece, Config.EMPTY, captured, flags));
+            return;
+        }
+        for (int promoted : PROMOTIONS) {
+            moves.add(IntMoveList.encode(from, to, piece, promoted | (piece & Config.BLACK), captured, flags));
+        }
+    }
+
+    private static final int
+        // undo record, returned by makeMove:
+        UNDO_BOARD_DATA_LENGTH = VERTEX_SERIALIZATION_VISITED_OFFSET + VERTEX_VISITED_LENGTH,    // 24
+        UNDO_BOARD_COUNTS_OFFSET = UNDO_BOARD_DATA_LENGTH,                                      // 24
+        UNDO_CAPTURED_OFFSET = UNDO_BOARD_COUNTS_OFFSET + BOARD_COUNTS_PACK_LENGTH,             // 44
+        UNDO_ENPASS_CAPTURED_OFFSET = UNDO_CAPTURED_OFFSET + 4,                                 // 48
+        _dummy_undo = 0;
+
+    /**
+     * doMove in place, to be reverted with unmakeMove
+     * @param move to make, moveFlags are updated as in doMove
+     * @return undo record: boardData, boardCounts and captured pieces
+     */
+    long makeMove(Move move) {
+        int captured = Config.EMPTY;
+        int enpassCaptured = Config.EMPTY;
+        if ((move.moveFlags & Config.FLAGS_NULL_MOVE) == 0) {
+            captured = getPiece(move.getToX(), move.getToY());
+            int enpassY = getEnpassCapturedY(move, captured);
+            if (enpassY >= 0) {
+                enpassCaptured = getPiece(move.getToX(), enpassY);
+            }
+        }
+        long undo = ((long) boardData & ((1L << UNDO_BOARD_DATA_LENGTH) - 1))
+                | ((long) getBoardCounts() & ((1L << BOARD_COUNTS_PACK_LENGTH) - 1)) << UNDO_BOARD_COUNTS_OFFSET
+                | (long) captured << UNDO_CAPTURED_OFFSET
+                | (long) enpassCaptured << UNDO_ENPASS_CAPTURED_OFFSET;
+        doMove(move);
+        return undo;
+    }
+
+    // y of the pawn that doMove takes en passant, -1 if none
+    private static int getEnpassCapturedY(Move move, int toPiece) {
+        if (move.getColorlessPiece() == Config.PAWN && move.getFromX() != move.getToX() && toPiece == Config.EMPTY) {
+            if (move.getToY() == 5) {
+                return 4;
+            }
+            if (move.getToY() == 2) {
+                return 3;
+            }
+        }
+        return -1;
+    }
+
+    // revert makeMove
+    void unmakeMove(Move move, long undo) {
+        if ((move.moveFlags & Config.FLAGS_NULL_MOVE) == 0) {
+            int captured = (int) (undo >>> UNDO_CAPTURED_OFFSET) & 0x0f;
+            int enpassCaptured = (int) (undo >>> UNDO_ENPASS_CAPTURED_OFFSET) & 0x0f;
+            int fromX = move.getFromX();
+            int fromY = move.getFromY();
+            int toX = move.getToX();
+            int toY = move.getToY();
+            int piece = move.getPiece();
+            setPiece(fromX, fromY, piece);
+            setPiece(toX, toY, captured);
+            int enpassY = getEnpassCapturedY(move, captured);
+            if (enpassY >= 0) {
+                setPiece(toX, enpassY, enpassCaptured);
+            }
+            if ((move.moveFlags & Config.FLAGS_CASTLE) != 0) {
+                int x0, x1;
+                if (toX == 2) {
+                    x0 = 0;
+                    x1 = 3;         // queen side
+                } else {
+                    x0 = 7;
+                    x1 = 5;         // king side
                 }
+                setPiece(x0, toY, getPiece(x1, toY));
+                setPiece(x1, toY, Config.EMPTY);
             }
         }
-        return true;
+        boardData = (int) (undo & ((1L << UNDO_BOARD_DATA_LENGTH) - 1));
+        setBoardCounts((int) (undo >>> UNDO_BOARD_COUNTS_OFFSET) & ((1 << BOARD_COUNTS_PACK_LENGTH) - 1));
     }
 
     // move pieces on board
@@ -1313,27 +2037,23 @@ public class Board {
             return;
         }
 
-        if (this.getPiece(move.getTo()) != Config.EMPTY) { // can be empty: en passant
+        int to = move.getToIndex();
+        int toPiece = getPiece(to);
+        if (toPiece != Config.EMPTY) { // can be empty: en passant
             move.moveFlags |= Config.FLAGS_CAPTURE;
         }
 
-        setPiece(move.getFrom(), Config.EMPTY);
-        int toPiece = getPiece(move.getTo());
+        setPiece(move.getFromIndex(), Config.EMPTY);
         if ((move.getPiecePromoted() == Config.EMPTY)) {
-            setPiece(move.getTo(), move.getPiece());
+            setPiece(to, move.getPiece());
         } else {
-            setPiece(move.getTo(), move.getPiecePromoted());
+            setPiece(to, move.getPiecePromoted());
         }
 
-        if (move.getColorlessPiece() == Config.PAWN && move.getFromX() != move.getToX() && toPiece == Config.EMPTY) {
-            // cannot use isEnPassant(move) because hisPawn is not taken out
-            if (move.getToY() == 5) {
-                // white move
-                setPiece(move.getToX(), 4, Config.EMPTY);
-            } else if (move.getToY() == 2) {
-                // black move
-                setPiece(move.getToX(), 3, Config.EMPTY);
-            }
+        // cannot use isEnPassant(move) because hisPawn is not taken out
+        int enpassY = getEnpassCapturedY(move, toPiece);
+        if (enpassY >= 0) {
+            setPiece(move.getToX(), enpassY, Config.EMPTY);
         }
         if ((move.moveFlags & Config.FLAGS_ENPASSANT_OK) != 0) {
             this.setEnpassantX(move.getToX());
@@ -1354,10 +2074,10 @@ public class Board {
         }
 
         if (move.getPiece() == Config.WHITE_KING) {
-            this.setWKing(move.getTo());
+            this.setWKing(move.getToX(), move.getToY());
             this.clearFlags(Config.FLAGS_W_QUEEN_OK | Config.FLAGS_W_KING_OK);
         } else if (move.getPiece() == Config.BLACK_KING) {
-            this.setBKing(move.getTo());
+            this.setBKing(move.getToX(), move.getToY());
             this.clearFlags(Config.FLAGS_B_QUEEN_OK | Config.FLAGS_B_KING_OK);
         } else if (move.getPiece() == Config.WHITE_ROOK) {
             if (move.getFromX() == 0) {
@@ -1402,7 +2122,7 @@ public class Board {
     }
 
     public boolean isEnPassant(Move move) {
-        return move.getColorlessPiece() == Config.PAWN && move.getFromX() != move.getToX() && getPiece(move.getTo()) == Config.EMPTY;
+        return move.getColorlessPiece() == Config.PAWN && move.getFromX() != move.getToX() && getPiece(move.getToIndex()) == Config.EMPTY;
     }
 
     /**
@@ -1430,89 +2150,33 @@ public class Board {
             PACK_PIECE_ADJUSTMENT = 4,  // wq->0, bq->1, wr->2, etc.
             MOVE_NUMBER_LENGTH = 6,     // only 6-bit part
             MOVE_NUMBER_MASK = 0x03f,
+            PIECE_INDEX_LENGTH = 64,    // 'index' array
+            PIECE_GROUP_LENGTH = 10,    // 3-decimal-digits number
+            MAX_PACK_SIZE = 10,         // not necessarily legal position, up to 64 pieces except kings
+            FEN_LENGTH = 90,            // enough for most FENs
             _dummy_int = 0;
 
     int[] pack() throws Config.PGNException {
-        try {
-            int[] ints = new int[PACK_SIZE];
-            BitStream.Writer writer = new BitStream.Writer();
-            pack(writer);
-            byte[] buf = writer.getBits();
-            if (buf.length > PACK_SIZE * 4) {
-                throw new Config.PGNException(String.format("Invalid position to pack: \n%s", this.toString()));
-            }
-
-            int n = -1;
-            for (int i = 0; i < ints.length; ++i) {
-                ints[i] = 0;
-                int shift = 0;
-                for (int j = 0; j < 4; ++j) {
-                    if (++n < buf.length) {
-                        ints[i] |= ((int) buf[n] & 0x0ff) << shift;
-                        shift += 8;
-                    }
-                }
-            }
-            return ints;
-        } catch (IOException e) {
-            throw new Config.PGNException(e);
-        }
+        int[] ints = new int[PACK_SIZE];
+        packBits(ints);
+        return ints;
     }
 
     static Board unpack(int[] ints) throws Config.PGNException {
-        try {
-            byte[] bits = new byte[ints.length * 4];
-            for (int i = 0; i < ints.length / 2; ++i) {
-                long one = ((long) ints[2 * i + 1] << 32) | ((long) ints[2 * i] & 0x0ffffffffL);
-                int n = 8 * i - 1;
-                for (int j = 0; j < 8; ++j) {
-                    ++n;
-                    bits[n] = (byte) (one & 0x0ff);
-                    one >>>= 8;
-                }
-            }
-
-            BitStream.Reader reader = new BitStream.Reader(bits);
-            return unpack(reader);
-        } catch(Exception e) {
-            throw  new Config.PGNException(e);
-        }
+        Board board = unpackWithoutKings(ints);
+        board.setPiece(board.getWKingX(), board.getWKingY(), Config.WHITE_KING);
+        board.setPiece(board.getBKingX(), board.getBKingY(), Config.BLACK_KING);
+        return board;
     }
 
     void pack(BitStream.Writer writer) throws Config.PGNException {
         try {
-            int pieces = 0;
-            List<Integer> values = new LinkedList<>();
-            int val = 0;
-            int factor = 1;
-            for (int j = 0; j < Config.BOARD_SIZE; j++) {
-                int mask = 1;
-                int buf = 0;
-                for (int i = 0; i < Config.BOARD_SIZE; i++) {
-                    int code = this.getPiece(i, j) - PACK_PIECE_ADJUSTMENT;
-                    if (code >= 0) {
-                        // ignoring kings
-                        ++pieces;
-                        buf |= mask;
-                        val += factor * code;
-                        factor *= 10;
-                        if (factor == 1000) {
-                            values.add(val);    // store 3-decimal-digits number
-                            factor = 1;
-                            val = 0;
-                        }
-                    }
-                    mask <<= 1;
-                }
-                writer.write(buf, 8);
-            }
-            if (factor != 1) {
-                values.add(val);
-            }
-            writer.write(this.getPlyNum() / 2, Board.MOVE_NUMBER_LENGTH);
-            writer.write(this.boardData, Board.BOARD_DATA_PACK_LENGTH);
-            for (int v : values) {
-                writer.write(v, 10);    // copy 3-decimal-digits number in 10-bit array
+            int[] ints = new int[MAX_PACK_SIZE];
+            int bitLength = packBits(ints);
+            for (int i = 0; bitLength > 0; ++i) {
+                int len = Math.min(bitLength, Integer.SIZE);
+                writer.write(ints[i], len);
+                bitLength -= len;
             }
         } catch (IOException e) {
             throw new Config.PGNException(e);
@@ -1521,45 +2185,113 @@ public class Board {
 
     static Board unpackWithoutKings(BitStream.Reader reader) throws Config.PGNException {
         try {
-            Board board = new Board();
-            board.toEmpty();
+            int[] ints = new int[MAX_PACK_SIZE];
+            ints[0] = reader.read(Integer.SIZE);
+            ints[1] = reader.read(Integer.SIZE);
+            int bitPos = putBits(ints, PIECE_INDEX_LENGTH, reader.read(MOVE_NUMBER_LENGTH), MOVE_NUMBER_LENGTH);
+            bitPos = putBits(ints, bitPos, reader.read(BOARD_DATA_PACK_LENGTH), BOARD_DATA_PACK_LENGTH);
+            int pieces = Integer.bitCount(ints[0]) + Integer.bitCount(ints[1]);
+            for (int i = 0; i < pieces; i += 3) {
+                bitPos = putBits(ints, bitPos, reader.read(PIECE_GROUP_LENGTH), PIECE_GROUP_LENGTH);
+            }
+            return unpackWithoutKings(ints);
+        } catch (IOException e) {
+            throw new Config.PGNException(e);
+        }
+    }
 
-            byte[] pieceBits = new byte[Config.BOARD_SIZE];
-            for (int j = 0; j < Config.BOARD_SIZE; j++) {
-                pieceBits[j] = (byte) (reader.read(8) & 0x0ff);
+    // write pack layout into ints, return its length in bits
+    private int packBits(int[] ints) throws Config.PGNException {
+        long pieces = getOccupied() & ~pieceBits[Config.KING >> 1];
+        ints[0] = (int) pieces;
+        ints[1] = (int) (pieces >>> Integer.SIZE);
+        int bitPos = putBits(ints, PIECE_INDEX_LENGTH, this.getPlyNum() / 2, MOVE_NUMBER_LENGTH);
+        bitPos = putBits(ints, bitPos, this.boardData, BOARD_DATA_PACK_LENGTH);
+        int val = 0;
+        int factor = 1;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            val += factor * (this.getPiece(square) - PACK_PIECE_ADJUSTMENT);
+            factor *= 10;
+            if (factor == 1000) {
+                // store 3-decimal-digits number in 10-bit array
+                bitPos = putBits(ints, bitPos, val, PIECE_GROUP_LENGTH);
+                factor = 1;
+                val = 0;
             }
+        }
+        if (factor != 1) {
+            bitPos = putBits(ints, bitPos, val, PIECE_GROUP_LENGTH);
+        }
+        if (bitPos > ints.length * Integer.SIZE) {
+            throw new Config.PGNException(String.format("Invalid position to pack: \n%s", this.toString()));
+        }
+        return bitPos;
+    }
 
-            int plyNum = reader.read(Board.MOVE_NUMBER_LENGTH) * 2;
-            board.boardData = reader.read(Board.BOARD_DATA_PACK_LENGTH);
-            if ((board.getFlags() & Config.FLAGS_BLACK_MOVE) != 0) {
-                ++plyNum;
-            }
-            board.setPlyNum(plyNum);
-
-            int val = 0;
-            int factor = 3;
-            for (int j = 0; j < Config.BOARD_SIZE; j++) {
-                int mask = 1;
-                for (int i = 0; i < Config.BOARD_SIZE; i++) {
-                    if ((pieceBits[j] & mask) != 0) {
-                        if (factor == 3) {
-                            // copy 3-decimal-digits number in 10-bit array
-                            val = reader.read(10);
-                            factor = 0;
-                        }
-                        int code = val % 10;
-                        int piece = code + PACK_PIECE_ADJUSTMENT;
-                        board.setPiece(i, j, piece);
-                        val /= 10;
-                        ++factor;
-                    }
-                    mask <<= 1;
-                }
-            }
-            return board;
-        } catch (IOException e) {
-            throw new Config.PGNException(e);
+    private static Board unpackWithoutKings(int[] ints) throws Config.PGNException {
+        if (ints == null || ints.length < PACK_SIZE) {
+            throw new Config.PGNException("Invalid pack data");
         }
+        Board board = new Board();
+        board.toEmpty();
+        long pieces = ((long) ints[1] << Integer.SIZE) | ((long) ints[0] & 0x0ffffffffL);
+        int plyNum = getBits(ints, PIECE_INDEX_LENGTH, MOVE_NUMBER_LENGTH) * 2;
+        int bitPos = PIECE_INDEX_LENGTH + MOVE_NUMBER_LENGTH;
+        board.boardData = getBits(ints, bitPos, BOARD_DATA_PACK_LENGTH);
+        bitPos += BOARD_DATA_PACK_LENGTH;
+        if ((board.getFlags() & Config.FLAGS_BLACK_MOVE) != 0) {
+            ++plyNum;
+        }
+        board.setPlyNum(plyNum);
+
+        int[] rows = new int[Config.BOARD_SIZE];
+        int val = 0;
+        int factor = 3;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            if (factor == 3) {
+                // copy 3-decimal-digits number from 10-bit array
+                val = getBits(ints, bitPos, PIECE_GROUP_LENGTH);
+                bitPos += PIECE_GROUP_LENGTH;
+                factor = 0;
+            }
+            int piece = val % 10 + PACK_PIECE_ADJUSTMENT;
+            rows[BitBoard.getY(square)] |= piece << (4 * BitBoard.getX(square));
+            val /= 10;
+            ++factor;
+        }
+        board.copyBoard(rows);
+        return board;
+    }
+
+    // pack bits go from bit 0 of ints[0] up, the same order BitStream.Writer produces
+    // bits beyond ints are dropped, the caller checks the returned position
+    private static int putBits(int[] ints, int bitPos, int value, int length) {
+        if (bitPos + length > ints.length * Integer.SIZE) {
+            return bitPos + length;
+        }
+        long val = ((long) value & ((1L << length) - 1)) << (bitPos & 0x1f);
+        int i = bitPos >>> 5;
+        ints[i] |= (int) val;
+        if ((val >>> Integer.SIZE) != 0) {
+            ints[i + 1] |= (int) (val >>> Integer.SIZE);
+        }
+        return bitPos + length;
+    }
+
+    private static int getBits(int[] ints, int bitPos, int length) throws Config.PGNException {
+        if (bitPos + length > ints.length * Integer.SIZE) {
+            throw new Config.PGNException("Invalid pack data");
+        }
+        int i = bitPos >>> 5;
+        long val = ((long) ints[i] & 0x0ffffffffL) >>> (bitPos & 0x1f);
+        if ((bitPos & 0x1f) + length > Integer.SIZE) {
+            val |= ((long) ints[i + 1] & 0x0ffffffffL) << (Integer.SIZE - (bitPos & 0x1f));
+        }
+        return (int) (val & ((1L << length) - 1));
     }
 
     static Board unpack(BitStream.Reader reader) throws Config.PGNException {
@@ -1573,7 +2305,7 @@ public class Board {
         Board trg = new Board();
         trg.toEmpty();
         trg.boardData = this.boardData;
-        trg.boardCounts = this.boardCounts;
+        trg.boardCounts = this.getBoardCounts();
         for (int y = 0; y < Config.BOARD_SIZE; ++y) {
             for (int x = 0; x < Config.BOARD_SIZE; ++x) {
                 int piece = this.getPiece(x, y);
@@ -1613,97 +2345,30 @@ public class Board {
     // search for a move that results with nextBoard
     // assumes that nextBoard is different
     public Move findMove(Board nextBoard) {
-        List<Square> fromSquares = new LinkedList<>();
-        List<Square> toSquares = new LinkedList<>();
-        for (int y = 0; y < getYSize(); ++y) {
-            int diff = board[y] ^ nextBoard.board[y];
-            if (diff != 0) {
-                if (DEBUG) {
-                    logger.debug(String.format("y=%s: 0x%s", y, Integer.toHexString(diff)));
-                }
-                for (int i = 0; i < 4; ++i) {
-                    if ((diff & 0x0f) != 0) {
-                        int x = 2 * i;
-                        Square square = new Square(x, y);
-                        if (nextBoard.getPiece(square) == Config.EMPTY) {
-                            fromSquares.add(square);
-                        } else {
-                            toSquares.add(square);
-                        }
-                    }
-                    if ((diff & 0x0f0) != 0) {
-                        int x = 2 * i + 1;
-                        Square square = new Square(x, y);
-                        if (nextBoard.getPiece(square) == Config.EMPTY) {
-                            fromSquares.add(square);
-                        } else {
-                            toSquares.add(square);
-                        }
-                    }
-                    diff >>= 8;
-                }
-            }
-        }
-        if (DEBUG) {
-            logger.debug(fromSquares);
-            logger.debug(toSquares);
-        }
-        Move move;
-        if (toSquares.size() == 1 && fromSquares.size() == 1) {
-            move = newMove();
-            move.setFrom(fromSquares.get(0));
-            move.setTo(toSquares.get(0));
-            int piece = getPiece(move.getFrom());
-            move.setPiece(piece);
-            if (move.getPiece() == piece) {
-                // same color
-                if ((move.getPiece() & ~Config.PIECE_COLOR) == Config.PAWN) {
-                    piece = nextBoard.getPiece(move.getTo());
-                    if ((piece & ~Config.PIECE_COLOR) != Config.PAWN) {
-                        move.setPiecePromoted(piece);
-                    }
-                }
-                if (validatePgnMove(move, Config.VALIDATE_USER_MOVE)) {
-                    return move;
-                }
+        long vacated = getOccupied() & ~nextBoard.getOccupied();
+        IntMoveList moves = new IntMoveList();
+        generatePseudoLegalMoves(moves);
+        for (int i = 0; i < moves.size(); ++i) {
+            int m = moves.get(i);
+            if ((vacated & (1L << IntMoveList.getFrom(m))) == 0) {
+                continue;
             }
-        } else if (fromSquares.size() == 2 && (toSquares.size() == 1 || toSquares.size() == 2)) {
-            for (int i = 0; i < fromSquares.size(); ++i) {
-                Square fromSquare = fromSquares.get(i);
-                for (Square toSquare : toSquares) {
-                    move = newMove();
-                    move.setFrom(fromSquare);
-                    move.setTo(toSquare);
-                    int piece = getPiece(move.getFrom());
-                    move.setPiece(piece);
-                    if (move.getPiece() != piece) {
-                        // different color
-                        continue;
-                    }
-                    boolean res = false;
-                    if ((getPiece(fromSquare) & ~Config.PIECE_COLOR) == Config.KING) {
-                        // must be castling
-                        res = validateKingMove(move);
-                    } else if ((getPiece(fromSquare) & ~Config.PIECE_COLOR) == Config.PAWN) {
-                        // must be capture en passant
-                        if ((move.getPiece() & ~Config.PIECE_COLOR) == Config.PAWN) {
-                            piece = nextBoard.getPiece(move.getTo());
-                            if ((piece & ~Config.PIECE_COLOR) != Config.PAWN) {
-                                move.setPiecePromoted(piece);
-                            }
-                        }
-                        res = validatePawnMove(move, Config.VALIDATE_USER_MOVE);
-                    }
-                    if (res) {
-                        Board _board = clone();
-                        _board.doMove(move);
-                        if (_board.equals(nextBoard)) {
-                            return move;
-                        }
-                    }
+            Move move = toMove(m);
+            long undo = makeMove(move);
+            boolean found = samePosition(nextBoard);
+            unmakeMove(move, undo);
+            if (found && isLegal(m)) {
+                if (DEBUG) {
+                    logger.debug(String.format("found %s", move.toString(true)));
                 }
+                return move;
             }
         }
         return null;
     }
-}
\ No newline at end of file
+
+    public interface FenHandler {
+        // return false to stop parsing
+        boolean onFEN(Board board) throws Config.PGNException;
+    }
+}
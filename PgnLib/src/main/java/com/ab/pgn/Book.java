@@ -52,6 +52,7 @@ public class Book extends PgnGraph {
             }
             String moves = new String(sb);
             parseMoves(moves);
+            compact();
         } catch (IOException e) {
             throw new Config.PGNException(e);
         }
@@ -79,7 +80,7 @@ public class Book extends PgnGraph {
     public List<Move> getMoves(Board board) {
         Pack key;
         try {
-            key = new Pack(board.pack());
+            key = board.toPack();
         } catch (Config.PGNException e) {
             e.printStackTrace();
             return null;
@@ -81,7 +81,12 @@ public class Config {
         FLAGS_CHECK			= 0x0800,
         FLAGS_NULL_MOVE		= 0x1000,	        // any move
         FLAGS_STALEMATE		= 0x2000,
+        FLAGS_INSUFFICIENT_MATERIAL	= 0x4000,   // draw flags, exclude from Move serialization
         FLAGS_CAPTURE		= 0x8000,           // exclude from Move serialization
+        FLAGS_50_MOVES		= 0x10000,
+        FLAGS_75_MOVES		= 0x20000,
+        FLAGS_5_FOLD_REPETITION	= 0x40000,
+        DRAW_FLAGS          = (FLAGS_REPETITION | FLAGS_5_FOLD_REPETITION | FLAGS_50_MOVES | FLAGS_75_MOVES | FLAGS_INSUFFICIENT_MATERIAL),
 
         MOVE_FLAGS          = (FLAGS_BLACK_MOVE | FLAGS_CAPTURE | FLAGS_AMBIG |FLAGS_CHECK |
                 FLAGS_CHECKMATE | FLAGS_STALEMATE | FLAGS_CASTLE | FLAGS_NULL_MOVE),
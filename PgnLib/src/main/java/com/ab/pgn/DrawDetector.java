@@ -0,0 +1,153 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * draw conditions along a line of positions: repetitions, 50/75-move rule, insufficient material
+ * positions since the last irreversible move are kept in a stack with a hash-count table by position key
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+public class DrawDetector {
+    public static final int
+        FIFTY_MOVES_PLIES = 100,
+        SEVENTY_FIVE_MOVES_PLIES = 150,
+        dummy_int = 0;
+
+    private static final int INIT_CAPACITY = 128;   // power of 2
+
+    private long[] keys = new long[INIT_CAPACITY];  // position keys since the last irreversible move
+    private int size;
+    private int initReversiblePlyNum;               // reversible ply number of keys[0]
+
+    // open addressing, linear probing, the table is twice the stack capacity.
+    // Entries are removed in reverse order of insertion, so a zero count ends a probe sequence.
+    private long[] tableKeys = new long[2 * INIT_CAPACITY];
+    private int[] tableCounts = new int[2 * INIT_CAPACITY];
+
+    public DrawDetector() {
+    }
+
+    /**
+     * start a new line after an irreversible move
+     * @param key position key after the move
+     * @param reversiblePlyNum reversible ply number of the position, 0 after pawn moves and captures
+     */
+    public void reset(long key, int reversiblePlyNum) {
+        while (size > 0) {
+            pop();
+        }
+        initReversiblePlyNum = reversiblePlyNum;
+        push(key);
+    }
+
+    /**
+     * @return number of occurrences of the position since the last irreversible move, including this one
+     */
+    public int push(long key) {
+        if (size == keys.length) {
+            grow();
+        }
+        keys[size++] = key;
+        int i = find(key);
+        tableKeys[i] = key;
+        return ++tableCounts[i];
+    }
+
+    public void pop() {
+        if (size == 0) {
+            return;
+        }
+        --tableCounts[find(keys[--size])];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCount(long key) {
+        return tableCounts[find(key)];
+    }
+
+    public int getReversiblePlyNum() {
+        return initReversiblePlyNum + size - 1;
+    }
+
+    /**
+     * add position after a move
+     * @param board position after the move
+     * @param irreversible true for pawn moves and captures
+     * @return draw flags for the position
+     */
+    public int addPosition(Board board, boolean irreversible) {
+        long key = board.getPositionKey();
+        int count;
+        if (irreversible || size == 0) {
+            reset(key, board.getReversiblePlyNum());
+            count = 1;
+        } else {
+            count = push(key);
+        }
+        return getDrawFlags(board, count, getReversiblePlyNum());
+    }
+
+    /**
+     * @param board position to check for insufficient material
+     * @param repetitions number of occurrences of the position
+     * @param reversiblePlyNum plies since the last pawn move or capture
+     * @return draw flags, Config.DRAW_FLAGS
+     */
+    public static int getDrawFlags(Board board, int repetitions, int reversiblePlyNum) {
+        int flags = 0;
+        if (repetitions >= 3) {
+            flags |= Config.FLAGS_REPETITION;
+            if (repetitions >= 5) {
+                flags |= Config.FLAGS_5_FOLD_REPETITION;
+            }
+        }
+        if (reversiblePlyNum >= FIFTY_MOVES_PLIES) {
+            flags |= Config.FLAGS_50_MOVES;
+            if (reversiblePlyNum >= SEVENTY_FIVE_MOVES_PLIES) {
+                flags |= Config.FLAGS_75_MOVES;
+            }
+        }
+        if (board.isInsufficientMaterial()) {
+            flags |= Config.FLAGS_INSUFFICIENT_MATERIAL;
+        }
+        return flags;
+    }
+
+    // slot with the key or the first empty slot
+    private int find(long key) {
+        int mask = tableKeys.length - 1;
+        int i = (int) key & mask;
+        while (tableCounts[i] != 0 && tableKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int oldSize = size;
+        keys = new long[2 * oldKeys.length];
+        tableKeys = new long[2 * keys.length];
+        tableCounts = new int[2 * keys.length];
+        size = 0;
+        for (int i = 0; i < oldSize; ++i) {
+            push(oldKeys[i]);
+        }
+    }
+}
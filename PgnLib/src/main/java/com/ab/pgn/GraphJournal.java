@@ -0,0 +1,185 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * append-only log of PgnGraph edits, written as they happen and replayed with PgnGraph.replayJournal
+ * on top of the snapshot written by PgnGraph.serializeGraph
+ * a move is identified by the packed position before it, rootMove has no position
+ * every record ends on a byte boundary, so that records of several sessions can be appended to the same file
+ * every session starts with the id of the snapshot, a journal left from an older snapshot is rejected,
+ * e.g. after a crash between writing a new snapshot and truncating the journal
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import com.ab.pgn.io.CpFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+public class GraphJournal implements Closeable {
+    static final int
+        OP_LENGTH = 4,
+        OP_ADD_MOVE = 1,
+        OP_DEL_MOVE = 2,
+        OP_COMMENT = 3,
+        OP_GLYPH = 4,
+        OP_TAGS = 5,
+        OP_FLAGS = 6,
+        OP_SNAPSHOT = 7,
+        dummy_int = 0;
+
+    private static final PgnLogger logger = PgnLogger.getLogger(GraphJournal.class);
+
+    private final BitStream.Writer writer;
+    private int records;
+    private boolean valid = true;
+
+    public GraphJournal(OutputStream os) {
+        writer = new BitStream.Writer(os);
+    }
+
+    // records written to this journal, the owner writes a new snapshot when there are too many
+    public int getRecords() {
+        return records;
+    }
+
+    // false after a write error or a change that is not journaled, e.g. merge
+    public boolean isValid() {
+        return valid;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    // written by PgnGraph.setJournal
+    void setSnapshot(int snapshotId) {
+        if (start(OP_SNAPSHOT, null, null)) {
+            try {
+                writer.write(snapshotId, 32);
+                end();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    }
+
+    /**
+     * @param prevMove move to the position before move, null for rootMove
+     */
+    void addMove(Move prevMove, Move move) {
+        if (start(OP_ADD_MOVE, prevMove, move)) {
+            end();
+        }
+    }
+
+    void delMove(Move prevMove, Move move) {
+        if (start(OP_DEL_MOVE, prevMove, move)) {
+            end();
+        }
+    }
+
+    void setComment(Move prevMove, Move move) {
+        if (start(OP_COMMENT, prevMove, move)) {
+            try {
+                writer.writeString(move.comment);
+                end();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    }
+
+    void setGlyph(Move prevMove, Move move) {
+        if (start(OP_GLYPH, prevMove, move)) {
+            try {
+                writer.write(move.getGlyph(), 8);
+                end();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    }
+
+    void setTags(List<Pair<String, String>> tags) {
+        if (start(OP_TAGS, null, null)) {
+            try {
+                CpFile.serializeTagList(writer, tags);
+                end();
+            } catch (Config.PGNException e) {
+                onError(e);
+            }
+        }
+    }
+
+    void setFlags(boolean modified, boolean traceModified) {
+        if (start(OP_FLAGS, null, null)) {
+            try {
+                writer.write(modified ? 1 : 0, 1);
+                writer.write(traceModified ? 1 : 0, 1);
+                end();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private boolean start(int op, Move prevMove, Move move) {
+        if (!valid) {
+            return false;
+        }
+        try {
+            writer.write(op, OP_LENGTH);
+            if (move == null) {
+                return true;
+            }
+            if (prevMove == null) {
+                writer.write(0, 1);
+                return true;
+            }
+            writer.write(1, 1);
+            for (int i = 0; i < Board.PACK_SIZE; ++i) {
+                writer.write(prevMove.packData[i], 32);
+            }
+            move.serialize(writer, false);
+            return true;
+        } catch (IOException | Config.PGNException e) {
+            onError(e);
+        }
+        return false;
+    }
+
+    private void end() {
+        try {
+            writer.flush();
+            ++records;
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void onError(Exception e) {
+        logger.error(e.getMessage(), e);
+        valid = false;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * reusable list of moves packed into ints, filled by Board.generate...Moves
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.Arrays;
+
+public class IntMoveList {
+    public static final int
+        // packed move:
+        SQUARE_MASK = 0x003f,
+        SQUARE_LENGTH = 6,
+        PIECE_MASK = 0x000f,
+        PIECE_LENGTH = 4,
+        FROM_OFFSET = 0,
+        TO_OFFSET = FROM_OFFSET + SQUARE_LENGTH,                // 6
+        PIECE_OFFSET = TO_OFFSET + SQUARE_LENGTH,               // 12
+        PROMOTED_OFFSET = PIECE_OFFSET + PIECE_LENGTH,          // 16
+        CAPTURED_OFFSET = PROMOTED_OFFSET + PIECE_LENGTH,       // 20
+        CASTLE = 1 << (CAPTURED_OFFSET + PIECE_LENGTH),         // 24
+        EN_PASSANT = CASTLE << 1,                               // 25, capture en passant
+        DOUBLE_PUSH = EN_PASSANT << 1,                          // 26, initial 2-square pawn move
+
+        MAX_MOVES = 256,        // 218 is the known maximum of legal moves
+        dummy_int = 0;
+
+    private int[] moves;
+    private int size;
+
+    public IntMoveList() {
+        this(MAX_MOVES);
+    }
+
+    public IntMoveList(int capacity) {
+        moves = new int[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    void set(int index, int move) {
+        moves[index] = move;
+    }
+
+    public void add(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, 2 * size);
+        }
+        moves[size++] = move;
+    }
+
+    // remove last elements
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    public static int encode(int from, int to, int piece, int promoted, int captured, int flags) {
+        return from << FROM_OFFSET | to << TO_OFFSET | piece << PIECE_OFFSET
+                | promoted << PROMOTED_OFFSET | captured << CAPTURED_OFFSET | flags;
+    }
+
+    // BitBoard square index
+    public static int getFrom(int move) {
+        return (move >> FROM_OFFSET) & SQUARE_MASK;
+    }
+
+    public static int getTo(int move) {
+        return (move >> TO_OFFSET) & SQUARE_MASK;
+    }
+
+    public static int getPiece(int move) {
+        return (move >> PIECE_OFFSET) & PIECE_MASK;
+    }
+
+    public static int getPromoted(int move) {
+        return (move >> PROMOTED_OFFSET) & PIECE_MASK;
+    }
+
+    // for en passant it is the pawn taken
+    public static int getCaptured(int move) {
+        return (move >> CAPTURED_OFFSET) & PIECE_MASK;
+    }
+
+    public static boolean isCapture(int move) {
+        return getCaptured(move) != Config.EMPTY;
+    }
+
+    public static boolean isCastle(int move) {
+        return (move & CASTLE) != 0;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+
+    public static boolean isDoublePush(int move) {
+        return (move & DOUBLE_PUSH) != 0;
+    }
+
+    public static String toString(int move) {
+        int from = getFrom(move);
+        int to = getTo(move);
+        String res = Square.x2String(BitBoard.getX(from)) + Square.y2String(BitBoard.getY(from))
+                + Square.x2String(BitBoard.getX(to)) + Square.y2String(BitBoard.getY(to));
+        if (getPromoted(move) != Config.EMPTY) {
+            res += Character.toLowerCase(Config.FEN_PIECES.charAt(getPromoted(move)));
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String sep = "";
+        for (int i = 0; i < size; ++i) {
+            sb.append(sep).append(toString(moves[i]));
+            sep = " ";
+        }
+        return new String(sb);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * exhaustive mate-in-N search for the side to move
+ * the last attacker move must give check, checking moves are tried first,
+ * proven and refuted depths are cached by position key and kept between calls
+ * not thread safe, use one instance per thread
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+class MateSolver {
+    private static final int
+        CACHE_SIZE = 1 << 16,       // power of 2
+        CACHE_DEPTH_MASK = 0xff,
+        CACHE_REFUTED_OFFSET = 8,
+        dummy_int = 0;
+
+    private final long[] cacheKeys = new long[CACHE_SIZE];
+    private final int[] cacheData = new int[CACHE_SIZE];    // proven depth | refuted depth << 8
+    private IntMoveList[] moveLists = new IntMoveList[0];
+    private int[][] quietMoves = new int[0][];
+    private Board board;
+
+    MateSolver() {
+    }
+
+    /**
+     * @param board position to solve, restored on return
+     * @param maxMoves depth limit in moves of the side to move
+     * @param solutions if not null, filled with all first moves that mate in the returned number of moves
+     * @return number of moves to mate, 0 if there is no mate within maxMoves
+     */
+    int findMate(Board board, int maxMoves, IntMoveList solutions) {
+        this.board = board;
+        if (solutions != null) {
+            solutions.clear();
+        }
+        int plies = 2 * maxMoves + 1;
+        if (moveLists.length < plies) {
+            moveLists = new IntMoveList[plies];
+            quietMoves = new int[plies][];
+            for (int i = 0; i < plies; ++i) {
+                moveLists[i] = new IntMoveList();
+                quietMoves[i] = new int[IntMoveList.MAX_MOVES];
+            }
+        }
+        for (int n = 1; n <= maxMoves; ++n) {
+            if (mateIn(n, 0)) {
+                if (solutions != null) {
+                    IntMoveList moves = moveLists[0];
+                    board.generateLegalMoves(moves);
+                    for (int i = 0; i < moves.size(); ++i) {
+                        if (isMatingMove(moves.get(i), n, 0)) {
+                            solutions.add(moves.get(i));
+                        }
+                    }
+                }
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    // attacker to move
+    private boolean mateIn(int n, int ply) {
+        long key = board.getPositionKey();
+        int index = (int) key & (CACHE_SIZE - 1);
+        int proven = 0, refuted = 0;
+        if (cacheKeys[index] == key) {
+            proven = cacheData[index] & CACHE_DEPTH_MASK;
+            refuted = cacheData[index] >>> CACHE_REFUTED_OFFSET;
+            if (proven != 0 && proven <= n) {
+                return true;
+            }
+            if (refuted >= n) {
+                return false;
+            }
+        }
+
+        IntMoveList moves = moveLists[ply];
+        int size = board.generateLegalMoves(moves);
+        int[] quiet = quietMoves[ply];
+        int totalQuiet = 0;
+        boolean res = false;
+        // checks first, they are the forcing line
+        for (int i = 0; i < size && !res; ++i) {
+            int move = moves.get(i);
+            Move m = board.toMove(move);
+            long undo = board.makeMove(m);
+            if (board.isKingAttacked(board.getFlags() & Config.BLACK)) {
+                res = allDefencesLose(n, ply + 1, true);
+            } else if (n > 1) {
+                quiet[totalQuiet++] = move;
+            }
+            board.unmakeMove(m, undo);
+        }
+        for (int i = 0; i < totalQuiet && !res; ++i) {
+            res = isMatingMove(quiet[i], n, ply);
+        }
+
+        if (cacheKeys[index] != key) {
+            cacheKeys[index] = key;
+            proven = refuted = 0;
+        }
+        if (res) {
+            if (proven == 0 || n < proven) {
+                proven = n;
+            }
+        } else if (n > refuted) {
+            refuted = n;
+        }
+        cacheData[index] = proven | refuted << CACHE_REFUTED_OFFSET;
+        return res;
+    }
+
+    private boolean isMatingMove(int move, int n, int ply) {
+        Move m = board.toMove(move);
+        long undo = board.makeMove(m);
+        boolean check = board.isKingAttacked(board.getFlags() & Config.BLACK);
+        boolean res = false;
+        if (check || n > 1) {
+            res = allDefencesLose(n, ply + 1, check);
+        }
+        board.unmakeMove(m, undo);
+        return res;
+    }
+
+    // defender to move after the attacker's n-th move from the end
+    private boolean allDefencesLose(int n, int ply, boolean check) {
+        IntMoveList moves = moveLists[ply];
+        int size = board.generateLegalMoves(moves);
+        if (size == 0) {
+            return check;       // stalemate is not a mate
+        }
+        if (n == 1) {
+            return false;
+        }
+        for (int i = 0; i < size; ++i) {
+            Move m = board.toMove(moves.get(i));
+            long undo = board.makeMove(m);
+            boolean mated = mateIn(n - 1, ply + 1);
+            board.unmakeMove(m, undo);
+            if (!mated) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -66,6 +66,7 @@ public class Move {
     public Move variation;
 
     transient int[] packData;            // board after the move
+    transient long positionKey;          // Zobrist key of the board after the move
 
     public Move(Board board, Square from, Square to) {
         this.moveFlags = board.getFlags();
@@ -74,6 +75,13 @@ public class Move {
         this.setTo(to);
     }
 
+    public Move(Board board, int from, int to) {
+        this.moveFlags = board.getFlags();
+        this.setPiece(board.getPiece(from));
+        this.setFrom(from);
+        this.setTo(to);
+    }
+
     public Move(int flags) {
         this.moveFlags = flags;
         this.moveData = 0;  // redundant
@@ -101,6 +109,11 @@ public class Move {
         return new Square(getFromX(), getFromY());
     }
 
+    // 8 * y + x, no allocation
+    public int getFromIndex() {
+        return Square.toIndex(getFromX(), getFromY());
+    }
+
     void setFromX(int x) {
         moveData = Util.setValue(moveData, x, COORD_MASK, FROM_X_OFFSET);
         markFromXSet();
@@ -116,6 +129,10 @@ public class Move {
         setFromY(y);
     }
 
+    public void setFrom(int index) {
+        setFrom(index & 0x07, index >> 3);
+    }
+
     public void setFrom(Square from) {
         setFromX(from.getX());
         setFromY(from.getY());
@@ -162,6 +179,11 @@ public class Move {
         return new Square(getToX(), getToY());
     }
 
+    // 8 * y + x, no allocation
+    public int getToIndex() {
+        return Square.toIndex(getToX(), getToY());
+    }
+
     void setToX(int x) {
         moveData = Util.setValue(moveData, x, COORD_MASK, TO_X_OFFSET);
     }
@@ -175,6 +197,10 @@ public class Move {
         setToY(y);
     }
 
+    public void setTo(int index) {
+        setTo(index & 0x07, index >> 3);
+    }
+
     public void setTo(Square to) {
         setToX(to.getX());
         setToY(to.getY());
@@ -214,6 +240,14 @@ public class Move {
         moveData = Util.setValue(moveData, bits, PIECE_MASK, PIECE_OFFSET);
     }
 
+    int getMoveData() {
+        return moveData;
+    }
+
+    void setMoveData(int moveData) {
+        this.moveData = moveData;
+    }
+
     boolean hasVariation() {
         return (this.moveData & Move.HAS_VARIATION) != 0;
     }
@@ -227,8 +261,8 @@ public class Move {
     }
 
     public boolean isPromotion() {
-        return getPiece() == Config.WHITE_PAWN && getTo().getY() == Config.BOARD_SIZE - 1 ||
-                getPiece() == Config.BLACK_PAWN && getTo().getY() == 0;
+        return getPiece() == Config.WHITE_PAWN && getToY() == Config.BOARD_SIZE - 1 ||
+                getPiece() == Config.BLACK_PAWN && getToY() == 0;
     }
 
     private int promotedToSerialized(int piece) {
@@ -245,8 +279,10 @@ public class Move {
 
     public void serialize(BitStream.Writer writer, boolean serializePack) throws Config.PGNException {
         try {
-            getFrom().serialize(writer);
-            getTo().serialize(writer);
+            writer.write(getFromX(), 3);
+            writer.write(getFromY(), 3);
+            writer.write(getToX(), 3);
+            writer.write(getToY(), 3);
             // serialize flags from FLAGS_ENPASSANT_OK to FLAGS_STALEMATE
             writer.write(moveFlags >> 6, 8);
             if (isPromotion()) {
@@ -268,7 +304,7 @@ public class Move {
             throw new Config.PGNException(e);
         }
         if (serializePack) {
-            new Pack(this.packData).serialize(writer);
+            getPack().serialize(writer);
         }
     }
 
@@ -278,13 +314,15 @@ public class Move {
 
     public Move(BitStream.Reader reader, Board previousBoard, boolean unserializePack) throws Config.PGNException {
         try {
-            setFrom(new Square(reader));
-            setTo(new Square(reader));
+            int fromX = reader.read(3);
+            setFrom(fromX, reader.read(3));
+            int toX = reader.read(3);
+            setTo(toX, reader.read(3));
             moveFlags = reader.read(8) << 6;
             if (previousBoard != null) {
                 moveFlags |= previousBoard.getFlags() & Config.FLAGS_BLACK_MOVE;
-                setPiece(previousBoard.getPiece(getFrom()));
-                if (previousBoard.getPiece(getTo()) != Config.EMPTY || previousBoard.isEnPassant(this)) {
+                setPiece(previousBoard.getPiece(getFromIndex()));
+                if (previousBoard.getPiece(getToIndex()) != Config.EMPTY || previousBoard.isEnPassant(this)) {
                     moveFlags |= Config.FLAGS_CAPTURE;
                 }
             }
@@ -300,6 +338,7 @@ public class Move {
             if (unserializePack) {
                 Pack pack = new Pack(reader);
                 packData = pack.getPackData();
+                positionKey = pack.getKey();
             }
         } catch (IOException e) {
             throw new Config.PGNException(e);
@@ -320,10 +359,19 @@ public class Move {
         if (this.getPiecePromoted() != that.getPiecePromoted()) {
             return false;
         }
-        if (!this.getFrom().equals(that.getFrom())) {
+        if (this.getFromIndex() != that.getFromIndex()) {
             return false;
         }
-        return this.getTo().equals(that.getTo());
+        return this.getToIndex() == that.getToIndex();
+    }
+
+    Pack getPack() {
+        return new Pack(packData, positionKey);
+    }
+
+    void setPack(Board board) throws Config.PGNException {
+        packData = board.pack();
+        positionKey = board.getPositionKey();
     }
 
     Move getVariation() {
@@ -365,7 +413,7 @@ public class Move {
         }
 
         if ((moveFlags & Config.FLAGS_CASTLE) != 0) {
-            if (getTo().getX() - getFrom().getX() > 0) {
+            if (getToX() - getFromX() > 0) {
                 res.append(Config.PGN_K_CASTLE);
             } else {
                 res.append(Config.PGN_Q_CASTLE);
@@ -376,20 +424,20 @@ public class Move {
             }
 
             if ((longNotation || (moveFlags & Config.FLAGS_X_AMBIG) != 0)) {
-                res.append(getFrom().x2String());
+                res.append(Square.x2String(getFromX()));
             }
             if ((longNotation || (moveFlags & Config.FLAGS_Y_AMBIG) != 0)) {
-                res.append(getFrom().y2String());
+                res.append(Square.y2String(getFromY()));
             }
-            if (!longNotation && getColorlessPiece() == Config.PAWN && getTo().x != getFrom().x) {
-                res.append(getFrom().x2String());
+            if (!longNotation && getColorlessPiece() == Config.PAWN && getToX() != getFromX()) {
+                res.append(Square.x2String(getFromX()));
             }
 
             if ((moveFlags & Config.FLAGS_CAPTURE) != 0) {
                 res.append(Config.MOVE_CAPTURE);
             }
 
-            res.append(getTo().toString());
+            res.append(Square.x2String(getToX())).append(Square.y2String(getToY()));
 
             if (getPiecePromoted() != Config.EMPTY) {
                 res.append(Config.MOVE_PROMOTION).append(Config.FEN_PIECES.charAt(getPiecePromoted() & ~Config.BLACK));
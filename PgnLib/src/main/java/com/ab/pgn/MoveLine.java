@@ -0,0 +1,144 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * PgnGraph current line, array-backed, moveLine.get(0) is rootMove
+ * position keys and the index of the last irreversible move are kept for every ply,
+ * so that repetitions are checked without walking the line
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+public class MoveLine extends AbstractList<Move> implements RandomAccess {
+    private static final int INIT_CAPACITY = 64;
+
+    private Move[] moves = new Move[INIT_CAPACITY];
+    private long[] positionKeys = new long[INIT_CAPACITY];
+    private int[] lastIrreversible = new int[INIT_CAPACITY];   // index of the last irreversible move up to this ply
+    private int size;
+
+    @Override
+    public Move get(int index) {
+        checkIndex(index);
+        return moves[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(Move move) {
+        addLast(move);
+        return true;
+    }
+
+    public void addLast(Move move) {
+        if (size == moves.length) {
+            int capacity = 2 * size;
+            moves = Arrays.copyOf(moves, capacity);
+            positionKeys = Arrays.copyOf(positionKeys, capacity);
+            lastIrreversible = Arrays.copyOf(lastIrreversible, capacity);
+        }
+        store(size++, move);
+        ++modCount;
+    }
+
+    public Move removeLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Move move = moves[--size];
+        moves[size] = null;
+        ++modCount;
+        return move;
+    }
+
+    public Move getLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return moves[size - 1];
+    }
+
+    @Override
+    public Move remove(int index) {
+        Move move = get(index);
+        removeRange(index, index + 1);
+        return move;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(moves, 0, size, null);
+        size = 0;
+        ++modCount;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        int tail = size - toIndex;
+        System.arraycopy(moves, toIndex, moves, fromIndex, tail);
+        Arrays.fill(moves, fromIndex + tail, size, null);
+        size = fromIndex + tail;
+        for (int i = fromIndex; i < size; ++i) {
+            store(i, moves[i]);
+        }
+        ++modCount;
+    }
+
+    /**
+     * @return Board.getPositionKey() after the move at index
+     */
+    public long getPositionKey(int index) {
+        checkIndex(index);
+        return positionKeys[index];
+    }
+
+    /**
+     * @return index of the last null move, capture or pawn move at or before index
+     */
+    public int getLastIrreversible(int index) {
+        checkIndex(index);
+        return lastIrreversible[index];
+    }
+
+    // null move breaks the line, rootMove is a null move
+    static boolean isIrreversible(Move move) {
+        return move.isNullMove() || move.getColorlessPiece() == Config.PAWN || (move.moveFlags & Config.FLAGS_CAPTURE) != 0;
+    }
+
+    private void store(int index, Move move) {
+        moves[index] = move;
+        positionKeys[index] = move.positionKey;
+        if (index == 0 || isIrreversible(move)) {
+            lastIrreversible[index] = index;
+        } else {
+            lastIrreversible[index] = lastIrreversible[index - 1];
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index %s, size %s", index, size));
+        }
+    }
+}
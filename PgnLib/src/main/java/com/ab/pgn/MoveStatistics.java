@@ -0,0 +1,192 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * merge statistics, white wins, black wins and draws of the games passing through a move
+ * counted by move: PositionTable id of the position before it and move coordinates,
+ * PgnGraph.addMove replaces Move objects, so the moves are looked up in the table when rendered
+ * counts are written into move comments once, after merge, as PgnGraph.modifyStatisticsComment did for every game
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.Arrays;
+
+class MoveStatistics {
+    static final int
+        WHITE_WINS = 0,
+        BLACK_WINS = 1,
+        DRAWS = 2,
+        TOTAL_COUNTS = 3,
+        dummy_int = 0;
+
+    private static final int
+        INIT_CAPACITY = 64,         // power of 2
+        COORD_BITS_MASK = (1 << Move.GLYPH_OFFSET) - 1,     // coordinates and promotion
+        MODE_IGNORE = 0,            // the comment has no statistics, keep it
+        MODE_NEW = 1,               // the comment was empty, append statistics
+        MODE_ADD = 2,               // add counts to w=, b=, d= of the comment
+        _dummy_int = 0;
+
+    private final PositionTable positions;
+    private int[] slots;            // entry + 1, 0 - empty, load factor <= 1/2
+    private long[] keys;            // PositionTable id before the move << 32 | move coordinates
+    private int[] counts;           // TOTAL_COUNTS per entry
+    private byte[] modes;
+    private int size;
+
+    MoveStatistics(PositionTable positions) {
+        this.positions = positions;
+        slots = new int[2 * INIT_CAPACITY];
+        keys = new long[INIT_CAPACITY];
+        counts = new int[INIT_CAPACITY * TOTAL_COUNTS];
+        modes = new byte[INIT_CAPACITY];
+    }
+
+    /**
+     * @return WHITE_WINS, BLACK_WINS, DRAWS or -1 for unknown result
+     */
+    static int getResultIndex(String result) {
+        if (result == null) {
+            return -1;
+        }
+        switch (result) {
+            case "1-0":
+                return WHITE_WINS;
+            case "0-1":
+                return BLACK_WINS;
+            case "1/2-1/2":
+                return DRAWS;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param prevBoard PgnGraph position before move, a view of PositionTable entry
+     * @param move the move in PgnGraph after addMove
+     */
+    void add(Board prevBoard, Move move, String result) {
+        int resultIndex = getResultIndex(result);
+        if (resultIndex < 0) {
+            return;
+        }
+        int positionId = prevBoard.getPositionId();
+        if (positionId < 0) {
+            PgnGraph.modifyStatisticsComment(move, result);    // cannot look it up later
+            return;
+        }
+        long key = (long) positionId << 32 | move.getMoveData() & COORD_BITS_MASK;
+        int slot = find(key);
+        int entry = slots[slot] - 1;
+        if (entry < 0) {
+            if (2 * (size + 1) > slots.length) {
+                resize();
+                slot = find(key);
+            }
+            entry = newEntry();
+            slots[slot] = entry + 1;
+            keys[entry] = key;
+            modes[entry] = (byte) getMode(move.comment);
+        }
+        ++counts[entry * TOTAL_COUNTS + resultIndex];
+    }
+
+    // write counts into comments
+    void render() {
+        int[] moveCounts = new int[TOTAL_COUNTS];
+        for (int entry = 0; entry < size; ++entry) {
+            Move move = getMove(keys[entry]);
+            if (move == null) {
+                continue;   // should never happen
+            }
+            System.arraycopy(counts, entry * TOTAL_COUNTS, moveCounts, 0, TOTAL_COUNTS);
+            if (modes[entry] == MODE_NEW) {
+                // comments of the games merged after the first count are in front
+                String comment = PgnGraph.statisticsComment(moveCounts);
+                if (move.comment == null) {
+                    move.comment = comment;
+                } else {
+                    move.comment += "; " + comment;
+                }
+            } else if (modes[entry] == MODE_ADD) {
+                PgnGraph.modifyStatisticsComment(move, moveCounts);
+            }
+        }
+    }
+
+    private Move getMove(long key) {
+        int coord = (int) key & COORD_BITS_MASK;
+        Move move = positions.getMove((int) (key >>> 32));
+        while (move != null && (move.getMoveData() & COORD_BITS_MASK) != coord) {
+            move = move.variation;
+        }
+        return move;
+    }
+
+    private static int getMode(String comment) {
+        if (comment == null) {
+            return MODE_NEW;
+        }
+        for (String part : comment.split("; ")) {
+            if (part.startsWith("w=") || part.startsWith("b=") || part.startsWith("d=")) {
+                return MODE_ADD;
+            }
+        }
+        return MODE_IGNORE;
+    }
+
+    // slot with the move or the empty slot to insert it
+    private int find(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (keys[entry - 1] == key) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int newEntry() {
+        if (size == keys.length) {
+            int capacity = 2 * keys.length;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity * TOTAL_COUNTS);
+            modes = Arrays.copyOf(modes, capacity);
+        }
+        return size++;
+    }
+
+    private void resize() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < size; ++entry) {
+            int slot = hash(keys[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    // ids and coordinates are sequential, spread them
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * compact read-only storage for the moves of PositionTable, parallel arrays by node id:
+ * move data, flags, next variation, position after the move and comment index in a shared pool
+ * Move objects are created on demand as views and kept by node, so that the same node returns the same Move,
+ * changes to them are not stored, PgnGraph refuses edits once compact
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class MoveStore {
+    static final int NONE = -1;
+
+    private final PositionTable positions;
+    private int[] moveData;
+    private int[] moveFlags;
+    private int[] variations;       // next variation node or NONE
+    private int[] positionIds;      // PositionTable id of the board after the move
+    private int[] comments;         // index in commentPool or NONE
+    private String[] commentPool;
+    private Move[] views;           // by node, created on demand
+    private int size;
+
+    // build time only
+    private Map<String, Integer> commentIndexes = new HashMap<>();
+    private List<String> commentList = new ArrayList<>();
+
+    MoveStore(PositionTable positions, int capacity) {
+        this.positions = positions;
+        moveData = new int[capacity];
+        moveFlags = new int[capacity];
+        variations = new int[capacity];
+        positionIds = new int[capacity];
+        comments = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getCommentPoolSize() {
+        return commentPool == null ? commentList.size() : commentPool.length;
+    }
+
+    /**
+     * store the move with its variations
+     * @return node of the move or NONE if move == null
+     */
+    int add(Move move) {
+        int first = NONE, prev = NONE;
+        for (; move != null; move = move.variation) {
+            int node = newNode();
+            moveData[node] = move.getMoveData();
+            moveFlags[node] = move.moveFlags;
+            variations[node] = NONE;
+            positionIds[node] = positions.getId(move.packData, move.positionKey);
+            comments[node] = getCommentIndex(move.comment);
+            if (prev == NONE) {
+                first = node;
+            } else {
+                variations[prev] = node;
+            }
+            prev = node;
+        }
+        return first;
+    }
+
+    // release build data
+    void trim() {
+        moveData = Arrays.copyOf(moveData, size);
+        moveFlags = Arrays.copyOf(moveFlags, size);
+        variations = Arrays.copyOf(variations, size);
+        positionIds = Arrays.copyOf(positionIds, size);
+        comments = Arrays.copyOf(comments, size);
+        commentPool = commentList.toArray(new String[0]);
+        commentList = null;
+        commentIndexes = null;
+        views = new Move[size];
+    }
+
+    /**
+     * @return view of the move with its variations, null for NONE
+     */
+    Move getMove(int node) {
+        if (node == NONE) {
+            return null;
+        }
+        Move move = views[node];
+        if (move == null) {
+            move = new Move(moveFlags[node]);
+            move.setMoveData(moveData[node]);
+            if (comments[node] != NONE) {
+                move.comment = commentPool[comments[node]];
+            }
+            if (positionIds[node] != NONE) {
+                move.packData = positions.getPackData(positionIds[node]);
+                move.positionKey = positions.getKey(positionIds[node]);
+            }
+            move.variation = getMove(variations[node]);
+            views[node] = move;
+        }
+        return move;
+    }
+
+    private int getCommentIndex(String comment) {
+        if (comment == null) {
+            return NONE;
+        }
+        Integer index = commentIndexes.get(comment);
+        if (index == null) {
+            index = commentList.size();
+            commentList.add(comment);
+            commentIndexes.put(comment, index);
+        }
+        return index;
+    }
+
+    private int newNode() {
+        if (size == moveData.length) {
+            int capacity = Math.max(2 * size, 16);
+            moveData = Arrays.copyOf(moveData, capacity);
+            moveFlags = Arrays.copyOf(moveFlags, capacity);
+            variations = Arrays.copyOf(variations, capacity);
+            positionIds = Arrays.copyOf(positionIds, capacity);
+            comments = Arrays.copyOf(comments, capacity);
+        }
+        return size++;
+    }
+}
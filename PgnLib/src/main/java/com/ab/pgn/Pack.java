@@ -36,11 +36,20 @@ class Pack {
     }
 
     private int[] ints = new int[Board.PACK_SIZE];
+    private long key;               // Board.getPositionKey()
+    private boolean keySet;
 
+    // without key, for tests that compare pack data only
     Pack(int[] ints) {
         this.ints = ints;
     }
 
+    Pack(int[] ints, long key) {
+        this.ints = ints;
+        this.key = key;
+        this.keySet = true;
+    }
+
     public void serialize(BitStream.Writer writer) throws Config.PGNException {
         try {
             for (int j : ints) {
@@ -51,6 +60,7 @@ class Pack {
         }
     }
 
+    // the key is not serialized, calculate it from the unpacked board
     Pack(BitStream.Reader reader) throws Config.PGNException {
         try {
             for (int i = 0; i < ints.length; ++i) {
@@ -59,12 +69,21 @@ class Pack {
         } catch (IOException e) {
             throw new Config.PGNException(e);
         }
+        this.key = Board.unpack(ints).getPositionKey();
+        this.keySet = true;
     }
 
     int[] getPackData() {
         return ints;
     }
 
+    long getKey() {
+        if (!keySet) {
+            throw new IllegalStateException("pack without position key");
+        }
+        return key;
+    }
+
     int getNumberOfPieces() {
         if (numberOfPieces < 0) {
             numberOfPieces = getNumberOfPieces(ints);
@@ -73,16 +92,13 @@ class Pack {
     }
 
     private static int getNumberOfPieces(int[] ints) {
-        long bits = ((long)ints[1] << 32) | ((long)ints[0] & 0x0ffffffffL);
-        int pieces = 0;
-        while (bits != 0) {
-            ++pieces;
-            bits &= bits - 1;
-        }
-        return pieces;
+        return Integer.bitCount(ints[0]) + Integer.bitCount(ints[1]);
     }
 
     boolean equalPosition(Pack that) {
+        if (this.keySet && that.keySet && this.key != that.key) {
+            return false;
+        }
         for (int i = 0; i < Board.PACK_SIZE; ++i) {
             if ((this.ints[i] & equalityMask[i]) != ((that).ints[i] & equalityMask[i])) {
                 return false;
@@ -96,11 +112,16 @@ class Pack {
         if (!(that instanceof Pack)) {
             return false;
         }
-        return Arrays.equals(this.ints, ((Pack) that).ints);
+        Pack thatPack = (Pack) that;
+        if (this.keySet && thatPack.keySet && this.key != thatPack.key) {
+            return false;
+        }
+        return Arrays.equals(this.ints, thatPack.ints);
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(ints);
+        long key = getKey();
+        return (int) (key ^ (key >>> 32));
     }
 }
@@ -0,0 +1,115 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * perft, count leaf nodes of the legal move tree to verify move generation
+ * usage: java com.ab.pgn.Perft <depth> [fen]
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class Perft {
+    private final Board board;
+    private IntMoveList[] moveLists = new IntMoveList[0];
+
+    public Perft(Board board) {
+        this.board = board;
+    }
+
+    public long perft(int depth) {
+        if (depth <= 0) {
+            return 1;
+        }
+        ensureDepth(depth);
+        return _perft(depth);
+    }
+
+    /**
+     * @return node count after each legal move, in generation order
+     */
+    public List<Pair<String, Long>> divide(int depth) {
+        List<Pair<String, Long>> res = new LinkedList<>();
+        if (depth <= 0) {
+            return res;
+        }
+        ensureDepth(depth);
+        IntMoveList moves = moveLists[depth - 1];
+        board.generateLegalMoves(moves);
+        for (int i = 0; i < moves.size(); ++i) {
+            int move = moves.get(i);
+            Move m = board.toMove(move);
+            long undo = board.makeMove(m);
+            long count = depth == 1 ? 1 : _perft(depth - 1);
+            board.unmakeMove(m, undo);
+            res.add(new Pair<>(IntMoveList.toString(move), count));
+        }
+        return res;
+    }
+
+    private void ensureDepth(int depth) {
+        if (moveLists.length < depth) {
+            moveLists = new IntMoveList[depth];
+            for (int i = 0; i < depth; ++i) {
+                moveLists[i] = new IntMoveList();
+            }
+        }
+    }
+
+    private long _perft(int depth) {
+        IntMoveList moves = moveLists[depth - 1];
+        int size = board.generateLegalMoves(moves);
+        if (depth == 1) {
+            return size;
+        }
+        long res = 0;
+        for (int i = 0; i < size; ++i) {
+            Move m = board.toMove(moves.get(i));
+            long undo = board.makeMove(m);
+            res += _perft(depth - 1);
+            board.unmakeMove(m, undo);
+        }
+        return res;
+    }
+
+    public static void main(String[] args) throws Config.PGNException {
+        if (args.length == 0) {
+            System.out.println("usage: Perft <depth> [fen]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        Board board;
+        if (args.length > 1) {
+            StringBuilder fen = new StringBuilder(args[1]);
+            for (int i = 2; i < args.length; ++i) {
+                fen.append(" ").append(args[i]);
+            }
+            board = new Board(fen.toString());
+        } else {
+            board = new Board();
+        }
+        Perft perft = new Perft(board);
+        long start = System.currentTimeMillis();
+        long total = 0;
+        for (Pair<String, Long> entry : perft.divide(depth)) {
+            System.out.println(String.format("%s: %s", entry.first, entry.second));
+            total += entry.second;
+        }
+        long msec = System.currentTimeMillis() - start;
+        System.out.println(String.format("\nnodes %s, %s msec, %s nodes/sec", total, msec, msec == 0 ? 0 : total * 1000 / msec));
+    }
+}
@@ -23,13 +23,21 @@ package com.ab.pgn;
 import com.ab.pgn.io.CpFile;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PgnGraph {
 /*
@@ -41,6 +49,12 @@ public class PgnGraph {
     public static boolean DEBUG = false;    // todo: config
     public static boolean DEBUG_SERIALIZATION = false;    // todo: config
     private static final PgnLogger logger = PgnLogger.getLogger(PgnGraph.class);
+    private static final int
+        MOVE_LINE_SIZE_LENGTH = 10,
+        MOVE_LINE_SIZE_ESCAPE = (1 << MOVE_LINE_SIZE_LENGTH) - 1,  // longer line, the size follows
+        MOVE_LINE_LONG_SIZE_LENGTH = 20,
+        MERGE_QUEUE_PER_THREAD = 8,     // parsed games waiting to be merged
+        dummy_int = 0;
 
     enum MergeState {
         Search,
@@ -51,8 +65,23 @@ public class PgnGraph {
     Move rootMove = new Move(Config.FLAGS_NULL_MOVE); // can hold initial comment
     CpFile.PgnItem pgnItem;                                 // tags and moveText
     private boolean modified, traceModified;
-    public final LinkedList<Move> moveLine = new LinkedList<>();
-    Map<Pack, Board> positions = new HashMap<>();
+    public final MoveLine moveLine = new MoveLine();
+    PositionTable positions = new PositionTable();
+    private final DrawDetector drawDetector = new DrawDetector();
+    private Move drawDetectorMove;      // moveLine last move when drawDetector was updated
+    private int drawDetectorLineSize;
+
+    // lazy loading, variations not parsed yet by the main line move they are alternatives to
+    private Map<Move, List<LazyVariation>> lazyVariations;
+    private String lazyMoveText;
+    private Move[] lazyMainLine;
+    private int lazyParsingDepth;       // addMove parses the variations of transpositions recursively
+
+    // init board and tags only, passed to HeadObserver while the graph is being unserialized
+    private boolean head;
+    private GraphJournal journal;       // edits after the last snapshot
+    private int snapshotId;             // of the last snapshot written or read, journals record it
+    private MoveStatistics mergeStatistics;     // counted during merge, written to comments at the end
 
     transient private String parsingError;
     transient private int parsingErrorNum;
@@ -78,12 +107,19 @@ public class PgnGraph {
         }
         modified = false;
         traceModified = true;
-        rootMove.packData = initBoard.pack();
-        positions.put(new Pack(rootMove.packData), initBoard);
+        rootMove.setPack(initBoard);
+        positions.put(rootMove.getPack(), initBoard);
         moveLine.add(rootMove);
     }
 
     public PgnGraph(CpFile.PgnItem pgnItem) throws Config.PGNException {
+        this(pgnItem, false);
+    }
+
+    /**
+     * @param lazy parse only the main line, variations are parsed when their position is visited
+     */
+    public PgnGraph(CpFile.PgnItem pgnItem, boolean lazy) throws Config.PGNException {
         Board initBoard;
         Date start = new Date();
         String fen = pgnItem.getFen();
@@ -96,7 +132,11 @@ public class PgnGraph {
         init(initBoard, pgnItem);
         if (PARSE_MOVES_ANYWAY || parsingErrorNum == 0) {
             try {
-                parseMoves(pgnItem.getMoveText());
+                if (lazy) {
+                    parseMainLine(pgnItem.getMoveText());
+                } else {
+                    parseMoves(pgnItem.getMoveText());
+                }
             } catch (OutOfMemoryError e) {
                 throw e;
             } catch (Throwable e) {
@@ -119,7 +159,95 @@ public class PgnGraph {
     }
 
     public void parseMoves(String moves) throws Config.PGNException {
-        PgnParser.parseMoves(moves, new CpMoveTextHandler(this), true);
+        GraphJournal journal = this.journal;
+        this.journal = null;
+        try {
+            PgnParser.parseMoves(moves, new CpMoveTextHandler(this), true);
+        } finally {
+            this.journal = journal;
+            if (journal != null) {
+                journal.invalidate();   // comments are not journaled, write a snapshot
+            }
+        }
+    }
+
+    private void parseMainLine(String moves) throws Config.PGNException {
+        List<int[]> variationRanges = new ArrayList<>();
+        String mainLine = PgnParser.cutVariations(moves, variationRanges);
+        LazyMoveTextHandler handler = new LazyMoveTextHandler(this, variationRanges);
+        PgnParser.parseMoves(mainLine, handler, true);
+        handler.putRootVariations(rootMove);
+        if (handler.lazyVariations.isEmpty()) {
+            return;
+        }
+        lazyVariations = handler.lazyVariations;
+        lazyMoveText = moves;
+        lazyMainLine = moveLine.toArray(new Move[0]);
+        if (moveLine.size() <= 1) {
+            parseAllLazyVariations();   // only variations from the initial position, nothing to postpone
+        }
+    }
+
+    boolean hasLazyVariations() {
+        return lazyVariations != null;
+    }
+
+    // parse variations of the moves from this position
+    private void parseLazyVariations(Board board) {
+        for (Move move = board.getMove(); move != null && lazyVariations != null; move = move.getVariation()) {
+            List<LazyVariation> variations = lazyVariations.remove(move);
+            if (variations != null) {
+                parseLazyVariations(move, variations);
+            }
+        }
+    }
+
+    private void parseAllLazyVariations() {
+        while (lazyVariations != null) {
+            Move mainMove = lazyVariations.keySet().iterator().next();
+            parseLazyVariations(mainMove, lazyVariations.remove(mainMove));
+        }
+    }
+
+    // parse as in "1.e4 e5 (1. ... c5) 2.Nf3", from the main line up to mainMove, the current line is restored
+    // a variation before the first move is parsed from rootMove
+    // lazy state is released by the outermost call only
+    private void parseLazyVariations(Move mainMove, List<LazyVariation> variations) {
+        Move[] line = moveLine.toArray(new Move[0]);
+        Move[] mainLine = lazyMainLine;
+        String text = lazyMoveText;
+        boolean modified = this.modified;
+        GraphJournal journal = this.journal;
+        this.journal = null;    // the snapshot has them parsed
+        ++lazyParsingDepth;
+        try {
+            for (LazyVariation variation : variations) {
+                moveLine.clear();
+                for (int i = 0; i <= variation.lineIndex; ++i) {
+                    moveLine.addLast(mainLine[i]);
+                }
+                CpMoveTextHandler handler = new CpMoveTextHandler(this);
+                handler.newMove = mainLine[variation.lineIndex];   // mainMove or rootMove
+                String moveText = Config.VARIANT_OPEN + text.substring(variation.start, variation.end) + Config.VARIANT_CLOSE
+                        + text.substring(Math.min(variation.end + 1, variation.next), variation.next);
+                PgnParser.parseMoves(moveText, handler, false);
+            }
+        } catch (Config.PGNException e) {
+            logger.error(e.getMessage(), e);
+            parsingError = e.getMessage();
+        } finally {
+            moveLine.clear();
+            for (Move move : line) {
+                moveLine.addLast(move);
+            }
+            this.modified = modified;
+            this.journal = journal;
+            if (--lazyParsingDepth == 0 && lazyVariations != null && lazyVariations.isEmpty()) {
+                lazyVariations = null;
+                lazyMoveText = null;
+                lazyMainLine = null;
+            }
+        }
     }
 
     private void printDuration(String msg, Date start, Date end) {
@@ -138,23 +266,36 @@ public class PgnGraph {
         return parsingErrorNum;
     }
 
+    /**
+     * serialize a snapshot for journaling, with a new id, journals set after it record that id
+     */
+    public void serializeSnapshot(final BitStream.Writer writer, int versionCode) throws Config.PGNException {
+        snapshotId = new Random().nextInt();
+        serializeGraph(writer, versionCode);
+    }
+
+    /**
+     * layout: version, snapshot id, init board, tags and flags, graph
+     * tags and flags precede the graph, so that the reader can show them before the graph is loaded
+     * the snapshot id is kept, see serializeSnapshot
+     */
     public void serializeGraph(final BitStream.Writer writer, int versionCode) throws Config.PGNException {
-        for (Map.Entry<Pack, Board> entry : positions.entrySet()) {
-            entry.getValue().setSerialized(false);
-        }
+        parseAllLazyVariations();
+        positions.setSerialized(false);
         try {
             writer.write(versionCode, 8);
+            writer.write(snapshotId, 32);
             Date start = new Date();
             Board board = getInitBoard();
             board.serialize(writer);
-            // 1. serialize positions
-            logger.debug(String.format(Locale.getDefault(), "writer board %d", writer.bitCount));
-            serializeGraph(writer, rootMove);
-
-            // 2. serialize tags, modified
+            // 1. serialize tags, modified
             pgnItem.serialize(writer);
             writer.write(modified ? 1 : 0, 1);
             writer.write(traceModified ? 1 : 0, 1);
+
+            // 2. serialize positions
+            logger.debug(String.format(Locale.getDefault(), "writer board %d", writer.bitCount));
+            serializeGraph(writer, rootMove);
             Date end = new Date();
             printDuration("PgnFile serialized", start, end);
         } catch (IOException e) {
@@ -162,48 +303,59 @@ public class PgnGraph {
         }
     }
 
-    private void serializeGraph(BitStream.Writer writer, Move move) throws Config.PGNException {
+    // depth-first with explicit stack: move, the moves after it, its variations
+    private void serializeGraph(BitStream.Writer writer, Move rootMove) throws Config.PGNException {
+        List<Move> stack = new ArrayList<>();   // null marks the end of variations
+        stack.add(rootMove);
         try {
-            if (move == null) {
-                writer.write(0, 1);
-                if (DEBUG_SERIALIZATION) {
-                    logger.debug(String.format(Locale.getDefault(), "writer E %d", writer.bitCount));
+            while (!stack.isEmpty()) {
+                Move move = stack.remove(stack.size() - 1);
+                if (move == null) {
+                    writer.write(0, 1);
+                    if (DEBUG_SERIALIZATION) {
+                        logger.debug(String.format(Locale.getDefault(), "writer E %d", writer.bitCount));
+                    }
+                    continue;
                 }
-            } else {
                 writer.write(1, 1);
                 move.serialize(writer, false);
-                Board nextBoard = this.getBoard(move.packData);
+                Board nextBoard = this.getBoard(move);
                 if (DEBUG_SERIALIZATION) {
                     logger.debug(String.format(Locale.getDefault(), "writer %s %d\n%s", move.toCommentedString(), writer.bitCount, nextBoard.toString()));
                 }
                 if (DEBUG_MOVE != null && DEBUG_MOVE.equals(move.toCommentedString())) {
                     System.out.println(String.format("writer %s\n%s", move.toCommentedString(), nextBoard.toString()));
                 }
+                stack.add(move.getVariation());
                 if (nextBoard.getSerialized()) {
                     if (DEBUG_SERIALIZATION) {
                         logger.debug(String.format(Locale.getDefault(), "writer visited %s %d, skip", move.toCommentedString(), writer.bitCount));
                     }
-                    serializeGraph(writer, move.getVariation());
-                    return;
+                    continue;
                 }
                 nextBoard.setSerialized(true);
-                serializeGraph(writer, nextBoard.getMove());
-                serializeGraph(writer, move.getVariation());
-                if (DEBUG_SERIALIZATION) {
-                    logger.debug(String.format(Locale.getDefault(), "writer %s complete %d", move.toCommentedString(), writer.bitCount));
-                }
+                stack.add(nextBoard.getMove());
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new Config.PGNException(e);
         }
     }
 
     public PgnGraph(BitStream.Reader reader, int versionCode) throws Config.PGNException {
+        this(reader, versionCode, null);
+    }
+
+    /**
+     * @param headObserver when not null, receives a graph with init board and tags
+     *                     before the rest of the graph is read, its moveLine can be restored with unserializeMoveLine
+     */
+    public PgnGraph(BitStream.Reader reader, int versionCode, HeadObserver headObserver) throws Config.PGNException {
         try {
             int oldVersionCode;
             if (versionCode != (oldVersionCode = reader.read(8))) {
                 throw new Config.PGNException(String.format("Old serialization %d ignored", oldVersionCode));
             }
+            snapshotId = reader.read(32);
             int totalLen = reader.available();
             CpFile.progressNotifier.setTotalLength(totalLen);
             Date start = new Date();
@@ -212,11 +364,20 @@ public class PgnGraph {
             positions.clear();
             Board board = new Board(reader);
             logger.debug(String.format(Locale.getDefault(), "reader board %d", reader.bitCount));
+            unserializeHead(reader);
+            if (headObserver != null) {
+                PgnGraph head = new PgnGraph(board.clone());
+                head.pgnItem = pgnItem;
+                head.modified = modified;
+                head.traceModified = traceModified;
+                head.head = true;
+                headObserver.onHeadLoaded(head);
+            }
+            boolean modified = this.modified, traceModified = this.traceModified;
             unserializeGraph(reader, board, totalLen);
-
-            pgnItem = (CpFile.PgnItem)CpFile.unserialize(reader);
-            modified = reader.read(1) == 1;
-            traceModified = reader.read(1) == 1;
+            // addMove changes them
+            this.modified = modified;
+            this.traceModified = traceModified;
             Date end = new Date();
             printDuration("PgnFile unserialized", start, end);
         } catch (Config.PGNException e) {
@@ -226,41 +387,59 @@ public class PgnGraph {
         }
     }
 
-    private Move unserializeGraph(BitStream.Reader reader, Board previousBoard, int totalLen) throws Config.PGNException {
+    private void unserializeHead(BitStream.Reader reader) throws Config.PGNException, IOException {
+        pgnItem = (CpFile.PgnItem)CpFile.unserialize(reader);
+        modified = reader.read(1) == 1;
+        traceModified = reader.read(1) == 1;
+    }
+
+    // reverse of serializeGraph, explicit stack of pending boards, parent != null when reading its variation
+    private void unserializeGraph(BitStream.Reader reader, Board initBoard, int totalLen) throws Config.PGNException {
+        List<Board> boards = new ArrayList<>();
+        List<Move> parents = new ArrayList<>();
+        boards.add(initBoard);
+        parents.add(null);
         try {
-            if (reader.read(1) == 0) {
+            while (!boards.isEmpty()) {
+                Board previousBoard = boards.remove(boards.size() - 1);
+                Move parent = parents.remove(parents.size() - 1);
+                if (reader.read(1) == 0) {
+                    if (DEBUG_SERIALIZATION) {
+                        logger.debug(String.format(Locale.getDefault(), "reader E %d", reader.bitCount));
+                    }
+                    if (parent != null) {
+                        parent.variation = null;
+                    }
+                    continue;
+                }
+                Move move = new Move(reader, previousBoard, false);
+                CpFile.progressNotifier.setOffset(totalLen - reader.available());
                 if (DEBUG_SERIALIZATION) {
-                    logger.debug(String.format(Locale.getDefault(), "reader E %d", reader.bitCount));
+                    logger.debug(String.format(Locale.getDefault(), "reader %s %d\n%s", move.toCommentedString(), reader.bitCount, previousBoard.toString()));
                 }
-                return null;
-            }
-            Move move = new Move(reader, previousBoard, false);
-            CpFile.progressNotifier.setOffset(totalLen - reader.available());
-            if (DEBUG_SERIALIZATION) {
-                logger.debug(String.format(Locale.getDefault(), "reader %s %d\n%s", move.toCommentedString(), reader.bitCount, previousBoard.toString()));
-            }
-            if (DEBUG_MOVE != null && DEBUG_MOVE.equals(move.toCommentedString())) {
-                System.out.println(String.format(Locale.getDefault(), "reader %s %d", move.toCommentedString(), reader.bitCount));
-            }
-            if (positions.size() == 0) {
-                // set up rootMove
-                rootMove = move;
-                rootMove.packData = previousBoard.pack();
-                positions.put(new Pack(rootMove.packData), previousBoard);
-                moveLine.addLast(rootMove);
-            } else {
-                if (!this.addMove(move, previousBoard)) {
-                    move.variation = unserializeGraph(reader, previousBoard, totalLen);
-                    return move;
+                if (DEBUG_MOVE != null && DEBUG_MOVE.equals(move.toCommentedString())) {
+                    System.out.println(String.format(Locale.getDefault(), "reader %s %d", move.toCommentedString(), reader.bitCount));
+                }
+                boolean newPosition = true;
+                if (positions.size() == 0) {
+                    // set up rootMove
+                    rootMove = move;
+                    rootMove.setPack(previousBoard);
+                    positions.put(rootMove.getPack(), previousBoard);
+                    moveLine.addLast(rootMove);
+                } else {
+                    newPosition = this.addMove(move, previousBoard);
+                }
+                if (parent != null) {
+                    parent.variation = move;
+                }
+                boards.add(previousBoard);
+                parents.add(move);
+                if (newPosition) {
+                    boards.add(positions.get(move));
+                    parents.add(null);
                 }
             }
-            Board nextBoard = positions.get(new Pack(move.packData));
-            unserializeGraph(reader, nextBoard, totalLen);
-            move.variation = unserializeGraph(reader, previousBoard, totalLen);
-            if (DEBUG_SERIALIZATION) {
-                logger.debug(String.format(Locale.getDefault(), "reader %s complete %d", move.toCommentedString(), reader.bitCount));
-            }
-            return move;
         } catch (IOException e) {
             throw new Config.PGNException(e);
         }
@@ -269,7 +448,13 @@ public class PgnGraph {
     public void serializeMoveLine(BitStream.Writer writer, int versionCode) throws Config.PGNException {
         try {
             writer.write(versionCode, 8);
-            writer.write(moveLine.size() - 1, 10);
+            int moveLineSize = moveLine.size() - 1;
+            if (moveLineSize < MOVE_LINE_SIZE_ESCAPE) {
+                writer.write(moveLineSize, MOVE_LINE_SIZE_LENGTH);
+            } else {
+                writer.write(MOVE_LINE_SIZE_ESCAPE, MOVE_LINE_SIZE_LENGTH);
+                writer.write(moveLineSize, MOVE_LINE_LONG_SIZE_LENGTH);
+            }
             boolean skip = true;
             for (Move move : moveLine) {
                 if (skip) {
@@ -291,10 +476,21 @@ public class PgnGraph {
             }
             moveLine.clear();
             moveLine.add(rootMove);
-            int moveLineSize = reader.read(10);
+            int moveLineSize = reader.read(MOVE_LINE_SIZE_LENGTH);
+            if (moveLineSize == MOVE_LINE_SIZE_ESCAPE) {
+                moveLineSize = reader.read(MOVE_LINE_LONG_SIZE_LENGTH);
+            }
             Board board = getInitBoard();
             for (int i = 0; i < moveLineSize; ++i) {
                 Move move = new Move(reader, board);
+                if (head) {
+                    // positions are not loaded yet
+                    boolean modified = this.modified;
+                    addMove(move);
+                    this.modified = modified;
+                    board = getBoard();
+                    continue;
+                }
                 board = this.getBoard(move);
                 moveLine.addLast(move);
             }
@@ -334,6 +530,9 @@ public class PgnGraph {
             this.modified = false;
         }
         pgnItem.setTags(newTags);
+        if (journal != null) {
+            journal.setTags(newTags);
+        }
     }
 
     public void toInit() {
@@ -353,12 +552,12 @@ public class PgnGraph {
         return msg;
     }
 
-    private Board getBoard(int[] packData) {
-        Board b = positions.get(new Pack(packData));
+    public Board getBoard(Move move) {
+        Board b = positions.get(move);
         if (b == null) {
             String msg;
             try {
-                msg = getGraphDescription(packData);
+                msg = getGraphDescription(move.packData);
             } catch (Config.PGNException e) {
                 // error in unpack
                 msg = String.format("positions %s ", positions.size());
@@ -372,15 +571,11 @@ public class PgnGraph {
     }
 
     public Board getInitBoard() {
-        return getBoard(rootMove.packData);
+        return getBoard(rootMove);
     }
 
     public Board getBoard() {
-        return getBoard(getCurrentMove().packData);
-    }
-
-    public Board getBoard(Move move) {
-        return getBoard(move.packData);
+        return getBoard(getCurrentMove());
     }
 
     public boolean isModified() {
@@ -389,11 +584,118 @@ public class PgnGraph {
 
     public void setModified(boolean modified) {
         this.modified = modified;
+        journalFlags();
     }
 
     public void setPuzzleMode() {
         this.modified =
         this.traceModified = false;
+        journalFlags();
+    }
+
+    private void journalFlags() {
+        if (journal != null) {
+            journal.setFlags(modified, traceModified);
+        }
+    }
+
+    public GraphJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal receives the edits from now on, null to stop journaling
+     */
+    public void setJournal(GraphJournal journal) {
+        this.journal = journal;
+        if (journal != null) {
+            journal.setSnapshot(snapshotId);
+        }
+    }
+
+    /**
+     * apply the records of GraphJournal written after the snapshot this graph was unserialized from
+     * moveLine is not changed
+     * a journal written for another snapshot is rejected before any record is applied
+     * @return number of applied records
+     */
+    public int replayJournal(BitStream.Reader reader) throws Config.PGNException {
+        GraphJournal journal = this.journal;
+        this.journal = null;
+        int records = 0;
+        try {
+            while (reader.available() > 0) {
+                int op = reader.read(GraphJournal.OP_LENGTH);
+                if (records == 0 && op != GraphJournal.OP_SNAPSHOT) {
+                    throw new Config.PGNException("journal without snapshot id");
+                }
+                if (op == GraphJournal.OP_SNAPSHOT) {
+                    int id = reader.read(32);
+                    if (id != snapshotId) {
+                        throw new Config.PGNException(String.format("journal record %d, snapshot id %d instead of %d", records, id, snapshotId));
+                    }
+                } else if (op == GraphJournal.OP_TAGS) {
+                    pgnItem.setTags(CpFile.unserializeTagList(reader));
+                    modified = traceModified;
+                } else if (op == GraphJournal.OP_FLAGS) {
+                    modified = reader.read(1) == 1;
+                    traceModified = reader.read(1) == 1;
+                } else {
+                    Board prevBoard = null;
+                    Move move = rootMove;
+                    if (reader.read(1) == 1) {
+                        prevBoard = positions.get(new Pack(reader));
+                        if (prevBoard == null) {
+                            throw new Config.PGNException(String.format("journal record %d, position not found", records));
+                        }
+                        move = new Move(reader, prevBoard, false);
+                        if (op != GraphJournal.OP_ADD_MOVE) {
+                            move = findMove(prevBoard, move);
+                            if (move == null) {
+                                throw new Config.PGNException(String.format("journal record %d, move not found", records));
+                            }
+                        }
+                    }
+                    if (op == GraphJournal.OP_ADD_MOVE) {
+                        addMove(move, prevBoard);
+                    } else if (op == GraphJournal.OP_DEL_MOVE) {
+                        delMove(prevBoard, move);
+                    } else if (op == GraphJournal.OP_COMMENT) {
+                        move.comment = reader.readString();
+                        modified = traceModified;
+                    } else if (op == GraphJournal.OP_GLYPH) {
+                        move.setGlyph(reader.read(8));
+                        modified = traceModified;
+                    } else {
+                        throw new Config.PGNException(String.format("journal record %d, invalid op %d", records, op));
+                    }
+                }
+                reader.align();
+                ++records;
+            }
+        } catch (IOException e) {
+            throw new Config.PGNException(e);
+        } finally {
+            this.journal = journal;
+        }
+        return records;
+    }
+
+    // the move in prevBoard variations that is the same as move
+    private Move findMove(Board prevBoard, Move move) {
+        Move m = prevBoard.getMove();
+        while (m != null && !m.isSameAs(move)) {
+            m = m.variation;
+        }
+        return m;
+    }
+
+    // move before the current one, null for rootMove
+    private Move getPrevMove() {
+        if (moveLine.size() <= 1) {
+            return null;
+        }
+        return moveLine.get(moveLine.size() - 2);
     }
 
     public String getComment() {
@@ -402,6 +704,7 @@ public class PgnGraph {
     }
 
     public void setComment(String newComment) {
+        checkWritable();
         if (newComment == null) {
             newComment = "";
         }
@@ -421,6 +724,9 @@ public class PgnGraph {
                 move.comment = null;
             }
             modified = traceModified;
+            if (journal != null) {
+                journal.setComment(getPrevMove(), move);
+            }
         }
     }
 
@@ -494,6 +800,7 @@ public class PgnGraph {
         while (moveLine.size() > 1) {
             moveLine.removeLast();
             Board board = getBoard();
+            parseLazyVariations(board);
             if (board.getMove().getVariation() != null) {
                 break;
             }
@@ -534,6 +841,7 @@ public class PgnGraph {
 
     public void toVariation(Move variation) {
         Board board = getBoard();
+        parseLazyVariations(board);
         Move move = board.getMove();
         while (move != null) {
             if (variation == move) {
@@ -559,17 +867,21 @@ public class PgnGraph {
     }
 
     public void setGlyph(int glyth) {
+        checkWritable();
         if (!okToSetGlyph()) {
             return;
         }
         if (getCurrentMove().getGlyph() != glyth) {
             getCurrentMove().setGlyph(glyth);
             modified = traceModified;
+            if (journal != null) {
+                journal.setGlyph(getPrevMove(), getCurrentMove());
+            }
         }
     }
 
     public boolean okToSetGlyph() {
-        return !isInit();
+        return !isInit() && !isCompact();
     }
 
     public boolean isEnd() {
@@ -579,6 +891,7 @@ public class PgnGraph {
 
     public List<Move> getVariations() {
         Board board = getBoard();
+        parseLazyVariations(board);
         Move move = board.getMove();
         Move variation;
         if (move == null || (variation = move.getVariation()) == null) {
@@ -601,7 +914,7 @@ public class PgnGraph {
     // complete move, needs validation
     public boolean validateUserMove(Move newMove) {
         Board board = getBoard();
-        int piece = board.getPiece(newMove.getFrom());
+        int piece = board.getPiece(newMove.getFromIndex());
         if (piece != newMove.getPiece()) {
             return false;
         }
@@ -619,24 +932,22 @@ public class PgnGraph {
         if (board.validatePgnMove(newMove, Config.VALIDATE_USER_MOVE)) {
             if (piece != Config.PAWN) {
                 // check ambiguity to set moveFlags
-                Move test = newMove.clone();
-                int testFrom_x, testFrom_y;
-                for (testFrom_y = 0; testFrom_y < Config.BOARD_SIZE; testFrom_y++) {
-                    for (testFrom_x = 0; testFrom_x < Config.BOARD_SIZE; testFrom_x++) {
-                        if (board.getPiece(testFrom_x, testFrom_y) == newMove.getPiece() &&
-                                !(testFrom_x == newMove.getFromX() && testFrom_y == newMove.getFromY())) {
-                            test.setFrom(testFrom_x, testFrom_y);
-                            if (board.validatePgnMove(test, Config.VALIDATE_PGN_MOVE)) {
-                                if (testFrom_x != newMove.getFromX()) {
-                                    newMove.moveFlags |= Config.FLAGS_X_AMBIG;
-                                } else if (testFrom_y != newMove.getFromY()) {
-                                    newMove.moveFlags |= Config.FLAGS_Y_AMBIG;
-                                }
-                            }
-                        }
+                IntMoveList moves = new IntMoveList();
+                board.generateLegalMoves(moves);
+                int from = BitBoard.square(newMove.getFromX(), newMove.getFromY());
+                int to = BitBoard.square(newMove.getToX(), newMove.getToY());
+                for (int i = 0; i < moves.size(); ++i) {
+                    int test = moves.get(i);
+                    int testFrom = IntMoveList.getFrom(test);
+                    if (IntMoveList.getTo(test) != to || IntMoveList.getPiece(test) != newMove.getPiece() || testFrom == from) {
+                        continue;
+                    }
+                    if (BitBoard.getX(testFrom) != newMove.getFromX()) {
+                        newMove.moveFlags |= Config.FLAGS_X_AMBIG;
+                    } else {
+                        newMove.moveFlags |= Config.FLAGS_Y_AMBIG;
                     }
                 }
-
             }
             return true;
         }
@@ -651,68 +962,13 @@ public class PgnGraph {
         }
         if (newMove.getColorlessPiece() == Config.KING) {
             if ((newMove.moveFlags & Config.FLAGS_BLACK_MOVE) == 0) {
-                newMove.setFrom(this.getBoard().getWKing());
+                newMove.setFrom(this.getBoard().getWKingX(), this.getBoard().getWKingY());
             } else {
-                newMove.setFrom(this.getBoard().getBKing());
+                newMove.setFrom(this.getBoard().getBKingX(), this.getBoard().getBKingY());
             }
             return true;
         }
-        int fromX, fromY;
-        if (newMove.getColorlessPiece() == Config.PAWN) {
-            int dy;
-            int hisPawn;
-            fromX = newMove.getToX();
-            if ((newMove.moveFlags & Config.FLAGS_BLACK_MOVE) == 0) {
-                dy = 1;
-                hisPawn = Config.BLACK_PAWN;
-            } else {
-                dy = -1;
-                hisPawn = Config.WHITE_PAWN;
-            }
-
-            if (!newMove.isFromXSet()) {
-                newMove.setFromX(newMove.getToX());
-            }
-            newMove.moveFlags &= ~Config.FLAGS_ENPASSANT_OK;
-            fromY = newMove.getToY() - dy;
-            if (this.getBoard().getPiece(fromX, fromY) == Config.EMPTY) {
-                fromY -= dy;
-                if (this.getBoard().getPiece(newMove.getToX() - 1, newMove.getToY()) == hisPawn ||
-                        this.getBoard().getPiece(newMove.getToX() + 1, newMove.getToY()) == hisPawn ) {
-                    newMove.moveFlags |= Config.FLAGS_ENPASSANT_OK;
-                }
-            }
-            if (fromY != newMove.getToX() &&
-                    this.getBoard().getPiece(newMove.getTo()) == Config.EMPTY &&
-                    this.getBoard().getPiece(newMove.getToX(), fromY) == hisPawn ) {
-                newMove.moveFlags |= Config.FLAGS_CAPTURE;
-            }
-        }
-
-        // find newMove.from by validating newMove
-        int x0 = 0, x1 = Config.BOARD_SIZE - 1, y0 = 0, y1 = Config.BOARD_SIZE - 1;
-        if (newMove.getPiece() == Config.WHITE_PAWN) {
-            ++y0;
-        } else if (newMove.getPiece() == Config.BLACK_PAWN) {
-            --y1;
-        }
-        if (newMove.isFromXSet())
-            x0 = x1 = newMove.getFromX();
-        if (newMove.isFromYSet())
-            y0 = y1 = newMove.getFromY();
-
-        for (fromY = y0; fromY <= y1; fromY++) {
-            for (fromX = x0; fromX <= x1; fromX++) {
-                if (this.getBoard().getPiece(fromX, fromY) == newMove.getPiece()) {
-                    newMove.setFrom(fromX, fromY);
-                    if (getBoard().validatePgnMove(newMove, Config.VALIDATE_PGN_MOVE)) {
-                        return true;
-                    }
-                }
-            }
-        }
-
-        return false;
+        return getBoard().resolvePgnMove(newMove);
     }
 
     // board after requested move!
@@ -726,7 +982,7 @@ public class PgnGraph {
         if (moveLine.size() == 1) {
             return "";
         }
-        return getMoveNum(getBoard(move.packData)) + move;
+        return getMoveNum(getBoard(move)) + move;
     }
 
     public String getNumberedMove() {
@@ -737,7 +993,7 @@ public class PgnGraph {
     }
 
     public String getMoveNum(Move move) {
-        return getMoveNum(getBoard(move.packData));
+        return getMoveNum(getBoard(move));
     }
 
     public List<String> getMovesText() {
@@ -759,7 +1015,7 @@ public class PgnGraph {
                 sb.delete(0, sb.length());
             }
             showMoveNum = false;
-            board = this.getBoard(move.packData);
+            board = this.getBoard(move);
         }
         if (sb.length() > 0) {
             res.add(new String(sb));
@@ -770,28 +1026,53 @@ public class PgnGraph {
 
     public void addMove(Move newMove) throws Config.PGNException {
         addMove(newMove, null);
+        if (journal != null) {
+            journal.addMove(getPrevMove(), newMove);
+        }
+    }
+
+    /**
+     * keep moves in parallel arrays instead of Move objects, for large read-only graphs, e.g. Book
+     * moves returned by Board.getMove() are views after that and the graph cannot be modified
+     */
+    public void compact() {
+        parseAllLazyVariations();
+        positions.compact();
+    }
+
+    public boolean isCompact() {
+        return positions.isCompact();
+    }
+
+    // changes of move views would be lost
+    private void checkWritable() {
+        if (positions.isCompact()) {
+            throw new IllegalStateException("Cannot modify a compact graph");
+        }
     }
 
     // todo: simplify!
     // return true if the new position is added to positions
     private boolean addMove(Move newMove, Board prevBoard) throws Config.PGNException {
+        if (positions.isCompact()) {
+            throw new Config.PGNException("Cannot add moves to a compact graph");
+        }
         Board board;
         if (prevBoard == null) {
             board = getBoard();
         } else {
             board = prevBoard;
         }
+        parseLazyVariations(board);
         Board newBoard = board.clone();
         if (DEBUG_MOVE != null && DEBUG_MOVE.equals(newMove.toString().trim())) {
             System.out.println(String.format("addMove %s", newMove.toCommentedString()));
         }
         newBoard.doMove(newMove);
-        newMove.packData = newBoard.pack();
-        if (isRepetition(newMove)) {
-            newMove.moveFlags |= Config.FLAGS_REPETITION;
-        }
+        newMove.setPack(newBoard);
+        newMove.moveFlags |= getDrawFlags(newMove, newBoard, prevBoard == null);
         Move move;
-        Board oldBoard = positions.put(new Pack(newMove.packData), newBoard);
+        Board oldBoard = positions.put(newMove.getPack(), newBoard);
         if (oldBoard != null) {
             // position occurred already
             newBoard.setMove(oldBoard.getMove());
@@ -870,18 +1151,10 @@ public class PgnGraph {
     }
 
     public void addUserMove(Move move) throws Config.PGNException {
-        addMove(move);
+        addMove(move, null);
         Board board = getBoard();
-        Board tmp = board.clone();
-        tmp.invertFlags(Config.FLAGS_BLACK_MOVE);
-        Square target;
-        if ((tmp.getFlags() & Config.FLAGS_BLACK_MOVE) == 0) {
-            target = tmp.getBKing();
-        } else {
-            target = tmp.getWKing();
-        }
-        Move checkMove;
-        if ((checkMove = tmp.findAttack(target, null)) == null) {
+        boolean check = board.isKingAttacked(board.getFlags() & Config.BLACK);
+        if (!check) {
             if (board.validateStalemate()) {
                 move.moveFlags |= Config.FLAGS_STALEMATE;
                 if (DEBUG) {
@@ -889,14 +1162,15 @@ public class PgnGraph {
                 }
             }
         } else {
-            checkMove.moveFlags &= ~Config.FLAGS_BLACK_MOVE;
-            checkMove.moveFlags |= tmp.getFlags() & Config.FLAGS_BLACK_MOVE;
-            if (tmp.validateCheckmate(checkMove)) {
+            if (board.validateCheckmate()) {
                 move.moveFlags |= Config.FLAGS_CHECKMATE;
             } else {
                 move.moveFlags |= Config.FLAGS_CHECK;
             }
         }
+        if (journal != null) {
+            journal.addMove(getPrevMove(), move);
+        }
     }
 
     // delete last in moveLine, it can be a variation
@@ -904,9 +1178,17 @@ public class PgnGraph {
         if (moveLine.size() <= 1) {
             return;     // exception? rootMove cannot be deleted
         }
+        checkWritable();
+        parseAllLazyVariations();
         Move move2Del = moveLine.removeLast();
         Move prevMove = getCurrentMove();
-        Board prevBoard = getBoard(prevMove);
+        if (journal != null) {
+            journal.delMove(prevMove, move2Del);
+        }
+        delMove(getBoard(prevMove), move2Del);
+    }
+
+    private void delMove(Board prevBoard, Move move2Del) {
         Move m = prevBoard.getMove();
         if (move2Del.isSameAs(m)) {
             prevBoard.setMove(move2Del.variation);
@@ -942,7 +1224,7 @@ public class PgnGraph {
             if (DEBUG) {
                 logger.debug(String.format("delete %s\n%s", move, board));
             }
-            positions.remove(new Pack(move.packData));
+            positions.remove(move.getPack());
             delPositionsAfter(move.getVariation());
             move = board.getMove();
         }
@@ -954,9 +1236,8 @@ public class PgnGraph {
 
     public String toPgn() {
         Date start = new Date();
-        for (Map.Entry<Pack, Board> entry : positions.entrySet()) {
-            entry.getValue().setVisited(false);
-        }
+        parseAllLazyVariations();
+        positions.setVisited(false);
         CpFile.progressNotifier.setTotalLength(positions.size());
         String pgn = toPgn(null, rootMove) + "*";
 
@@ -1023,7 +1304,7 @@ public class PgnGraph {
                 }
             }
             prevBoard = board;
-            board = this.getBoard(move.packData);
+            board = this.getBoard(move);
             if (board.getVisited()) {
                 break;
             }
@@ -1056,10 +1337,10 @@ public class PgnGraph {
     // sanity check
     int getNumberOfMissingVertices() {
         int count = 0;
-        for (Map.Entry<Pack, Board> entry : positions.entrySet()) {
-            if (!entry.getValue().getVisited()) {
+        for (Board board : positions.getBoards()) {
+            if (!board.getVisited()) {
                 // should never happen
-                String msg = String.format("missed position: \n%s", entry.getValue().toString());
+                String msg = String.format("missed position: \n%s", board.toString());
                 logger.error(msg);
                 ++count;
             }
@@ -1075,6 +1356,19 @@ public class PgnGraph {
         return String.format("%s%s", sOffset, str);
     }
 
+    private static class LazyVariation {
+        final int lineIndex;        // in lazyMainLine, of the move the variation is an alternative to, 0 before the first move
+        final int start, end;       // in lazyMoveText, without parentheses
+        final int next;             // end of the comments and glyphs after the variation
+
+        LazyVariation(int lineIndex, int[] range) {
+            this.lineIndex = lineIndex;
+            this.start = range[0];
+            this.end = range[1];
+            this.next = range[2];
+        }
+    }
+
     private static class TraverseData {
         Board prevBoard;
         Move move;
@@ -1084,93 +1378,202 @@ public class PgnGraph {
         }
     }
 
-    private boolean isRepetition(Move move) {
-        if (moveLine.size() == 0) {
-            return false;
+    // repetitions are counted along moveLine, newMove is to be appended to it
+    private int getDrawFlags(Move newMove, Board newBoard, boolean onMoveLine) {
+        if (!onMoveLine || moveLine.isEmpty()) {
+            return DrawDetector.getDrawFlags(newBoard, 1, newBoard.getReversiblePlyNum());
         }
-        int count = 0;
-        Pack searchedPack = new Pack(move.packData);
-        ListIterator<Move> it = moveLine.listIterator(moveLine.size() - 1);
-        while (it.hasPrevious()) {
-            move = it.previous();
-            if (move.isNullMove() && move != rootMove) {
-                break;
-            }
-            if (searchedPack.equalPosition(new Pack(move.packData))) {
-                if (++count == 2) {
-                    return true;
-                }
-            }
-            Board b = getBoard(move);
-            if (b.getReversiblePlyNum() == 0) {
-                break;
-            }
+        if (drawDetectorMove != moveLine.getLast() || drawDetectorLineSize != moveLine.size()) {
+            syncDrawDetector();
         }
-        return false;
+        int flags = drawDetector.addPosition(newBoard, MoveLine.isIrreversible(newMove));
+        drawDetectorMove = newMove;
+        drawDetectorLineSize = moveLine.size() + 1;
+        return flags;
+    }
+
+    // moveLine was changed by navigation, replay it from the last irreversible move
+    private void syncDrawDetector() {
+        int last = moveLine.size() - 1;
+        int start = moveLine.getLastIrreversible(last);
+        Move move = moveLine.get(start);
+        int reversiblePlyNum = 0;
+        if (move.isNullMove()) {
+            reversiblePlyNum = getBoard(move).getReversiblePlyNum();
+        }
+        drawDetector.reset(moveLine.getPositionKey(start), reversiblePlyNum);
+        for (int i = start + 1; i <= last; ++i) {
+            drawDetector.push(moveLine.getPositionKey(i));
+        }
+        drawDetectorMove = moveLine.getLast();
+        drawDetectorLineSize = moveLine.size();
     }
 
     public void merge(final MergeData mergeData) throws Config.PGNException {
+        parseAllLazyVariations();
+        if (journal != null) {
+            journal.invalidate();   // too many changes, write a snapshot
+        }
         final Move mergeMove = this.getCurrentMove();
         mergeData.merged = 0;
         final CpFile.PgnFile pgnFile = mergeData.pgnFile;
-        ((CpFile.Dir)pgnFile.getParent()).scrollGrandChildren(pgnFile, new CpFile.EntryHandler() {
-            @Override
-            public boolean skip(int index) {
-                return index + 1 < mergeData.start; // start and end 1-based
+        int threads = mergeData.workerThreads;
+        if (threads < 0) {
+            threads = Runtime.getRuntime().availableProcessors() - 1;     // this thread merges
+        }
+        mergeStatistics = new MoveStatistics(positions);
+        try {
+            if (threads < 1) {
+                ((CpFile.Dir)pgnFile.getParent()).scrollGrandChildren(pgnFile, new MergeEntryHandler(mergeData) {
+                    @Override
+                    public boolean handle(int index, CpFile.PgnItem entry) {
+                        if (index >= mergeData.start) {
+                            MergeState initialMergeState = mergeData.onNewItem(entry);
+                            if (merge(mergeMove, entry, mergeData, initialMergeState, mergeData.getCommonComment())) {
+                                ++mergeData.merged;
+                            }
+                        }
+                        return mergeData.end == -1 || index < mergeData.end;
+                    }
+                });
+            } else {
+                mergeParallel(mergeMove, mergeData, threads);
+            }
+        } finally {
+            mergeStatistics.render();
+            mergeStatistics = null;
+        }
+        logger.debug(String.format("%s, merged %s games", pgnFile.getAbsolutePath(), mergeData.merged));
+    }
+
+    /**
+     * games are parsed and matched against mergeMove position by the worker threads,
+     * this thread adds them to the graph in the file order, so the result is the same as of sequential merge.
+     * onNewItem runs ahead of the merge, its common comment is kept with the candidate
+     */
+    private void mergeParallel(final Move mergeMove, final MergeData mergeData, final int threads) throws Config.PGNException {
+        final Pack mergePack = mergeMove.getPack();
+        final int mergedPlyNum = positions.get(mergePack).getPlyNum();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final LinkedList<Future<MergeCandidate>> candidates = new LinkedList<>();
+        final CpFile.PgnFile pgnFile = mergeData.pgnFile;
+        try {
+            ((CpFile.Dir)pgnFile.getParent()).scrollGrandChildren(pgnFile, new MergeEntryHandler(mergeData) {
+                @Override
+                public boolean handle(int index, final CpFile.PgnItem entry) {
+                    if (index >= mergeData.start) {
+                        final MergeState initialMergeState = mergeData.onNewItem(entry);
+                        final String commonComment = mergeData.getCommonComment();
+                        candidates.addLast(executor.submit(() ->
+                            new MergeCandidate(entry, initialMergeState, commonComment, mergePack, mergedPlyNum, mergeData.maxPlys)));
+                        if (candidates.size() >= MERGE_QUEUE_PER_THREAD * threads) {
+                            if (!merge(mergeMove, candidates.removeFirst(), mergeData)) {
+                                return false;
+                            }
+                        }
+                    }
+                    return mergeData.end == -1 || index < mergeData.end;
+                }
+            });
+            while (!candidates.isEmpty()) {
+                if (!merge(mergeMove, candidates.removeFirst(), mergeData)) {
+                    break;
+                }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            @Override
-            public boolean getMovesText(int index) {
-                return index >= mergeData.start;
+    // @return false if interrupted
+    private boolean merge(Move mergeMove, Future<MergeCandidate> future, MergeData mergeData) {
+        MergeCandidate candidate;
+        try {
+            candidate = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error)cause;     // OutOfMemoryError
             }
+            throw new IllegalStateException(cause);    // MergeCandidate catches exceptions
+        }
+        if (merge(mergeMove, candidate, mergeData)) {
+            ++mergeData.merged;
+        }
+        return true;
+    }
 
-            @Override
-            public boolean handle(int index, CpFile.PgnItem entry) {
-                if (index >= mergeData.start) {
-                    if (merge(mergeMove, (CpFile.PgnItem)entry, mergeData)) {
-                        ++mergeData.merged;
-                    }
+    // replay of the Merge state of merge(Move, PgnItem, MergeData, MergeState, String) with the moves found by MergeCandidate
+    private boolean merge(Move mergeMove, MergeCandidate candidate, MergeData mergeData) {
+        if (!candidate.canMerge(positions)) {
+            // position of a move cannot be found, merge sequentially to handle it the same way
+            return merge(mergeMove, candidate.pgnItem, mergeData, candidate.initialMergeState, candidate.commonComment);
+        }
+        Move newMove = null;
+        boolean addComment = false;
+        try {
+            for (MergeEvent event : candidate.events) {
+                switch (event.type) {
+                    case MergeEvent.FOUND:
+                        addComment = true;
+                        break;
+
+                    case MergeEvent.MOVE:
+                        newMove = mergeMove(positions.get(event.prevPack), event.move, addComment, candidate.pgnItem, mergeData, candidate.commonComment);
+                        addComment = false;
+                        break;
+
+                    case MergeEvent.COMMENT:
+                        mergeComment(newMove, event.value);
+                        break;
+
+                    case MergeEvent.GLYPH:
+                        newMove.setGlyph(Integer.valueOf(event.value.substring(1)));
+                        break;
                 }
-                return mergeData.end == -1 || index < mergeData.end;
             }
-        });
-        logger.debug(String.format("%s, merged %s games", pgnFile.getAbsolutePath(), mergeData.merged));
+            if (candidate.error != null) {
+                logger.error(candidate.error);
+                parsingError = candidate.error;
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            parsingError = e.getMessage();
+        }
+        return candidate.found;
     }
 
     private final int[] testPackData = new int[] {0x1820E7AF, 0xEDEB1404, 0x6F040783, 0xE3789B0F, 0xE7EFF74D, 0xBC489F9F};
-    private final Pack testPack = new Pack(testPackData);
 //    private Board getTestBoard() {
 //        return this.getBoard(testPackData);
 //    }
 
     static void modifyStatisticsComment(Move move, String result) {
-        if (result == null) {
+        int resultIndex = MoveStatistics.getResultIndex(result);
+        if (resultIndex < 0) {
+            return;    // unknown result
+        }
+        int[] counts = new int[MoveStatistics.TOTAL_COUNTS];
+        ++counts[resultIndex];
+        if (move.comment == null) {
+            move.comment = statisticsComment(counts);
             return;
         }
+        modifyStatisticsComment(move, counts);
+    }
 
-        int[] counts = new int[3];
-        switch (result) {
-            case "1-0":
-                ++counts[0];
-                break;
-            case "0-1":
-                ++counts[1];
-                break;
-            case "1/2-1/2":
-                ++counts[2];
-                break;
-            default:
-                return;    // unknown result
-        }
+    static String statisticsComment(int[] counts) {
+        return "w=" + counts[MoveStatistics.WHITE_WINS] +
+                "; b=" + counts[MoveStatistics.BLACK_WINS] +
+                "; d=" + counts[MoveStatistics.DRAWS];
+    }
 
+    // add counts to w=, b=, d= parts of the comment
+    static void modifyStatisticsComment(Move move, int[] counts) {
         StringBuilder comment = new StringBuilder();
-        if (move.comment == null) {
-            comment.append("w=").append(counts[0]);
-            comment.append("; ").append("b=").append(counts[1]);
-            comment.append("; ").append("d=").append(counts[2]);
-            move.comment = new String(comment);
-            return;
-        }
         String sep = "";
         // expecting {sadcbiwubd; w=123; b=5; d=3; abc; qeaidbaidc}
         String[] parts = move.comment.split("; ");
@@ -1178,13 +1581,13 @@ public class PgnGraph {
             try {
                 int count;
                 if (part.startsWith("w=")) {
-                    count = Integer.valueOf(part.substring(2)) + counts[0];
+                    count = Integer.valueOf(part.substring(2)) + counts[MoveStatistics.WHITE_WINS];
                     comment.append(sep).append("w=").append(count);
                 } else if (part.startsWith("b=")) {
-                    count= Integer.valueOf(part.substring(2)) + counts[1];
+                    count= Integer.valueOf(part.substring(2)) + counts[MoveStatistics.BLACK_WINS];
                     comment.append(sep).append("b=").append(count);
                 } else if (part.startsWith("d=")) {
-                    count = Integer.valueOf(part.substring(2)) + counts[2];
+                    count = Integer.valueOf(part.substring(2)) + counts[MoveStatistics.DRAWS];
                     comment.append(sep).append("d=").append(count);
                 } else {
                     comment.append(sep).append(part);
@@ -1198,13 +1601,85 @@ public class PgnGraph {
         move.comment = new String(comment);
     }
 
+    // add a move of the merged game after prevBoard and annotate it
+    private Move mergeMove(Board prevBoard, Move currentMove, boolean addComment, CpFile.PgnItem pgnItem, MergeData mergeData, String commonComment) throws Config.PGNException {
+        Move newMove = currentMove.clone();
+        if (commonComment != null) {
+            newMove.comment = commonComment;
+        } else {
+            if (prevBoard.getMove() != null) {
+                addComment = true;
+            }
+        }
+        addMove(newMove, prevBoard);
+        if (DEBUG && Arrays.equals(testPackData, newMove.packData)) {
+            logger.debug(newMove.toCommentedString());
+        }
+
+        int commentLen = 0;
+        if (newMove.comment != null) {
+            commentLen = newMove.comment.length();
+        }
+        if (addComment && mergeData.annotate && commentLen < mergeData.maxAnnotationLen) {
+            if (mergeData.withStatistics) {
+                mergeStatistics.add(prevBoard, newMove, pgnItem.getTag(Config.TAG_Result));
+            } else {
+                String tag;
+                if ((newMove.moveFlags & Config.FLAGS_BLACK_MOVE) == 0) {
+                    tag = Config.TAG_White;
+                } else {
+                    tag = Config.TAG_Black;
+                }
+                String comment = "";
+                String sep;
+
+                String tag1 = pgnItem.getTag(tag);
+                if (tag1 != null) {
+                    String[] parts = tag1.split(",\\s*");
+                    comment = parts[0];
+                    if (parts.length == 1) {
+                        if (DEBUG) {
+                            logger.debug("no last-name, first-name");
+                        }
+                        parts = tag.split("\\s+");
+                        comment = parts[parts.length - 1];
+                    }
+                }
+                if (comment.isEmpty() || comment.equals(Config.TAG_UNKNOWN_VALUE)) {
+                    comment = "";
+                    sep = "";
+                } else {
+                    sep = ", ";
+                }
+                tag = pgnItem.getTag(Config.TAG_Result);
+                if (tag != null && !tag.isEmpty() && !tag.equals(Config.TAG_UNKNOWN_VALUE)) {
+                    comment += sep + tag;
+                }
+                mergeComment(newMove, comment);
+            }
+        }
+        return newMove;
+    }
+
+    private static void mergeComment(Move newMove, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        if (newMove.comment != null && !newMove.comment.isEmpty()) {
+            if (newMove.comment.contains(value)) {
+                return;
+            }
+            value += "; " + newMove.comment;
+        }
+        newMove.comment = value;
+    }
+
     // merge by position, even if plyNum is different
-    private boolean merge(Move mergeMove, final CpFile.PgnItem pgnItem, final MergeData mergeData) {
-        final Pack mergePack = new Pack(mergeMove.packData);
+    private boolean merge(Move mergeMove, final CpFile.PgnItem pgnItem, final MergeData mergeData, final MergeState initialMergeState, final String commonComment) {
+        final Pack mergePack = mergeMove.getPack();
         Board mergeBoard = PgnGraph.this.positions.get(mergePack);
         final int mergedPlyNum = mergeBoard.getPlyNum();
         final boolean[] merged = {false};
-        final MergeState initialMergeState = mergeData.onNewItem(pgnItem);
         try {
             final PgnGraph mergeCandidate = new PgnGraph();
             PgnParser.parseMoves(pgnItem.getMoveText(), new CpMoveTextHandler(mergeCandidate) {
@@ -1215,16 +1690,10 @@ public class PgnGraph {
 
                 @Override
                 public void onComment(String value) {
-                    if (mergeState != MergeState.Merge|| value == null || value.isEmpty()) {
+                    if (mergeState != MergeState.Merge) {
                         return;
                     }
-                    if (newMove.comment != null && !newMove.comment.isEmpty()) {
-                        if (newMove.comment.contains(value)) {
-                            return;
-                        }
-                        value += "; " + newMove.comment;
-                    }
-                    newMove.comment = value;
+                    mergeComment(newMove, value);
                 }
 
                 @Override
@@ -1251,7 +1720,7 @@ public class PgnGraph {
                     Pack pack;
                     switch (mergeState) {
                         case Search:
-                            pack = new Pack(currentMove.packData);
+                            pack = currentMove.getPack();
                             if (mergePack.equalPosition(pack)) {
                                 mergeState = MergeState.Merge;
                                 if (DEBUG) {
@@ -1261,10 +1730,10 @@ public class PgnGraph {
                                 merged[0] = true;
                                 Board candidateBoard = pgnGraph.getBoard(currentMove);
                                 candidateBoard.setPlyNum(mergedPlyNum);     // equalize mergeBoard.plyNum and candidateBoard.plyNum
-                                currentMove.packData = candidateBoard.pack();
-                                pgnGraph.positions.put(new Pack(currentMove.packData), candidateBoard);   // store copy
+                                currentMove.setPack(candidateBoard);
+                                pgnGraph.positions.put(currentMove.getPack(), candidateBoard);   // store copy
                             } else {
-                                int numberOfPieces = new Pack(currentMove.packData).getNumberOfPieces();
+                                int numberOfPieces = currentMove.getPack().getNumberOfPieces();
                                 if (numberOfPieces < mergePack.getNumberOfPieces()) {
                                     mergeState = MergeState.Skip;
                                     if (DEBUG) {
@@ -1278,7 +1747,7 @@ public class PgnGraph {
 
                         case Merge:
                             Move prevMove = pgnGraph.moveLine.get(pgnGraph.moveLine.size() - 2);
-                            pack = new Pack(prevMove.packData);
+                            pack = prevMove.getPack();
                             Board prevBoard = PgnGraph.this.positions.get(pack);
                             if (mergeData.maxPlys > 0 && prevBoard.getPlyNum() >= mergeData.maxPlys) {
                                 return false;   // abort
@@ -1291,62 +1760,7 @@ public class PgnGraph {
                                 skipVariantLevel = variations.size();
                                 return skipVariantLevel > 0;
                             }
-                            newMove = currentMove.clone();
-                            String commonComment = mergeData.getCommonComment();
-                            if (commonComment != null) {
-                                newMove.comment = commonComment;
-                            } else {
-                                if (prevBoard.getMove() != null) {
-                                    addComment = true;
-                                }
-                            }
-                            PgnGraph.this.addMove(newMove, prevBoard);
-                            if (DEBUG && testPack.equals(new Pack(newMove.packData))) {
-                                logger.debug(newMove.toCommentedString());
-                            }
-
-                            int commentLen = 0;
-                            if (newMove.comment != null) {
-                                commentLen = newMove.comment.length();
-                            }
-                            if (addComment && mergeData.annotate && commentLen < mergeData.maxAnnotationLen) {
-                                if (mergeData.withStatistics) {
-                                    modifyStatisticsComment(newMove, pgnItem.getTag(Config.TAG_Result));
-                                } else {
-                                    String tag;
-                                    if ((newMove.moveFlags & Config.FLAGS_BLACK_MOVE) == 0) {
-                                        tag = Config.TAG_White;
-                                    } else {
-                                        tag = Config.TAG_Black;
-                                    }
-                                    String comment = "";
-                                    String sep;
-
-                                    String tag1 = pgnItem.getTag(tag);
-                                    if (tag1 != null) {
-                                        String[] parts = tag1.split(",\\s*");
-                                        comment = parts[0];
-                                        if (parts.length == 1) {
-                                            if (DEBUG) {
-                                                logger.debug("no last-name, first-name");
-                                            }
-                                            parts = tag.split("\\s+");
-                                            comment = parts[parts.length - 1];
-                                        }
-                                    }
-                                    if (comment.isEmpty() || comment.equals(Config.TAG_UNKNOWN_VALUE)) {
-                                        comment = "";
-                                        sep = "";
-                                    } else {
-                                        sep = ", ";
-                                    }
-                                    tag = pgnItem.getTag(Config.TAG_Result);
-                                    if (tag != null && !tag.isEmpty() && !tag.equals(Config.TAG_UNKNOWN_VALUE)) {
-                                        comment += sep + tag;
-                                    }
-                                    onComment(comment);
-                                }
-                            }
+                            newMove = mergeMove(prevBoard, currentMove, addComment, pgnItem, mergeData, commonComment);
                             addComment = false;
                             break;
 
@@ -1379,6 +1793,7 @@ public class PgnGraph {
         final PgnGraph pgnGraph;
         Move newMove;
         boolean startVariation;                     // flag for pgn parsing
+        boolean rootVariation;                      // variation before the first move, that move goes first
         final LinkedList<Pair<Move, Move>> variations = new LinkedList<>(); // stack for pgn parsing
 
         CpMoveTextHandler(PgnGraph pgnGraph) {
@@ -1402,8 +1817,13 @@ public class PgnGraph {
         @Override
         public boolean onMove(String moveText) throws Config.PGNException {
             Move lastMove = null;
+            boolean firstMove = pgnGraph.moveLine.size() <= 1;
             if (startVariation) {
-                lastMove = pgnGraph.moveLine.removeLast();
+                if (firstMove) {
+                    rootVariation = true;   // an alternative to the first move, nothing to replace
+                } else {
+                    lastMove = pgnGraph.moveLine.removeLast();
+                }
             }
             Board board = pgnGraph.getBoard();
             newMove = new Move(board.getFlags() & Config.FLAGS_BLACK_MOVE);
@@ -1418,19 +1838,39 @@ public class PgnGraph {
             }
 
             if (startVariation) {
-                if ((board.getMove()) == null) {
+                if (lastMove != null && (board.getMove()) == null) {
                     // should never happen
                     String msg = String.format("invalid variation %s%s for:\n%s", getMoveNum(board), newMove.toString(), board);
                     logger.error(msg);
                 }
                 Pair<Move, Move> variationPair = new Pair<>(lastMove, newMove);
                 variations.addLast(variationPair);
+            } else if (firstMove && rootVariation && variations.isEmpty()) {
+                pgnGraph.addMove(newMove);
+                toFirst(board, newMove);
+                rootVariation = false;
+                return true;
             }
             pgnGraph.addMove(newMove);
             startVariation = false;
             return true;
         }
 
+        // make move the first of the moves from board, the others become its variations
+        private void toFirst(Board board, Move move) {
+            Move first = board.getMove();
+            if (first == move) {
+                return;
+            }
+            Move prev = first;
+            while (prev.variation != move) {
+                prev = prev.variation;
+            }
+            prev.variation = move.variation;
+            move.variation = first;
+            board.setMove(move);
+        }
+
         @Override
         public void onVariantOpen() {
             startVariation = true;
@@ -1445,10 +1885,229 @@ public class PgnGraph {
             }
             Pair<Move, Move> variationPair = variations.removeLast();
             while (variationPair.second != pgnGraph.moveLine.removeLast()) {}
-            pgnGraph.moveLine.addLast(variationPair.first);
+            if (variationPair.first != null) {
+                pgnGraph.moveLine.addLast(variationPair.first);
+            }
         }
     }
 
+    // main line only, variations are recorded for parseLazyVariations
+    private static class LazyMoveTextHandler extends CpMoveTextHandler {
+        final Map<Move, List<LazyVariation>> lazyVariations = new IdentityHashMap<>();
+        final List<int[]> variationRanges;
+        final List<LazyVariation> rootVariations = new LinkedList<>();     // before the first move
+        int variationIndex;
+
+        LazyMoveTextHandler(PgnGraph pgnGraph, List<int[]> variationRanges) {
+            super(pgnGraph);
+            this.variationRanges = variationRanges;
+        }
+
+        @Override
+        public boolean onMove(String moveText) throws Config.PGNException {
+            super.onMove(moveText);
+            if (pgnGraph.moveLine.size() == 2) {
+                // parsed with the first move, when its position is visited
+                putRootVariations(pgnGraph.moveLine.getLast());
+            }
+            return true;
+        }
+
+        @Override
+        public void onVariantOpen() {
+            int[] range = variationRanges.get(variationIndex++);
+            MoveLine moveLine = pgnGraph.moveLine;
+            if (moveLine.size() <= 1) {
+                rootVariations.add(new LazyVariation(0, range));
+                return;
+            }
+            getVariations(moveLine.getLast()).add(new LazyVariation(moveLine.size() - 1, range));
+        }
+
+        void putRootVariations(Move move) {
+            if (!rootVariations.isEmpty()) {
+                getVariations(move).addAll(rootVariations);
+                rootVariations.clear();
+            }
+        }
+
+        private List<LazyVariation> getVariations(Move mainMove) {
+            List<LazyVariation> variations = lazyVariations.get(mainMove);
+            if (variations == null) {
+                variations = new LinkedList<>();
+                lazyVariations.put(mainMove, variations);
+            }
+            return variations;
+        }
+
+        @Override
+        public void onVariantClose() {
+        }
+    }
+
+    private static abstract class MergeEntryHandler implements CpFile.EntryHandler {
+        final MergeData mergeData;
+
+        MergeEntryHandler(MergeData mergeData) {
+            this.mergeData = mergeData;
+        }
+
+        @Override
+        public boolean skip(int index) {
+            return index + 1 < mergeData.start; // start and end 1-based
+        }
+
+        @Override
+        public boolean getMovesText(int index) {
+            return index >= mergeData.start;
+        }
+    }
+
+    private static class MergeEvent {
+        static final int
+            FOUND = 0,          // mergeMove position found
+            MOVE = 1,
+            COMMENT = 2,
+            GLYPH = 3,
+            dummy_int = 0;
+
+        final int type;
+        final Pack prevPack;        // MOVE
+        final Move move;            // MOVE
+        final String value;         // COMMENT, GLYPH
+
+        MergeEvent(int type, Pack prevPack, Move move, String value) {
+            this.type = type;
+            this.prevPack = prevPack;
+            this.move = move;
+            this.value = value;
+        }
+    }
+
+    // game parsed in a worker thread, with the moves to merge after mergeMove position
+    private static class MergeCandidate {
+        final CpFile.PgnItem pgnItem;
+        final MergeState initialMergeState;
+        final String commonComment;     // of pgnItem, taken when it was submitted
+        final List<MergeEvent> events = new ArrayList<>();
+        boolean found;
+        String error;
+
+        MergeCandidate(CpFile.PgnItem pgnItem, MergeState initialMergeState, String commonComment, Pack mergePack, int mergedPlyNum, int maxPlys) {
+            this.pgnItem = pgnItem;
+            this.initialMergeState = initialMergeState;
+            this.commonComment = commonComment;
+            try {
+                PgnParser.parseMoves(pgnItem.getMoveText(), new MergeCandidateHandler(this, mergePack, mergedPlyNum, maxPlys), false);
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+        }
+
+        // true if every move starts from a position of the graph or of a previous move
+        boolean canMerge(PositionTable positions) {
+            Set<Pack> added = new HashSet<>();
+            for (MergeEvent event : events) {
+                if (event.type == MergeEvent.MOVE) {
+                    if (!added.contains(event.prevPack) && positions.get(event.prevPack) == null) {
+                        return false;
+                    }
+                    added.add(event.move.getPack());
+                }
+            }
+            return true;
+        }
+    }
+
+    // the same states as in merge(Move, PgnItem, MergeData, MergeState), the graph is not accessed
+    private static class MergeCandidateHandler extends CpMoveTextHandler {
+        final MergeCandidate candidate;
+        final Pack mergePack;
+        final int mergedPlyNum;
+        final int maxPlys;
+        MergeState mergeState;
+        int skipVariantLevel = 0;
+
+        MergeCandidateHandler(MergeCandidate candidate, Pack mergePack, int mergedPlyNum, int maxPlys) {
+            super(new PgnGraph());
+            this.candidate = candidate;
+            this.mergePack = mergePack;
+            this.mergedPlyNum = mergedPlyNum;
+            this.maxPlys = maxPlys;
+            mergeState = candidate.initialMergeState;
+        }
+
+        @Override
+        public void onComment(String value) {
+            if (mergeState == MergeState.Merge) {
+                candidate.events.add(new MergeEvent(MergeEvent.COMMENT, null, null, value));
+            }
+        }
+
+        @Override
+        public void onGlyph(String value) {
+            if (mergeState == MergeState.Merge) {
+                candidate.events.add(new MergeEvent(MergeEvent.GLYPH, null, null, value));
+            }
+        }
+
+        @Override
+        public boolean onMove(String moveText) throws Config.PGNException {
+            super.onMove(moveText);
+            Move currentMove = pgnGraph.getCurrentMove();
+            switch (mergeState) {
+                case Search:
+                    Pack pack = currentMove.getPack();
+                    if (mergePack.equalPosition(pack)) {
+                        mergeState = MergeState.Merge;
+                        candidate.found = true;
+                        candidate.events.add(new MergeEvent(MergeEvent.FOUND, null, null, null));
+                        Board candidateBoard = pgnGraph.getBoard(currentMove);
+                        candidateBoard.setPlyNum(mergedPlyNum);     // equalize mergeBoard.plyNum and candidateBoard.plyNum
+                        currentMove.setPack(candidateBoard);
+                        pgnGraph.positions.put(currentMove.getPack(), candidateBoard);   // store copy
+                    } else if (pack.getNumberOfPieces() < mergePack.getNumberOfPieces()) {
+                        mergeState = MergeState.Skip;
+                        skipVariantLevel = variations.size();
+                        return skipVariantLevel > 0;
+                    }
+                    break;
+
+                case Merge:
+                    Move prevMove = pgnGraph.moveLine.get(pgnGraph.moveLine.size() - 2);
+                    // packs are equal, so is plyNum of the graph position
+                    if (maxPlys > 0 && pgnGraph.getBoard(prevMove).getPlyNum() >= maxPlys) {
+                        return false;   // abort
+                    }
+                    Move move = currentMove.clone();
+                    move.packData = currentMove.packData;
+                    move.positionKey = currentMove.positionKey;
+                    candidate.events.add(new MergeEvent(MergeEvent.MOVE, prevMove.getPack(), move, null));
+                    break;
+
+                case Skip:
+                    break;
+            }
+            return true;
+        }
+
+        @Override
+        public void onVariantClose() {
+            super.onVariantClose();
+            if (mergeState == MergeState.Skip) {
+                if (skipVariantLevel > variations.size()) {
+                    mergeState = MergeState.Search;
+                    skipVariantLevel = 0;
+                }
+            }
+        }
+    }
+
+    public interface HeadObserver {
+        // called in the unserializing thread
+        void onHeadLoaded(PgnGraph head);
+    }
+
     public static class MergeData {
         final int maxAnnotationLen = 1024;      // for future use, constant so far
         final boolean withStatistics = true;    // for future use, constant so far
@@ -1456,11 +2115,13 @@ public class PgnGraph {
         public int start, end, merged;
         public CpFile.PgnFile pgnFile;
         public int maxPlys;
+        public int workerThreads;      // parsing games, -1 - by the number of processors, 0 - parse and merge in one thread
 
         public MergeData() {
             start = -1;
             end = -1;
             maxPlys = -1;
+            workerThreads = -1;
         }
 
         public MergeData(CpFile.PgnFile pgnFile) {
@@ -1499,6 +2160,7 @@ public class PgnGraph {
         }
 
         public MergeData(BitStream.Reader reader) throws Config.PGNException {
+            this();
             try {
                 start = reader.read(16);
                 if (start == 0x0ffff) {
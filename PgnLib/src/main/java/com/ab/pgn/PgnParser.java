@@ -20,6 +20,7 @@ package com.ab.pgn;
 
 import com.ab.pgn.io.CpFile;
 
+import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
 
@@ -121,6 +122,11 @@ class PgnParser {
                     moveTextHandler.onVariantClose();
                 }
             }
+            // glyphs at the end, e.g. after a lazy variation
+            Integer newGlyph = Config.old_glyph_translation.get(oldGlyph);
+            if (newGlyph != null) {
+                moveTextHandler.onGlyph("$" + newGlyph);
+            }
         } catch (OutOfMemoryError e) {
             throw e;
         } catch (Throwable t) {
@@ -128,6 +134,75 @@ class PgnParser {
         }
     }
 
+    /**
+     * remove text of the top-level variations, empty parentheses are left in their places
+     * comments and glyphs right after a variation are removed with it, as parseMoves gives them to its last move
+     * @param variations receives [start, end) of the removed text inside parentheses
+     *                   and the end of the comments and glyphs after it, in the order of appearance
+     * @return move text of the main line
+     */
+    static String cutVariations(String moveText, List<int[]> variations) {
+        StringBuilder sb = new StringBuilder(moveText.length());
+        int depth = 0;
+        int start = 0;
+        boolean inComment = false;
+        for (int i = 0; i < moveText.length(); ++i) {
+            char ch = moveText.charAt(i);
+            if (inComment) {
+                // as in parseMoves, the first close brace ends the comment
+                inComment = ch != Config.COMMENT_CLOSE.charAt(0);
+            } else if (ch == Config.COMMENT_OPEN.charAt(0)) {
+                inComment = true;
+            } else if (ch == Config.VARIANT_OPEN.charAt(0)) {
+                if (depth++ == 0) {
+                    sb.append(moveText, start, i + 1);
+                    start = i + 1;
+                }
+            } else if (ch == Config.VARIANT_CLOSE.charAt(0) && depth > 0) {
+                if (--depth == 0) {
+                    int next = skipAnnotations(moveText, i + 1);
+                    variations.add(new int[] {start, i, next});
+                    sb.append(Config.VARIANT_CLOSE);
+                    start = next;
+                    i = next - 1;
+                }
+            }
+        }
+        if (depth > 0) {
+            variations.add(new int[] {start, moveText.length(), moveText.length()});
+            sb.append(Config.VARIANT_CLOSE);
+        } else {
+            sb.append(moveText, start, moveText.length());
+        }
+        return new String(sb);
+    }
+
+    // end of the comments and glyphs from offset
+    private static int skipAnnotations(String moveText, int offset) {
+        int end = offset;
+        int i = offset;
+        while (i < moveText.length()) {
+            char ch = moveText.charAt(i);
+            if (ch == Config.COMMENT_OPEN.charAt(0)) {
+                int close = moveText.indexOf(Config.COMMENT_CLOSE.charAt(0), i);
+                if (close < 0) {
+                    return moveText.length();
+                }
+                end = i = close + 1;
+            } else if (ch == Config.PGN_GLYPH.charAt(0) || Config.PGN_OLD_GLYPHS.indexOf(ch) >= 0) {
+                do {
+                    ++i;
+                } while (i < moveText.length() && Character.isDigit(moveText.charAt(i)));
+                end = i;
+            } else if (Character.isWhitespace(ch)) {
+                ++i;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
     public interface MoveTextHandler {
         void onComment(String value);
         void onGlyph(String value);
@@ -0,0 +1,348 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * PgnGraph positions, open addressing by Board.getPositionKey() with packed positions kept inline
+ * entries are stored by id in parallel arrays: key, pack data, board counts, vertex flags and moves,
+ * Boards are unpacked on demand and act as views, setMove, setPlyNum, setVisited etc. write through to the table
+ * ids of removed entries are not reused until clear(), so that remaining views stay consistent,
+ * their moves are released and they are skipped in setVisited, setSerialized and compact
+ * after compact() the moves are kept in MoveStore and the table is read-only except for counts and vertex flags
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+class PositionTable {
+    private static final int
+        INIT_CAPACITY = 16,         // power of 2
+        BOARD_CACHE_SIZE = 256,     // power of 2
+        VISITED = 1,                // Board vertex flags
+        SERIALIZED = 1 << (Board.VERTEX_SERIALIZATION_VISITED_OFFSET - Board.VERTEX_VISITED_OFFSET),
+        dummy_int = 0;
+
+    private int[] slots;            // entry id + 1, 0 - empty, load factor <= 1/2
+    private long[] keys;
+    private int[] packs;            // Board.PACK_SIZE ints per entry
+    private int[] boardCounts;
+    private byte[] vertexFlags;
+    private Move[] moves;           // null when compact
+    private int[] firstMoves;       // MoveStore nodes when compact
+    private MoveStore moveStore;
+    private final BitSet removedIds = new BitSet();
+    private final Board[] boardCache = new Board[BOARD_CACHE_SIZE];     // recently materialized boards by id
+    private int size;
+    private int totalIds;           // including removed entries
+
+    PositionTable() {
+        clear();
+    }
+
+    void clear() {
+        slots = new int[2 * INIT_CAPACITY];
+        keys = new long[INIT_CAPACITY];
+        packs = new int[INIT_CAPACITY * Board.PACK_SIZE];
+        boardCounts = new int[INIT_CAPACITY];
+        vertexFlags = new byte[INIT_CAPACITY];
+        moves = new Move[INIT_CAPACITY];
+        firstMoves = null;
+        moveStore = null;
+        Arrays.fill(boardCache, null);
+        removedIds.clear();
+        size = 0;
+        totalIds = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Board get(Pack pack) {
+        return get(pack.getPackData(), pack.getKey());
+    }
+
+    // board after the move, without creating Pack
+    Board get(Move move) {
+        if (move.packData == null) {
+            return null;
+        }
+        return get(move.packData, move.positionKey);
+    }
+
+    Board get(int[] packData, long key) {
+        int id = getId(packData, key);
+        if (id < 0) {
+            return null;
+        }
+        return getBoard(id);
+    }
+
+    // -1 if not found
+    int getId(int[] packData, long key) {
+        return slots[find(packData, key)] - 1;
+    }
+
+    int[] getPackData(int id) {
+        int[] packData = new int[Board.PACK_SIZE];
+        System.arraycopy(packs, id * Board.PACK_SIZE, packData, 0, Board.PACK_SIZE);
+        return packData;
+    }
+
+    long getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * move Move objects to MoveStore, Boards and Moves returned after that are views,
+     * changes of moves are not stored, setMove, put and remove throw IllegalStateException
+     */
+    void compact() {
+        if (moveStore != null) {
+            return;
+        }
+        MoveStore moveStore = new MoveStore(this, size + size / 2);
+        int[] firstMoves = new int[totalIds];
+        Arrays.fill(firstMoves, MoveStore.NONE);
+        for (int id = removedIds.nextClearBit(0); id < totalIds; id = removedIds.nextClearBit(id + 1)) {
+            firstMoves[id] = moveStore.add(moves[id]);
+        }
+        moveStore.trim();
+        this.moveStore = moveStore;
+        this.firstMoves = firstMoves;
+        moves = null;
+        Arrays.fill(boardCache, null);
+    }
+
+    boolean isCompact() {
+        return moveStore != null;
+    }
+
+    MoveStore getMoveStore() {
+        return moveStore;
+    }
+
+    /**
+     * add a new position or replace the data of an existing one, board becomes a view of the entry
+     * @return previous board for this position, detached from the table, or null
+     */
+    Board put(Pack pack, Board board) {
+        checkWritable();
+        int[] packData = pack.getPackData();
+        long key = pack.getKey();
+        // read before the board is attached to another entry
+        int counts = board.getBoardCounts();
+        int flags = board.getVertexFlags();
+        Move move = board.getMove();
+
+        Board oldBoard = null;
+        int slot = find(packData, key);
+        int id = slots[slot] - 1;
+        if (id >= 0) {
+            oldBoard = materialize(id);
+            oldBoard.attach(null, 0);
+        } else {
+            if (2 * (size + 1) > slots.length) {
+                resize();
+                slot = find(packData, key);
+            }
+            id = newId();
+            slots[slot] = id + 1;
+            keys[id] = key;
+            System.arraycopy(packData, 0, packs, id * Board.PACK_SIZE, Board.PACK_SIZE);
+            ++size;
+        }
+        boardCounts[id] = counts;
+        vertexFlags[id] = (byte) flags;
+        moves[id] = move;
+        board.attach(this, id);
+        boardCache[id & (BOARD_CACHE_SIZE - 1)] = board;
+        return oldBoard;
+    }
+
+    /**
+     * @return removed board, detached from the table with its move, counts and vertex flags
+     */
+    Board remove(Pack pack) {
+        int slot = find(pack.getPackData(), pack.getKey());
+        int id = slots[slot] - 1;
+        if (id < 0) {
+            return null;
+        }
+        checkWritable();
+        Board board = getBoard(id);
+        board.attach(null, 0);
+        boardCache[id & (BOARD_CACHE_SIZE - 1)] = null;
+        moves[id] = null;
+        removedIds.set(id);
+        // backward shift deletion, keep probe sequences without holes
+        int mask = slots.length - 1;
+        int hole = slot;
+        for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int home = (int) hash(keys[slots[i] - 1]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = 0;
+        --size;
+        return board;
+    }
+
+    void setVisited(boolean visited) {
+        setVertexFlag(visited, VISITED);
+    }
+
+    void setSerialized(boolean serialized) {
+        setVertexFlag(serialized, SERIALIZED);
+    }
+
+    private void setVertexFlag(boolean set, int flag) {
+        for (int id = removedIds.nextClearBit(0); id < totalIds; id = removedIds.nextClearBit(id + 1)) {
+            if (set) {
+                vertexFlags[id] |= flag;
+            } else {
+                vertexFlags[id] &= ~flag;
+            }
+        }
+    }
+
+    List<Board> getBoards() {
+        List<Board> boards = new ArrayList<>(size);
+        for (int slot : slots) {
+            if (slot != 0) {
+                boards.add(getBoard(slot - 1));
+            }
+        }
+        return boards;
+    }
+
+    Move getMove(int id) {
+        if (moveStore != null) {
+            return moveStore.getMove(firstMoves[id]);
+        }
+        return moves[id];
+    }
+
+    void setMove(int id, Move move) {
+        checkWritable();
+        moves[id] = move;
+    }
+
+    private void checkWritable() {
+        if (moveStore != null) {
+            throw new IllegalStateException("compact positions are read-only");
+        }
+    }
+
+    int getBoardCounts(int id) {
+        return boardCounts[id];
+    }
+
+    void setBoardCounts(int id, int counts) {
+        boardCounts[id] = counts;
+    }
+
+    int getVertexFlags(int id) {
+        return vertexFlags[id] & 0xff;
+    }
+
+    void setVertexFlags(int id, int flags) {
+        vertexFlags[id] = (byte) flags;
+    }
+
+    private Board getBoard(int id) {
+        int cacheIndex = id & (BOARD_CACHE_SIZE - 1);
+        Board board = boardCache[cacheIndex];
+        if (board == null || !board.isViewOf(this, id)) {
+            board = materialize(id);
+            boardCache[cacheIndex] = board;
+        }
+        return board;
+    }
+
+    private Board materialize(int id) {
+        Board board;
+        try {
+            board = Board.unpack(getPackData(id));
+        } catch (Config.PGNException e) {
+            throw new IllegalStateException(e);    // packed by Board.pack(), should never happen
+        }
+        board.attach(this, id);
+        return board;
+    }
+
+    // slot with the position or the empty slot to insert it
+    private int find(int[] packData, long key) {
+        int mask = slots.length - 1;
+        int slot = (int) hash(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int id = entry - 1;
+            if (keys[id] == key && equalPack(id, packData)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean equalPack(int id, int[] packData) {
+        int offset = id * Board.PACK_SIZE;
+        for (int i = 0; i < Board.PACK_SIZE; ++i) {
+            if (packs[offset + i] != packData[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int newId() {
+        if (totalIds == keys.length) {
+            int capacity = 2 * keys.length;
+            keys = Arrays.copyOf(keys, capacity);
+            packs = Arrays.copyOf(packs, capacity * Board.PACK_SIZE);
+            boardCounts = Arrays.copyOf(boardCounts, capacity);
+            vertexFlags = Arrays.copyOf(vertexFlags, capacity);
+            moves = Arrays.copyOf(moves, capacity);
+        }
+        return totalIds++;
+    }
+
+    // ids do not change, only slots are rebuilt
+    private void resize() {
+        int[] oldSlots = slots;
+        slots = new int[2 * oldSlots.length];
+        int mask = slots.length - 1;
+        for (int entry : oldSlots) {
+            if (entry != 0) {
+                int slot = (int) hash(keys[entry - 1]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = entry;
+            }
+        }
+    }
+
+    // Zobrist keys are random already, mix the high bits in for small tables
+    private static long hash(long key) {
+        return key ^ (key >>> 32);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * verify a collection of mate puzzles: the first move of each item is checked with MateSolver
+ * puzzles are solved in parallel, broken puzzles and puzzles with alternative solutions are written
+ * to the output pgn with TAG_PROBLEM
+ * usage: java com.ab.pgn.PuzzleVerifier <pgn file> <output pgn file> [max moves] [threads]
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import com.ab.pgn.io.CpFile;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PuzzleVerifier {
+    public static final String TAG_PROBLEM = "MateProblem";
+    public static final int DEFAULT_MAX_MOVES = 4;
+
+    private final int maxMoves;
+    private final int threads;
+    private final ThreadLocal<MateSolver> mateSolvers = new ThreadLocal<MateSolver>() {
+        @Override
+        protected MateSolver initialValue() {
+            return new MateSolver();
+        }
+    };
+
+    public PuzzleVerifier(int maxMoves, int threads) {
+        this.maxMoves = maxMoves;
+        this.threads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * @param is pgn with mate puzzles, the first move of each item is the solution
+     * @param os if not null, receives puzzles with problems
+     * @return results in file order
+     */
+    public List<Result> verify(InputStream is, OutputStream os) throws Config.PGNException {
+        final List<Future<Result>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // items are parsed sequentially, only mate search runs in parallel
+            CpFile.parsePgnFile(null, is, new CpFile.EntryHandler() {
+                @Override
+                public boolean getMovesText(int index) {
+                    return true;
+                }
+
+                @Override
+                public boolean handle(int index, CpFile.PgnItem item) {
+                    final Result result = new Result(index, item);
+                    try {
+                        PgnGraph pgnGraph = new PgnGraph(item);
+                        if (pgnGraph.getParsingErrorNum() != 0) {
+                            result.problem = String.format(Locale.US, "invalid position, error %d", pgnGraph.getParsingErrorNum());
+                        } else if (pgnGraph.getParsingError() != null) {
+                            result.problem = pgnGraph.getParsingError();
+                        } else if (pgnGraph.moveLine.size() < 2) {
+                            result.problem = "no solution";
+                        } else {
+                            final Board board = pgnGraph.getInitBoard().clone();
+                            final Move solution = pgnGraph.moveLine.get(1);
+                            futures.add(executor.submit(() -> solve(result, board, solution)));
+                            return true;
+                        }
+                    } catch (Config.PGNException e) {
+                        result.problem = e.getMessage();
+                    }
+                    futures.add(executor.submit(() -> result));
+                    return true;
+                }
+            }, true);
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            if (os != null) {
+                write(results, os);
+            }
+            return results;
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            throw new Config.PGNException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result solve(Result result, Board board, Move solution) {
+        IntMoveList solutions = new IntMoveList();
+        result.mateIn = mateSolvers.get().findMate(board, maxMoves, solutions);
+        if (result.mateIn == 0) {
+            result.problem = String.format(Locale.US, "no mate in %d", maxMoves);
+            return result;
+        }
+        boolean found = false;
+        StringBuilder sb = new StringBuilder();
+        String sep = "";
+        for (int i = 0; i < solutions.size(); ++i) {
+            int move = solutions.get(i);
+            if (IntMoveList.getFrom(move) == solution.getFromIndex() && IntMoveList.getTo(move) == solution.getToIndex()
+                    && (IntMoveList.getPromoted(move) & ~Config.BLACK) == (solution.getPiecePromoted() & ~Config.BLACK)) {
+                found = true;
+            }
+            sb.append(sep).append(IntMoveList.toString(move));
+            sep = " ";
+        }
+        if (!found) {
+            result.problem = String.format(Locale.US, "%s does not mate in %d, solutions %s", solution.toString(), result.mateIn, sb);
+        } else if (solutions.size() > 1) {
+            result.problem = String.format(Locale.US, "alternative solutions %s", sb);
+        }
+        return result;
+    }
+
+    private void write(List<Result> results, OutputStream os) throws IOException {
+        Writer writer = new OutputStreamWriter(os);
+        for (Result result : results) {
+            if (result.problem != null) {
+                result.item.setTag(TAG_PROBLEM, result.problem);
+                writer.write(result.item.toPgnString());
+                writer.write("\n");
+            }
+        }
+        writer.flush();
+    }
+
+    public static void main(String[] args) throws Config.PGNException, IOException {
+        if (args.length < 2) {
+            System.out.println("usage: PuzzleVerifier <pgn file> <output pgn file> [max moves] [threads]");
+            return;
+        }
+        int maxMoves = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_MOVES;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        PuzzleVerifier puzzleVerifier = new PuzzleVerifier(maxMoves, threads);
+        long start = System.currentTimeMillis();
+        List<Result> results;
+        try (InputStream is = new FileInputStream(args[0]);
+             OutputStream os = new FileOutputStream(args[1])) {
+            results = puzzleVerifier.verify(is, os);
+        }
+        int[] mateCounts = new int[maxMoves + 1];
+        int problems = 0;
+        for (Result result : results) {
+            ++mateCounts[result.mateIn];
+            if (result.problem != null) {
+                ++problems;
+            }
+        }
+        for (int n = 1; n <= maxMoves; ++n) {
+            System.out.println(String.format("mate in %s: %s", n, mateCounts[n]));
+        }
+        System.out.println(String.format("no mate: %s", mateCounts[0]));
+        long msec = System.currentTimeMillis() - start;
+        System.out.println(String.format("\npuzzles %s, problems %s, %s msec", results.size(), problems, msec));
+    }
+
+    public static class Result {
+        public final int index;
+        public final CpFile.PgnItem item;
+        int mateIn;             // 0 if no mate found
+        String problem;         // null if the puzzle is correct
+
+        Result(int index, CpFile.PgnItem item) {
+            this.index = index;
+            this.item = item;
+        }
+
+        public int getMateIn() {
+            return mateIn;
+        }
+
+        public String getProblem() {
+            return problem;
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * alpha-beta search over Board for engine-less environments
+ * iterative deepening, principal variation search, transposition table,
+ * move ordering by hash move, MVV-LVA, killers and history, quiescence on captures,
+ * tapered material + piece-square evaluation
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.util.Arrays;
+
+public class Search {
+    public static final int
+        MATE = 32000,
+        MATE_BOUND = MATE - 1000,       // |score| above is mate in (MATE - |score|) plies
+        INFINITY = MATE + 1,
+        MAX_PLY = 64,
+        DEFAULT_HASH_MB = 16,
+        dummy_int = 0;
+
+    private static final int
+        // transposition table entry:
+        TT_MOVE_LENGTH = 27,                                    // IntMoveList packed move
+        TT_MOVE_MASK = (1 << TT_MOVE_LENGTH) - 1,
+        TT_SCORE_OFFSET = TT_MOVE_LENGTH,                       // 27
+        TT_SCORE_LENGTH = 16,
+        TT_SCORE_BIAS = 1 << (TT_SCORE_LENGTH - 1),
+        TT_DEPTH_OFFSET = TT_SCORE_OFFSET + TT_SCORE_LENGTH,    // 43
+        TT_DEPTH_LENGTH = 8,
+        TT_BOUND_OFFSET = TT_DEPTH_OFFSET + TT_DEPTH_LENGTH,    // 51
+        TT_EXACT = 1,
+        TT_LOWER = 2,
+        TT_UPPER = 3,
+
+        CHECK_LIMITS_NODES = 0x7ff,
+        HASH_MOVE_ORDER = 1 << 30,
+        CAPTURE_ORDER = 1 << 28,
+        KILLER_ORDER = 1 << 26,
+        MAX_PHASE = 24,
+        _dummy_int = 0;
+
+    // indexed by piece >> 1
+    private static final int[] PIECE_VALUES = {0, 20000, 900, 330, 320, 500, 100};
+    private static final int[] PHASE_WEIGHTS = {0, 0, 4, 1, 1, 2, 0};
+
+    // piece-square tables, a8 first as a diagram for white, indexed by piece >> 1
+    private static final int[][] PST = new int[Config.PAWN / 2 + 1][];
+    private static final int[] KING_ENDGAME_PST;
+
+    static {
+        PST[Config.PAWN >> 1] = new int[] {
+             0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+             5,  5, 10, 25, 25, 10,  5,  5,
+             0,  0,  0, 20, 20,  0,  0,  0,
+             5, -5,-10,  0,  0,-10, -5,  5,
+             5, 10, 10,-20,-20, 10, 10,  5,
+             0,  0,  0,  0,  0,  0,  0,  0,
+        };
+        PST[Config.KNIGHT >> 1] = new int[] {
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,  0,  0,  0,  0,-20,-40,
+            -30,  0, 10, 15, 15, 10,  0,-30,
+            -30,  5, 15, 20, 20, 15,  5,-30,
+            -30,  0, 15, 20, 20, 15,  0,-30,
+            -30,  5, 10, 15, 15, 10,  5,-30,
+            -40,-20,  0,  5,  5,  0,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50,
+        };
+        PST[Config.BISHOP >> 1] = new int[] {
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  5,  5, 10, 10,  5,  5,-10,
+            -10,  0, 10, 10, 10, 10,  0,-10,
+            -10, 10, 10, 10, 10, 10, 10,-10,
+            -10,  5,  0,  0,  0,  0,  5,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20,
+        };
+        PST[Config.ROOK >> 1] = new int[] {
+             0,  0,  0,  0,  0,  0,  0,  0,
+             5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+             0,  0,  0,  5,  5,  0,  0,  0,
+        };
+        PST[Config.QUEEN >> 1] = new int[] {
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+             -5,  0,  5,  5,  5,  5,  0, -5,
+              0,  0,  5,  5,  5,  5,  0, -5,
+            -10,  5,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5,  0,  0,  0,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20,
+        };
+        PST[Config.KING >> 1] = new int[] {
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -20,-30,-30,-40,-40,-30,-30,-20,
+            -10,-20,-20,-20,-20,-20,-20,-10,
+             20, 20,  0,  0,  0,  0, 20, 20,
+             20, 30, 10,  0,  0, 10, 30, 20,
+        };
+        KING_ENDGAME_PST = new int[] {
+            -50,-40,-30,-20,-20,-30,-40,-50,
+            -30,-20,-10,  0,  0,-10,-20,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-30,  0,  0,  0,  0,-30,-30,
+            -50,-30,-30,-30,-30,-30,-30,-50,
+        };
+    }
+
+    private Board board;
+    private long[] history = new long[2 * MAX_PLY];      // position keys from the start position, history[historySize - 1] is the current
+    private int historySize;
+
+    private long[] ttKeys;
+    private long[] ttData;
+    private int ttMask;
+
+    private final IntMoveList[] moveLists = new IntMoveList[MAX_PLY];
+    private final int[][] moveOrder = new int[MAX_PLY][IntMoveList.MAX_MOVES];
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] historyScores = new int[0x10][BitBoard.SQUARES];     // by piece and target square
+
+    private volatile boolean stopRequested;
+    private boolean stopped;
+    private long nodes, maxNodes, deadline;
+    private int selDepth;
+
+    public Search() {
+        this(DEFAULT_HASH_MB);
+    }
+
+    public Search(int hashMb) {
+        setHashSize(hashMb);
+        for (int i = 0; i < MAX_PLY; ++i) {
+            moveLists[i] = new IntMoveList();
+        }
+        board = new Board();
+        history[historySize++] = board.getPositionKey();
+    }
+
+    // 2 longs per entry
+    public void setHashSize(int hashMb) {
+        long entries = Math.max(1, (long) hashMb) * 1024 * 1024 / 16;
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 26));
+        ttKeys = new long[size];
+        ttData = new long[size];
+        ttMask = size - 1;
+    }
+
+    // new game
+    public void clear() {
+        Arrays.fill(ttKeys, 0);
+        Arrays.fill(ttData, 0);
+        for (int[] scores : historyScores) {
+            Arrays.fill(scores, 0);
+        }
+    }
+
+    public void setPosition(Board board) {
+        this.board = board.clone();
+        historySize = 0;
+        addHistory(this.board.getPositionKey());
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * make a move in the current position
+     * @param uciMove long algebraic notation, e.g. e2e4, e7e8q
+     * @return false if the move is not legal
+     */
+    public boolean makeMove(String uciMove) {
+        IntMoveList moves = moveLists[0];
+        board.generateLegalMoves(moves);
+        for (int i = 0; i < moves.size(); ++i) {
+            int move = moves.get(i);
+            if (IntMoveList.toString(move).equals(uciMove)) {
+                board.makeMove(board.toMove(move));
+                addHistory(board.getPositionKey());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // can be called from another thread
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Iterative deepening from the current position
+     * @param maxDepth depth limit, <= 0 for MAX_PLY
+     * @param maxNodes node limit, <= 0 for none
+     * @param maxMsec time limit, <= 0 for none
+     * @param infoHandler called after each completed iteration, can be null
+     * @return best move, 0 if there are no legal moves
+     */
+    public int go(int maxDepth, long maxNodes, long maxMsec, InfoHandler infoHandler) {
+        long start = System.currentTimeMillis();
+        this.maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        this.deadline = maxMsec > 0 ? start + maxMsec : Long.MAX_VALUE;
+        if (maxDepth <= 0 || maxDepth >= MAX_PLY) {
+            maxDepth = MAX_PLY - 1;
+        }
+        stopRequested = false;
+        stopped = false;
+        nodes = 0;
+        for (int[] killer : killers) {
+            killer[0] = killer[1] = 0;
+        }
+        for (int[] scores : historyScores) {
+            for (int i = 0; i < scores.length; ++i) {
+                scores[i] >>= 2;
+            }
+        }
+
+        int bestMove = 0;
+        for (int depth = 1; depth <= maxDepth; ++depth) {
+            selDepth = 0;
+            int score = negamax(depth, 0, -INFINITY, INFINITY);
+            if (stopped) {
+                break;
+            }
+            if (pvLength[0] == 0) {
+                break;      // no legal moves
+            }
+            bestMove = pv[0][0];
+            if (infoHandler != null) {
+                infoHandler.onInfo(depth, selDepth, score, nodes, System.currentTimeMillis() - start, getPv());
+            }
+            if (Math.abs(score) > MATE_BOUND && MATE - Math.abs(score) <= depth) {
+                break;      // the shortest mate is found
+            }
+        }
+        if (bestMove == 0) {
+            // stopped during the first iteration
+            IntMoveList moves = moveLists[0];
+            if (board.generateLegalMoves(moves) > 0) {
+                bestMove = moves.get(0);
+            }
+        }
+        return bestMove;
+    }
+
+    // the side to move is checked
+    public boolean isCheck() {
+        return board.isKingAttacked(board.getFlags() & Config.BLACK);
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return number of moves to mate, negative when mated, 0 if the score is not a mate score
+     */
+    public static int getMateMoves(int score) {
+        if (score > MATE_BOUND) {
+            return (MATE - score + 1) / 2;
+        }
+        if (score < -MATE_BOUND) {
+            return -(MATE + score) / 2;
+        }
+        return 0;
+    }
+
+    /**
+     * @return score relative to the side to move
+     */
+    public int evaluate() {
+        int mg = 0, eg = 0, phase = 0;
+        for (int piece = Config.KING; piece <= Config.BLACK_PAWN; ++piece) {
+            long bits = board.getPieceBits(piece);
+            int colorlessIndex = piece >> 1;
+            int value = PIECE_VALUES[colorlessIndex];
+            int[] pst = PST[colorlessIndex];
+            // table index is a8-first for white, mirrored for black
+            int flip = (piece & Config.BLACK) == 0 ? 0x38 : 0;
+            int sign = (piece & Config.BLACK) == 0 ? 1 : -1;
+            while (bits != 0) {
+                int square = Long.numberOfTrailingZeros(bits) ^ flip;
+                bits &= bits - 1;
+                phase += PHASE_WEIGHTS[colorlessIndex];
+                mg += sign * (value + pst[square]);
+                if (colorlessIndex == Config.KING >> 1) {
+                    eg += sign * (value + KING_ENDGAME_PST[square]);
+                } else {
+                    eg += sign * (value + pst[square]);
+                }
+            }
+        }
+        if (phase > MAX_PHASE) {
+            phase = MAX_PHASE;
+        }
+        int score = (mg * phase + eg * (MAX_PHASE - phase)) / MAX_PHASE;
+        if ((board.getFlags() & Config.BLACK) != 0) {
+            score = -score;
+        }
+        return score;
+    }
+
+    private String getPv() {
+        StringBuilder sb = new StringBuilder();
+        String sep = "";
+        for (int i = 0; i < pvLength[0]; ++i) {
+            sb.append(sep).append(IntMoveList.toString(pv[0][i]));
+            sep = " ";
+        }
+        return new String(sb);
+    }
+
+    private void addHistory(long key) {
+        if (historySize + MAX_PLY >= history.length) {
+            history = Arrays.copyOf(history, 2 * (historySize + MAX_PLY));
+        }
+        history[historySize++] = key;
+    }
+
+    private boolean isDraw(int ply) {
+        int reversiblePlyNum = board.getReversiblePlyNum();
+        if (reversiblePlyNum >= DrawDetector.FIFTY_MOVES_PLIES || board.isInsufficientMaterial()) {
+            return true;
+        }
+        // the same position with the same side to move, back to the last irreversible move
+        int current = historySize + ply - 1;
+        int last = Math.max(0, current - reversiblePlyNum);
+        long key = history[current];
+        for (int i = current - 2; i >= last; i -= 2) {
+            if (history[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkLimits() {
+        if (stopRequested || nodes >= maxNodes || System.currentTimeMillis() >= deadline) {
+            stopped = true;
+        }
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        pvLength[ply] = 0;
+        if ((++nodes & CHECK_LIMITS_NODES) == 0) {
+            checkLimits();
+        }
+        if (stopped) {
+            return 0;
+        }
+        if (ply > 0) {
+            if (isDraw(ply)) {
+                return 0;
+            }
+            // mate distance pruning
+            alpha = Math.max(alpha, -MATE + ply);
+            beta = Math.min(beta, MATE - ply - 1);
+            if (alpha >= beta) {
+                return alpha;
+            }
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluate();
+        }
+        int color = board.getFlags() & Config.BLACK;
+        boolean inCheck = board.isKingAttacked(color);
+        if (inCheck) {
+            ++depth;
+        }
+        if (depth <= 0) {
+            return quiesce(ply, alpha, beta);
+        }
+
+        long key = history[historySize + ply - 1];
+        int hashMove = 0;
+        int index = (int) key & ttMask;
+        if (ttKeys[index] == key) {
+            long data = ttData[index];
+            hashMove = (int) (data & TT_MOVE_MASK);
+            int ttDepth = (int) (data >>> TT_DEPTH_OFFSET) & ((1 << TT_DEPTH_LENGTH) - 1);
+            if (ply > 0 && ttDepth >= depth) {
+                int score = fromTT((int) (data >>> TT_SCORE_OFFSET) & ((1 << TT_SCORE_LENGTH) - 1), ply);
+                int bound = (int) (data >>> TT_BOUND_OFFSET);
+                if (bound == TT_EXACT
+                        || bound == TT_LOWER && score >= beta
+                        || bound == TT_UPPER && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+
+        IntMoveList moves = moveLists[ply];
+        int n = board.generateLegalMoves(moves);
+        if (n == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(moves, ply, hashMove);
+
+        int origAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = 0;
+        for (int i = 0; i < n; ++i) {
+            int move = pickMove(moves, ply, i);
+            Move m = board.toMove(move);
+            long undo = board.makeMove(m);
+            history[historySize + ply] = board.getPositionKey();
+            int score;
+            if (i == 0) {
+                score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            } else {
+                score = -negamax(depth - 1, ply + 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) {
+                    score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+                }
+            }
+            board.unmakeMove(m, undo);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        if (!IntMoveList.isCapture(move)) {
+                            if (killers[ply][0] != move) {
+                                killers[ply][1] = killers[ply][0];
+                                killers[ply][0] = move;
+                            }
+                            historyScores[IntMoveList.getPiece(move)][IntMoveList.getTo(move)] += depth * depth;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = best >= beta ? TT_LOWER : best > origAlpha ? TT_EXACT : TT_UPPER;
+        ttKeys[index] = key;
+        ttData[index] = (bestMove & TT_MOVE_MASK)
+                | (long) toTT(best, ply) << TT_SCORE_OFFSET
+                | (long) Math.min(depth, (1 << TT_DEPTH_LENGTH) - 1) << TT_DEPTH_OFFSET
+                | (long) bound << TT_BOUND_OFFSET;
+        return best;
+    }
+
+    private int quiesce(int ply, int alpha, int beta) {
+        pvLength[ply] = 0;
+        if ((++nodes & CHECK_LIMITS_NODES) == 0) {
+            checkLimits();
+        }
+        if (stopped) {
+            return 0;
+        }
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluate();
+        }
+        boolean inCheck = board.isKingAttacked(board.getFlags() & Config.BLACK);
+        int best = -INFINITY;
+        if (!inCheck) {
+            best = evaluate();
+            if (best >= beta) {
+                return best;
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+        }
+        IntMoveList moves = moveLists[ply];
+        int n = board.generateLegalCaptures(moves);
+        if (n == 0 && inCheck) {
+            return -MATE + ply;
+        }
+        scoreMoves(moves, ply, 0);
+        for (int i = 0; i < n; ++i) {
+            int move = pickMove(moves, ply, i);
+            Move m = board.toMove(move);
+            long undo = board.makeMove(m);
+            history[historySize + ply] = board.getPositionKey();
+            int score = -quiesce(ply + 1, -beta, -alpha);
+            board.unmakeMove(m, undo);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private void updatePv(int ply, int move) {
+        pv[ply][0] = move;
+        int length = ply + 1 < MAX_PLY ? pvLength[ply + 1] : 0;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, length);
+        pvLength[ply] = length + 1;
+    }
+
+    private void scoreMoves(IntMoveList moves, int ply, int hashMove) {
+        int[] order = moveOrder[ply];
+        for (int i = 0; i < moves.size(); ++i) {
+            int move = moves.get(i);
+            int score;
+            if (move == hashMove) {
+                score = HASH_MOVE_ORDER;
+            } else if (IntMoveList.isCapture(move) || IntMoveList.getPromoted(move) != Config.EMPTY) {
+                // most valuable victim, least valuable attacker
+                score = CAPTURE_ORDER + PIECE_VALUES[IntMoveList.getCaptured(move) >> 1] * 16
+                        + PIECE_VALUES[IntMoveList.getPromoted(move) >> 1]
+                        - PIECE_VALUES[IntMoveList.getPiece(move) >> 1] / 100;
+            } else if (move == killers[ply][0]) {
+                score = KILLER_ORDER + 1;
+            } else if (move == killers[ply][1]) {
+                score = KILLER_ORDER;
+            } else {
+                score = Math.min(historyScores[IntMoveList.getPiece(move)][IntMoveList.getTo(move)], KILLER_ORDER - 1);
+            }
+            order[i] = score;
+        }
+    }
+
+    // selection sort step, moves before i are already tried
+    private int pickMove(IntMoveList moves, int ply, int i) {
+        int[] order = moveOrder[ply];
+        int best = i;
+        for (int j = i + 1; j < moves.size(); ++j) {
+            if (order[j] > order[best]) {
+                best = j;
+            }
+        }
+        int move = moves.get(best);
+        if (best != i) {
+            moves.set(best, moves.get(i));
+            moves.set(i, move);
+            int score = order[best];
+            order[best] = order[i];
+            order[i] = score;
+        }
+        return move;
+    }
+
+    // mate scores are stored relative to the node
+    private static int toTT(int score, int ply) {
+        if (score > MATE_BOUND) {
+            score += ply;
+        } else if (score < -MATE_BOUND) {
+            score -= ply;
+        }
+        return score + TT_SCORE_BIAS;
+    }
+
+    private static int fromTT(int value, int ply) {
+        int score = value - TT_SCORE_BIAS;
+        if (score > MATE_BOUND) {
+            score -= ply;
+        } else if (score < -MATE_BOUND) {
+            score += ply;
+        }
+        return score;
+    }
+
+    public interface InfoHandler {
+        // after each completed iteration, score is relative to the side to move
+        void onInfo(int depth, int selDepth, int score, long nodes, long msec, String pv);
+    }
+}
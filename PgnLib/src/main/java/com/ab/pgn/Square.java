@@ -40,6 +40,12 @@ public class Square {
         this.y = y;
     }
 
+    // index = 8 * y + x, a1 == 0, h8 == 63
+    public Square(int index) {
+        this.x = index & 0x07;
+        this.y = index >> 3;
+    }
+
     public Square(String sq) {
         if (sq != null && sq.length() == 2) {
             int x = fromX(sq.charAt(0));
@@ -67,6 +73,14 @@ public class Square {
         return this.y;
     }
 
+    public int getIndex() {
+        return toIndex(this.x, this.y);
+    }
+
+    public static int toIndex(int x, int y) {
+        return (y << 3) + x;
+    }
+
     public Square clone() {
         return new Square(this.x, this.y);
     }
@@ -0,0 +1,298 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * endgame tablebase probe, uncompressed distance-to-mate tables built by TablebaseGenerator
+ * a table file is named by its material, e.g. KQvK.cptb, and is memory-mapped on the first probe
+ * positions with the colors reversed are probed in the same table with the board flipped
+ * file: MAGIC (4), number of pieces (1), pieces (1 each, white first), 1 byte value per index
+ * index = side to move | square of each piece << (1 + 6 * i), squares of equal pieces ascending
+ * value: 0 - draw, 0xff - invalid position, otherwise plies to mate + 1, odd plies mean the side to move wins
+ * castle, en passant and the 50-move rule are not considered
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Tablebase {
+    public static final String FILE_EXT = ".cptb";
+    public static final int
+        MAX_PIECES = 4,
+        NOT_FOUND = -1,
+        DRAW = 0,
+        dummy_int = 0;
+
+    static final int
+        MAGIC = 0x43505442,     // CPTB
+        VALUE_INVALID = 0xff,
+        MAX_VALUE = 0xfe,
+        HEADER_LENGTH = 5,      // + number of pieces
+        dummy_int_1 = 0;
+
+    private static final String SIDE_SEPARATOR = "v";
+
+    private final File dir;
+    private final Map<Long, Table> tables = new HashMap<>();    // by material signature, null if there is no valid table
+
+    /**
+     * @param dir directory with table files, missing directory means no tables
+     */
+    public Tablebase(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return NOT_FOUND, DRAW or plies to mate + 1
+     */
+    public int probe(Board board) throws Config.PGNException {
+        if (!mayContain(board)) {
+            return NOT_FOUND;
+        }
+        if (board.isInsufficientMaterial()) {
+            return DRAW;
+        }
+        Table table = getTable(board.getMaterialSignature());
+        if (table == null) {
+            return NOT_FOUND;
+        }
+        int value = table.get(getIndex(board, table.pieces, table.flipped));
+        if (value == VALUE_INVALID) {
+            return NOT_FOUND;
+        }
+        return value;
+    }
+
+    /**
+     * material and flags check only, without loading tables
+     */
+    public boolean mayContain(Board board) {
+        return board.getNumberOfPieces() <= MAX_PIECES
+                && (board.getFlags() & (Config.INIT_POSITION_FLAGS | Config.FLAGS_ENPASSANT_OK)) == 0;
+    }
+
+    public static boolean isWin(int value) {
+        return value > DRAW && (value & 1) == 0;
+    }
+
+    public static int getPlies(int value) {
+        return value - 1;
+    }
+
+    /**
+     * @return as in UCI score mate, positive if the side to move mates, 0 if mated or draw
+     */
+    public static int getMateMoves(int value) {
+        if (value <= DRAW) {
+            return 0;
+        }
+        int plies = getPlies(value);
+        if (isWin(value)) {
+            return (plies + 1) / 2;
+        }
+        return -plies / 2;
+    }
+
+    /**
+     * fastest mate, longest defence, or a move that keeps the draw
+     * @return move as in IntMoveList, 0 if the position is not in the tables or there are no moves
+     */
+    public int getBestMove(Board board) throws Config.PGNException {
+        int value = probe(board);
+        if (value == NOT_FOUND) {
+            return 0;
+        }
+        IntMoveList moves = new IntMoveList();
+        board.generateLegalMoves(moves);
+        int bestMove = 0, bestValue = 0;
+        for (int i = 0; i < moves.size(); ++i) {
+            int move = moves.get(i);
+            Move m = board.toMove(move);
+            long undo = board.makeMove(m);
+            int childValue = probe(board);
+            board.unmakeMove(m, undo);
+            if (childValue == NOT_FOUND) {
+                continue;
+            }
+            if (isWin(value)) {
+                // the opponent is mated one ply sooner
+                if (childValue == value - 1) {
+                    return move;
+                }
+            } else if (value == DRAW) {
+                if (childValue == DRAW) {
+                    return move;
+                }
+            } else if (childValue > bestValue) {
+                bestValue = childValue;
+                bestMove = move;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * @return best line in UCI notation, separated by spaces, empty if the position is not in the tables
+     */
+    public String getPv(Board board, int maxPlies) throws Config.PGNException {
+        Board b = board.clone();
+        StringBuilder sb = new StringBuilder();
+        String sep = "";
+        int move;
+        for (int i = 0; i < maxPlies && (move = getBestMove(b)) != 0; ++i) {
+            sb.append(sep).append(IntMoveList.toString(move));
+            sep = " ";
+            b.makeMove(b.toMove(move));
+        }
+        return new String(sb);
+    }
+
+    /**
+     * @param name e.g. KRvKP
+     * @return pieces, white first
+     */
+    static int[] parseName(String name) throws Config.PGNException {
+        int sep = name.indexOf(SIDE_SEPARATOR);
+        if (sep < 0) {
+            throw new Config.PGNException("invalid table name " + name);
+        }
+        int[] pieces = new int[name.length() - 1];
+        int n = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            if (i == sep) {
+                continue;
+            }
+            int piece = Config.FEN_PIECES.indexOf(name.charAt(i));
+            if (piece < Config.KING || (piece & Config.BLACK) != 0) {
+                throw new Config.PGNException("invalid table name " + name);
+            }
+            if (i > sep) {
+                piece |= Config.BLACK;
+            }
+            pieces[n++] = piece;
+        }
+        Arrays.sort(pieces, 0, sep);
+        Arrays.sort(pieces, sep, n);
+        return pieces;
+    }
+
+    // pieces with the same order as in getIndex
+    static String getName(long materialSignature, boolean flipped) {
+        StringBuilder sb = new StringBuilder();
+        for (int color = Config.WHITE; color <= Config.BLACK; ++color) {
+            if (color == Config.BLACK) {
+                sb.append(SIDE_SEPARATOR);
+            }
+            for (int piece = Config.KING; piece <= Config.PAWN; piece += 2) {
+                int count = (int) (materialSignature >>> ((piece | (color ^ (flipped ? Config.BLACK : 0))) << 2)) & 0x0f;
+                for (int i = 0; i < count; ++i) {
+                    sb.append(Config.FEN_PIECES.charAt(piece));
+                }
+            }
+        }
+        return new String(sb);
+    }
+
+    static long getMaterialSignature(int[] pieces) {
+        long res = 0;
+        for (int piece : pieces) {
+            res += 1L << (piece << 2);
+        }
+        return res;
+    }
+
+    /**
+     * @param pieces sorted, white first
+     * @param flipped true to index the position with colors reversed and ranks mirrored
+     */
+    static int getIndex(Board board, int[] pieces, boolean flipped) {
+        int flip = flipped ? Config.BLACK : 0;
+        int index = (board.getFlags() & Config.BLACK) ^ flip;
+        long bits = 0;
+        int prevPiece = Config.EMPTY;
+        int shift = 1;
+        for (int piece : pieces) {
+            if (piece != prevPiece) {
+                bits = board.getPieceBits(piece ^ flip);
+                if (flipped) {
+                    bits = Long.reverseBytes(bits);     // mirror ranks
+                }
+                prevPiece = piece;
+            }
+            index |= Long.numberOfTrailingZeros(bits) << shift;
+            bits &= bits - 1;
+            shift += 6;
+        }
+        return index;
+    }
+
+    private synchronized Table getTable(long materialSignature) throws Config.PGNException {
+        if (tables.containsKey(materialSignature)) {
+            return tables.get(materialSignature);
+        }
+        Table table = null;
+        try {
+            table = Table.load(new File(dir, getName(materialSignature, false) + FILE_EXT), false);
+            if (table == null) {
+                table = Table.load(new File(dir, getName(materialSignature, true) + FILE_EXT), true);
+            }
+        } finally {
+            tables.put(materialSignature, table);   // an invalid file is reported once, then treated as missing
+        }
+        return table;
+    }
+
+    private static class Table {
+        final int[] pieces;             // white first as in the file name
+        final boolean flipped;
+        final MappedByteBuffer data;
+
+        Table(int[] pieces, boolean flipped, MappedByteBuffer data) {
+            this.pieces = pieces;
+            this.flipped = flipped;
+            this.data = data;
+        }
+
+        int get(int index) {
+            return data.get(HEADER_LENGTH + pieces.length + index) & 0xff;
+        }
+
+        static Table load(File file, boolean flipped) throws Config.PGNException {
+            if (!file.exists()) {
+                return null;
+            }
+            String name = file.getName();
+            int[] pieces = parseName(name.substring(0, name.length() - FILE_EXT.length()));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (data.getInt(0) != MAGIC || data.get(4) != pieces.length
+                        || channel.size() != HEADER_LENGTH + pieces.length + (2L << (6 * pieces.length))) {
+                    throw new Config.PGNException("invalid table " + file.getAbsolutePath());
+                }
+                return new Table(pieces, flipped, data);
+            } catch (IOException e) {
+                throw new Config.PGNException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * build Tablebase files by iterating distance to mate over all indexes
+ * successors of each position are found once and kept as indexes of the same table
+ * or as values from the already built tables after captures and promotions,
+ * about 20 ints per position, so 4-piece tables need a large heap
+ * usage: java com.ab.pgn.TablebaseGenerator <dir> <table name> ..., e.g. KQvK KRvK KPvK
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TablebaseGenerator {
+    private static final String TMP_EXT = ".tmp";
+
+    private final File dir;
+    private final Tablebase tablebase;      // for successors with other material
+
+    public TablebaseGenerator(File dir) {
+        this.dir = dir;
+        this.tablebase = new Tablebase(dir);
+    }
+
+    /**
+     * tables for all material reachable by captures and promotions must be generated first
+     * @param name e.g. KRvK
+     * @return table file
+     */
+    public File generate(String name) throws Config.PGNException {
+        int[] pieces = Tablebase.parseName(name);
+        if (pieces.length > Tablebase.MAX_PIECES || pieces[0] != Config.WHITE_KING
+                || pieces[name.indexOf('v')] != Config.BLACK_KING) {
+            throw new Config.PGNException("invalid table name " + name);
+        }
+        long materialSignature = Tablebase.getMaterialSignature(pieces);
+        int size = 2 << (6 * pieces.length);
+        byte[] values = new byte[size];
+        int[] childStart = new int[size + 1];
+        int[] children = new int[size];
+        int totalChildren = 0;
+
+        // successors, checkmates and stalemates
+        Board board = new Board();
+        board.toEmpty();
+        IntMoveList moves = new IntMoveList();
+        for (int index = 0; index < size; ++index) {
+            childStart[index] = totalChildren;
+            if (!setPosition(board, pieces, index)) {
+                values[index] = (byte) Tablebase.VALUE_INVALID;
+                continue;
+            }
+            int color = board.getFlags() & Config.BLACK;
+            if (board.generateLegalMoves(moves) == 0) {
+                if (board.isKingAttacked(color)) {
+                    values[index] = 1;      // mated
+                }
+            }
+            for (int i = 0; i < moves.size(); ++i) {
+                Move m = board.toMove(moves.get(i));
+                long undo = board.makeMove(m);
+                int child;
+                if (board.getMaterialSignature() == materialSignature) {
+                    child = Tablebase.getIndex(board, pieces, false);
+                } else {
+                    int value = tablebase.probe(board);
+                    if (value == Tablebase.NOT_FOUND) {
+                        throw new Config.PGNException(String.format("%s: no table for %s", name, board.toFEN()));
+                    }
+                    child = ~value;
+                }
+                board.unmakeMove(m, undo);
+                if (totalChildren == children.length) {
+                    int[] newChildren = new int[2 * children.length];
+                    System.arraycopy(children, 0, newChildren, 0, totalChildren);
+                    children = newChildren;
+                }
+                children[totalChildren++] = child;
+            }
+            clearPosition(board, index, pieces.length);
+        }
+        childStart[size] = totalChildren;
+
+        // value == plies + 1, win in odd plies if a successor is lost in plies - 1,
+        // loss in even plies if all successors are won in no more than plies - 1
+        int maxExternal = maxExternal(children, totalChildren);
+        for (int plies = 1; ; ++plies) {
+            if (plies >= Tablebase.MAX_VALUE) {
+                throw new Config.PGNException(String.format("%s: distance to mate exceeds %d plies", name, Tablebase.MAX_VALUE - 1));
+            }
+            boolean changed = false;
+            for (int index = 0; index < size; ++index) {
+                if (values[index] != 0 || childStart[index] == childStart[index + 1]) {
+                    continue;
+                }
+                boolean resolved = (plies & 1) == 0;
+                for (int i = childStart[index]; i < childStart[index + 1]; ++i) {
+                    int child = children[i];
+                    int value = child >= 0 ? values[child] & 0xff : ~child;
+                    if ((plies & 1) != 0) {
+                        if (value == plies) {
+                            resolved = true;
+                            break;
+                        }
+                    } else if (!Tablebase.isWin(value) || value > plies) {
+                        resolved = false;
+                        break;
+                    }
+                }
+                if (resolved) {
+                    values[index] = (byte) (plies + 1);
+                    changed = true;
+                }
+            }
+            // a pass without changes ends the chains within the table
+            if (!changed && plies > maxExternal) {
+                break;
+            }
+        }
+
+        // renamed when complete, so that an interrupted generation does not leave an invalid table
+        File file = new File(dir, Tablebase.getName(materialSignature, false) + Tablebase.FILE_EXT);
+        File tmpFile = new File(dir, file.getName() + TMP_EXT);
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            dos.writeInt(Tablebase.MAGIC);
+            dos.writeByte(pieces.length);
+            for (int piece : pieces) {
+                dos.writeByte(piece);
+            }
+            dos.write(values);
+        } catch (IOException e) {
+            throw new Config.PGNException(e);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new Config.PGNException("cannot rename " + tmpFile.getAbsolutePath());
+        }
+        return file;
+    }
+
+    /**
+     * generate the tables that do not exist in dir yet, in the given order
+     * @return true if any table was generated
+     */
+    public boolean generateMissing(String... names) throws Config.PGNException {
+        boolean generated = false;
+        for (String name : names) {
+            if (!new File(dir, name + Tablebase.FILE_EXT).exists()) {
+                generate(name);
+                generated = true;
+            }
+        }
+        return generated;
+    }
+
+    // largest value of successors from other tables
+    private static int maxExternal(int[] children, int totalChildren) {
+        int res = 0;
+        for (int i = 0; i < totalChildren; ++i) {
+            if (children[i] < 0 && ~children[i] > res) {
+                res = ~children[i];
+            }
+        }
+        return res;
+    }
+
+    // false if the index is not a legal position, the board is left empty then
+    private static boolean setPosition(Board board, int[] pieces, int index) {
+        int n = 0;
+        boolean ok = true;
+        for (int shift = 1; n < pieces.length; shift += 6) {
+            int square = (index >>> shift) & 0x3f;
+            int y = square >> 3;
+            if (board.getPiece(square) != Config.EMPTY
+                    || ((pieces[n] & ~Config.BLACK) == Config.PAWN && (y == 0 || y == Config.BOARD_SIZE - 1))) {
+                ok = false;
+                break;
+            }
+            board.setPiece(square, pieces[n++]);
+        }
+        int color = index & Config.BLACK;
+        board.setFlags(color);
+        if (ok && !board.isKingAttacked(color ^ Config.BLACK)) {
+            return true;
+        }
+        clearPosition(board, index, n);
+        return false;
+    }
+
+    private static void clearPosition(Board board, int index, int totalPieces) {
+        for (int i = 0, shift = 1; i < totalPieces; ++i, shift += 6) {
+            board.setPiece((index >>> shift) & 0x3f, Config.EMPTY);
+        }
+    }
+
+    public static void main(String[] args) throws Config.PGNException {
+        if (args.length < 2) {
+            System.out.println("usage: TablebaseGenerator <dir> <table name> ...");
+            return;
+        }
+        TablebaseGenerator generator = new TablebaseGenerator(new File(args[0]));
+        for (int i = 1; i < args.length; ++i) {
+            long start = System.currentTimeMillis();
+            File file = generator.generate(args[i]);
+            System.out.println(String.format("%s, %s msec", file.getAbsolutePath(), System.currentTimeMillis() - start));
+        }
+    }
+}
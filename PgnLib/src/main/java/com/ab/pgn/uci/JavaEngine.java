@@ -0,0 +1,302 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * pure Java UCI engine over com.ab.pgn.Search, for environments without native stockfish
+ * the search runs on a background thread, output lines are read by UCI as from the native engine
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn.uci;
+
+import com.ab.pgn.Board;
+import com.ab.pgn.Config;
+import com.ab.pgn.IntMoveList;
+import com.ab.pgn.Search;
+
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class JavaEngine implements UCI.UCIImpl {
+    public static final String
+        ENGINE_NAME = "ChessPad Java",
+        ENGINE_AUTHOR = "Alexander Bootman",
+        OPTION_HASH = "Hash",
+        dummy_str = null;
+
+    private static final String END_OF_STREAM = "\n";      // never sent as a line
+
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> errors = new LinkedBlockingQueue<>();
+    private final Search search = new Search();
+    private Thread searchThread;
+    private boolean infinite;
+    private boolean stopRequested;
+
+    @Override
+    public void loadLibrary() {
+        // nothing to load
+    }
+
+    // the native engine reports itself on launch
+    @Override
+    public void launch() {
+        reportId();
+    }
+
+    @Override
+    public void setOptions(UCI uci) {
+    }
+
+    @Override
+    public void execute(String command) {
+        String[] tokens = command.trim().split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                reportId();
+                break;
+
+            case "isready":
+                output.add(UCI.MSG_READYOK);
+                break;
+
+            case UCI.COMMAND_UCINEWGAME:
+                stopSearch();
+                search.clear();
+                break;
+
+            case "setoption":
+                setOption(tokens);
+                break;
+
+            case "position":
+                stopSearch();
+                setPosition(tokens);
+                break;
+
+            case "go":
+                stopSearch();
+                go(tokens);
+                break;
+
+            case UCI.COMMAND_STOP:
+                stopSearch();
+                break;
+
+            case UCI.COMMAND_QUIT:
+                stopSearch();
+                output.add(END_OF_STREAM);
+                errors.add(END_OF_STREAM);
+                break;
+
+            default:
+                errors.add("Unknown command: " + command);
+        }
+    }
+
+    @Override
+    public String read() {
+        return take(output);
+    }
+
+    @Override
+    public String read_err() {
+        return take(errors);
+    }
+
+    @Override
+    public void quit() {
+        execute(UCI.COMMAND_QUIT);
+    }
+
+    private String take(BlockingQueue<String> queue) {
+        try {
+            String line = queue.take();
+            if (END_OF_STREAM.equals(line)) {
+                queue.add(line);        // keep the stream closed for other readers
+                return null;
+            }
+            return line;
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    private void reportId() {
+        output.add("id name " + ENGINE_NAME);
+        output.add("id author " + ENGINE_AUTHOR);
+        output.add(String.format(Locale.US, "option name %s type spin default %d min 1 max 1024", OPTION_HASH, Search.DEFAULT_HASH_MB));
+        output.add(UCI.MSG_UCIOK);
+    }
+
+    // setoption name <id> value <x>, only Hash is used
+    private void setOption(String[] tokens) {
+        if (tokens.length == 5 && OPTION_HASH.equalsIgnoreCase(tokens[2])) {
+            try {
+                search.setHashSize(Integer.parseInt(tokens[4]));
+            } catch (NumberFormatException e) {
+                errors.add("Invalid Hash value " + tokens[4]);
+            }
+        }
+    }
+
+    // position [fen <fenstring> | startpos] [moves <move1> .... <movei>]
+    private void setPosition(String[] tokens) {
+        int i = 1;
+        Board board;
+        try {
+            if (tokens.length > 1 && "fen".equals(tokens[1])) {
+                StringBuilder fen = new StringBuilder();
+                String sep = "";
+                while (++i < tokens.length && !"moves".equals(tokens[i])) {
+                    fen.append(sep).append(tokens[i]);
+                    sep = " ";
+                }
+                board = new Board(new String(fen));
+            } else {
+                board = new Board();
+                ++i;
+            }
+        } catch (Config.PGNException e) {
+            errors.add(e.getMessage());
+            return;
+        }
+        search.setPosition(board);
+        if (i < tokens.length && "moves".equals(tokens[i])) {
+            while (++i < tokens.length) {
+                if (!search.makeMove(tokens[i])) {
+                    errors.add("Illegal move " + tokens[i]);
+                    return;
+                }
+            }
+        }
+    }
+
+    // go [infinite] [depth <x>] [nodes <x>] [movetime <x>] [wtime <x> btime <x> winc <x> binc <x>]
+    private void go(String[] tokens) {
+        int depth = 0;
+        long nodes = 0, moveTime = 0;
+        long[] time = new long[2];
+        long[] inc = new long[2];
+        boolean infinite = false;
+        try {
+            for (int i = 1; i < tokens.length; ++i) {
+                switch (tokens[i]) {
+                    case "infinite":
+                        infinite = true;
+                        break;
+
+                    case "depth":
+                        depth = Integer.parseInt(tokens[++i]);
+                        break;
+
+                    case "nodes":
+                        nodes = Long.parseLong(tokens[++i]);
+                        break;
+
+                    case "movetime":
+                        moveTime = Long.parseLong(tokens[++i]);
+                        break;
+
+                    case "wtime":
+                        time[Config.WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+
+                    case "btime":
+                        time[Config.BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+
+                    case "winc":
+                        inc[Config.WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+
+                    case "binc":
+                        inc[Config.BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            errors.add("Invalid go command");
+            return;
+        }
+        int color = search.getBoard().getFlags() & Config.BLACK;
+        if (moveTime == 0 && time[color] > 0) {
+            moveTime = time[color] / 30 + inc[color] / 2;
+        }
+        final int maxDepth = depth;
+        final long maxNodes = nodes;
+        final long maxMsec = infinite ? 0 : moveTime;
+
+        synchronized (this) {
+            this.infinite = infinite;
+            stopRequested = false;
+        }
+        searchThread = UCI.bgCall(() -> {
+            int bestMove = search.go(maxDepth, maxNodes, maxMsec, this::reportInfo);
+            if (bestMove == 0) {
+                reportNoMoves();
+            }
+            synchronized (this) {
+                // in infinite mode bestmove is sent only after stop
+                while (this.infinite && !stopRequested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            output.add(UCI.MSG_BESTMOVE + (bestMove == 0 ? "(none)" : IntMoveList.toString(bestMove)));
+        });
+    }
+
+    private void stopSearch() {
+        if (searchThread == null) {
+            return;
+        }
+        synchronized (this) {
+            stopRequested = true;
+            notifyAll();
+        }
+        search.stop();
+        try {
+            searchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchThread = null;
+    }
+
+    private void reportInfo(int depth, int selDepth, int score, long nodes, long msec, String pv) {
+        String scoreText;
+        int mateMoves = Search.getMateMoves(score);
+        if (mateMoves == 0) {
+            scoreText = "cp " + score;
+        } else {
+            scoreText = "mate " + mateMoves;
+        }
+        long nps = msec == 0 ? 0 : nodes * 1000 / msec;
+        output.add(String.format(Locale.US, "info depth %d seldepth %d score %s nodes %d nps %d time %d pv %s",
+                depth, selDepth, scoreText, nodes, nps, msec, pv));
+    }
+
+    private void reportNoMoves() {
+        if (search.isCheck()) {
+            output.add(UCI.MSG_INFO_CHECKMATE);
+        } else {
+            output.add("info depth 0 score cp 0");
+        }
+    }
+}
@@ -21,6 +21,10 @@
 
 package com.ab.pgn.uci;
 
+import com.ab.pgn.Board;
+import com.ab.pgn.Config;
+import com.ab.pgn.Tablebase;
+
 import java.io.IOException;
 import java.util.Locale;
 
@@ -54,7 +58,11 @@ public class UCI {
         OPTION_SKILL_LEVEL = "Skill Level",
         dummy_string = null;
 
-    protected static final int ANALYSIS_SKILL_LEVEL = 20;
+    protected static final int
+        ANALYSIS_SKILL_LEVEL = 20,
+        TABLEBASE_PV_PLIES = 40,
+        POSITION_COMMAND_LENGTH = 104,      // "position fen " + FEN
+        dummy_int = 0;
 
     private final UCIImpl uciImpl;
 
@@ -73,6 +81,9 @@ public class UCI {
     private Thread stdInThread;
     private Thread stdErrThread;
     private boolean isBlackMove;
+    private volatile Tablebase tablebase;
+    private int positionId;         // incremented for every new position, drops late tablebase results
+    private final StringBuilder positionCommand = new StringBuilder(POSITION_COMMAND_LENGTH);    // reused for every position
 
     public UCI(EngineWatcher engineWatcher, UCIImpl uciImpl) throws IOException {
         this.engineWatcher = engineWatcher;
@@ -120,8 +131,9 @@ public class UCI {
     }
 
     // stop current analysis, after UCIEndine.state == IDLE, it picks up the new position and resumes analysis
-    public void abortCurrentAnalisys() {
+    public synchronized void abortCurrentAnalisys() {
         System.out.println(String.format("abortCurrentAnalisys, state %s", state.toString()));
+        ++positionId;
         if (state == State.ANALYZE) {
             execute(UCI.COMMAND_STOP);
             setState(State.IDLE);
@@ -133,6 +145,14 @@ public class UCI {
         System.out.println(String.format("setState %s", state.toString()));
     }
 
+    /**
+     * positions found in the tablebase are reported without starting the engine
+     * can be replaced while running, e.g. after new tables are generated
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
     /**
      * Shut down engine.
      */
@@ -181,18 +201,66 @@ public class UCI {
     }
 
     public void sendPosition() {
-        String fen = engineWatcher.getCurrentFen();
-        if (fen == null) {
+        Board board = engineWatcher.getCurrentBoard();
+        if (board == null) {
+            return;
+        }
+        int id;
+        synchronized (this) {
+            id = ++positionId;
+        }
+        Tablebase tablebase = this.tablebase;
+        if (tablebase != null && tablebase.mayContain(board)) {
+            // table loading and pv search run in background, the engine is started from there if not found
+            final Board probeBoard = board.clone();
+            bgCall(() -> probeTablebase(tablebase, probeBoard, id));
+            return;
+        }
+        startAnalysis(board, id);
+    }
+
+    private synchronized void startAnalysis(Board board, int id) {
+        if (id != positionId) {
             return;
         }
         setOption(OPTION_SKILL_LEVEL, ANALYSIS_SKILL_LEVEL);
-        isBlackMove = fen.contains(" b ");      // quick and dirty
-        execute(UCI.COMMAND_POSITION + fen);  // todo: send moves?
+        isBlackMove = (board.getFlags() & Config.BLACK) != 0;
+        positionCommand.setLength(0);
+        board.toFEN(positionCommand.append(UCI.COMMAND_POSITION));
+        execute(positionCommand.toString());  // todo: send moves?
         setOption(UCI.OPTION_ANALYSIS, true);
         execute(UCI.COMMAND_GO_INFINITE);
         setState(State.ANALYZE);
     }
 
+    private void probeTablebase(Tablebase tablebase, Board board, int id) {
+        IncomingInfoMessage incomingInfoMessage = null;
+        try {
+            int value = tablebase.probe(board);
+            if (value != Tablebase.NOT_FOUND) {
+                incomingInfoMessage = new IncomingInfoMessage(value != Tablebase.DRAW);
+                incomingInfoMessage.isBlackMove = (board.getFlags() & Config.BLACK) != 0;
+                if (value != Tablebase.DRAW) {
+                    incomingInfoMessage.depth = Tablebase.getPlies(value);
+                    incomingInfoMessage.score = Tablebase.getMateMoves(value);
+                }
+                incomingInfoMessage.moves = tablebase.getPv(board, TABLEBASE_PV_PLIES);
+            }
+        } catch (Config.PGNException e) {
+            engineWatcher.reportError(e.getMessage());
+            incomingInfoMessage = null;
+        }
+        if (incomingInfoMessage == null) {
+            startAnalysis(board, id);
+            return;
+        }
+        synchronized (this) {
+            if (id == positionId) {
+                engineWatcher.acceptAnalysis(incomingInfoMessage);
+            }
+        }
+    }
+
     protected void consume(String s) {
         String[] lines = s.split("\n");
         for (String line : lines) {
@@ -316,7 +384,7 @@ public class UCI {
     }
 
     public interface EngineWatcher {
-        String getCurrentFen();     // return null not to trigger analysis
+        Board getCurrentBoard();    // return null not to trigger analysis
         void engineOk();            // engine ready to get initial options
         void acceptAnalysis(IncomingInfoMessage incomingInfoMessage);
         void reportError(String message);
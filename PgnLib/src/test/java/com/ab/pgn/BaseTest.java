@@ -39,7 +39,6 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -221,12 +220,8 @@ public class BaseTest {
             return false;
         }
 
-        for (Map.Entry<Pack, Board> entry : g2.positions.entrySet()) {
-            entry.getValue().setVisited(false);
-        }
-        for (Map.Entry<Pack, Board> entry : g1.positions.entrySet()) {
-            entry.getValue().setVisited(false);
-        }
+        g2.positions.setVisited(false);
+        g1.positions.setVisited(false);
         return areEqual(g1, g1.rootMove, g2, g2.rootMove);
     }
 
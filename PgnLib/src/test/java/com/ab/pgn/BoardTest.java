@@ -22,7 +22,6 @@ package com.ab.pgn;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
 import org.junit.Assert;
@@ -30,12 +29,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
-import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -76,6 +76,36 @@ public class BoardTest extends BaseTest {
         Assert.assertFalse(invalid.equals(board));
     }
 
+    @Test
+    public void testEqualPosition() throws Config.PGNException {
+        String fen = "rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1";
+        Board board = new Board(fen);
+        Board other = new Board(fen.replace(" 0 1", " 0 24"));
+        Assert.assertEquals(board, other);        // ply number ignored
+        Assert.assertEquals(board.hashCode(), other.hashCode());
+        Assert.assertEquals(new Pack(board.pack()).equalPosition(new Pack(other.pack())), board.equals(other));
+
+        other = new Board(fen.replace(" e3 ", " - "));
+        Assert.assertNotEquals(board, other);     // en passant
+        other = new Board(fen.replace(" KQkq ", " KQk "));
+        Assert.assertNotEquals(board, other);     // castle
+        other = new Board(fen.replace(" b ", " w "));
+        Assert.assertNotEquals(board, other);     // side to move
+        other = new Board(fen.replace("3pP3", "3p1P2"));
+        Assert.assertNotEquals(board, other);
+        Assert.assertEquals(new Pack(board.pack()).equalPosition(new Pack(other.pack())), board.equals(other));
+
+        Board clone = board.clone();
+        Move move = clone.newMove();
+        move.setFrom(new Square("g8"));
+        move.setTo(new Square("f6"));
+        move.setPiece(Config.BLACK_KNIGHT);
+        long undo = clone.makeMove(move);
+        Assert.assertNotEquals(board, clone);
+        clone.unmakeMove(move, undo);
+        Assert.assertEquals(board, clone);
+    }
+
     @Test
     public void testFlags() {
         Board board = new Board();
@@ -198,6 +228,188 @@ public class BoardTest extends BaseTest {
         Assert.assertEquals(String.format("Invalid enpass %s\n%s", board.toFEN(), board), 14, board.validateSetup());
     }
 
+    @Test
+    public void testSetFEN() throws Config.PGNException {
+        String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w Kq - 12 40",
+            "8/8/8/8/8/8/8/K6k b - - 0 1",
+        };
+        Board board = new Board(fens[0]);
+        StringBuilder sb = new StringBuilder("fen: ");
+        for (String fen : fens) {
+            board.setFEN(fen);
+            Assert.assertEquals(fen, board.toFEN());
+            Assert.assertEquals(new Board(fen), board);
+            Assert.assertEquals(new Board(fen).getPositionKey(), board.getPositionKey());
+            assertBitBoards(board);
+
+            board.setFEN(new StringBuilder("  ").append(fen).append("  "));
+            Assert.assertEquals(fen, board.toFEN());
+
+            sb.setLength(5);
+            Assert.assertSame(sb, board.toFEN(sb));
+            Assert.assertEquals("fen: " + fen, sb.toString());
+        }
+
+        board.setFEN("4k3/8/8/8/8/8/8/4K3");
+        Assert.assertEquals("4k3/8/8/8/8/8/8/4K3 w - - 0 1", board.toFEN());
+    }
+
+    @Test(expected = Config.PGNException.class)
+    public void testSetFEN_invalid() throws Config.PGNException {
+        new Board().setFEN("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - x 1");
+    }
+
+    @Test
+    public void testParseFENs() throws Config.PGNException {
+        final String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+            "8/8/8/8/8/8/8/K6k b - - 0 1",
+        };
+        String text = fens[0] + "\r\n\n  \n" + fens[1] + "\n" + fens[2];
+        final List<String> res = new LinkedList<>();
+        int count = Board.parseFENs(new StringReader(text), new Board.FenHandler() {
+            @Override
+            public boolean onFEN(Board board) {
+                res.add(board.toFEN());
+                return true;
+            }
+        });
+        Assert.assertEquals(fens.length, count);
+        Assert.assertArrayEquals(fens, res.toArray());
+
+        res.clear();
+        count = Board.parseFENs(new StringReader(text), new Board.FenHandler() {
+            @Override
+            public boolean onFEN(Board board) {
+                res.add(board.toFEN());
+                return res.size() < 2;
+            }
+        });
+        Assert.assertEquals(2, count);
+    }
+
+    @Test
+    public void testBitBoards() throws Config.PGNException {
+        String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 1",
+            "8/8/8/8/8/8/8/8 w - - 0 1",
+        };
+        for (String fen : fens) {
+            Board board = new Board(fen);
+            assertBitBoards(board);
+            assertBitBoards(board.clone());
+            assertBitBoards(invert(board));
+            assertBitBoards(Board.unpack(board.pack()));
+        }
+
+        Board board = new Board("r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 1");
+        Move move = board.newMove();
+        move.setFrom(new Square("e5"));
+        move.setTo(new Square("d6"));
+        move.setPiece(Config.WHITE_PAWN);
+        board.doMove(move);     // en passant
+        assertBitBoards(board);
+        Assert.assertEquals(Config.EMPTY, board.getPiece(new Square("d5")));
+    }
+
+    @Test
+    public void testMakeUnmake() throws Config.PGNException {
+        String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 1",
+            "r3k2r/1P6/8/8/3pP3/8/6p1/R3K2R b KQkq e3 0 1",
+        };
+        IntMoveList moves = new IntMoveList();
+        for (String fen : fens) {
+            Board board = new Board(fen);
+            String initFen = board.toFEN();
+            long initKey = board.getPositionKey();
+            board.generatePseudoLegalMoves(moves);
+            for (int i = 0; i < moves.size(); ++i) {
+                Move move = board.toMove(moves.get(i));
+                long undo = board.makeMove(move);
+                assertBitBoards(board);
+                board.unmakeMove(move, undo);
+                String msg = String.format("%s after %s", fen, IntMoveList.toString(moves.get(i)));
+                Assert.assertEquals(msg, initFen, board.toFEN());
+                Assert.assertEquals(msg, initKey, board.getPositionKey());
+                assertBitBoards(board);
+            }
+        }
+    }
+
+    @Test
+    public void testMaterial() throws Config.PGNException {
+        Board board = new Board();
+        Assert.assertEquals(Board.getMaterialSignature("KQRRBBNNPPPPPPPPkqrrbbnnpppppppp"), board.getMaterialSignature());
+        Assert.assertEquals(32, board.getNumberOfPieces());
+        Assert.assertEquals(8, board.getPieceCount(Config.BLACK_PAWN));
+        Assert.assertEquals(1, board.getPieceCount(Config.WHITE_KING));
+
+        board = new Board("4k3/1P6/8/8/8/8/8/R3K2r w - - 0 1");
+        Assert.assertEquals(Board.getMaterialSignature("KRPkr"), board.getMaterialSignature());
+        Assert.assertEquals(Board.getMaterialSignature("krKRP"), board.getMaterialSignature());
+        IntMoveList moves = new IntMoveList();
+        board.generatePseudoLegalMoves(moves);
+        for (int i = 0; i < moves.size(); ++i) {
+            Move move = board.toMove(moves.get(i));
+            long undo = board.makeMove(move);
+            long expected = new Board(board.toFEN()).getMaterialSignature();
+            Assert.assertEquals(IntMoveList.toString(moves.get(i)), expected, board.getMaterialSignature());
+            board.unmakeMove(move, undo);
+            Assert.assertEquals(Board.getMaterialSignature("KRPkr"), board.getMaterialSignature());
+        }
+        Assert.assertEquals(board.getMaterialSignature(), board.clone().getMaterialSignature());
+        Assert.assertEquals(board.getMaterialSignature(), Board.unpack(board.pack()).getMaterialSignature());
+
+        Assert.assertFalse(board.isInsufficientMaterial());
+        Assert.assertTrue(new Board("4k3/8/8/8/8/8/8/4K3 w - - 0 1").isInsufficientMaterial());
+        Assert.assertTrue(new Board("4k3/8/8/8/8/8/8/4KN2 w - - 0 1").isInsufficientMaterial());
+        Assert.assertTrue(new Board("4kb2/8/8/8/8/8/8/2B1K3 w - - 0 1").isInsufficientMaterial());
+        Assert.assertFalse(new Board("4k1b1/8/8/8/8/8/8/2B1K3 w - - 0 1").isInsufficientMaterial());
+        Assert.assertFalse(new Board("4kn2/8/8/8/8/8/8/4KN2 w - - 0 1").isInsufficientMaterial());
+        Assert.assertFalse(new Board("4k3/7p/8/8/8/8/8/4K3 w - - 0 1").isInsufficientMaterial());
+    }
+
+    @Test
+    public void testIndexAccessors() throws Config.PGNException {
+        Board board = new Board("r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 1");
+        for (int y = 0; y < Config.BOARD_SIZE; ++y) {
+            for (int x = 0; x < Config.BOARD_SIZE; ++x) {
+                Square square = new Square(x, y);
+                Assert.assertEquals(square.toString(), board.getPiece(square), board.getPiece(square.getIndex()));
+                Assert.assertTrue(square.equals(new Square(square.getIndex())));
+            }
+        }
+        Move move = new Move(board, new Square("e5").getIndex(), new Square("d6").getIndex());
+        Assert.assertEquals(Config.WHITE_PAWN, move.getPiece());
+        Assert.assertTrue(move.getFrom().equals(new Square("e5")));
+        Assert.assertTrue(move.getTo().equals(new Square("d6")));
+        board.setPiece(new Square("h8").getIndex(), Config.EMPTY);
+        Assert.assertEquals(Config.EMPTY, board.getPiece(7, 7));
+        assertBitBoards(board);
+    }
+
+    private void assertBitBoards(Board board) {
+        for (int y = 0; y < Config.BOARD_SIZE; ++y) {
+            for (int x = 0; x < Config.BOARD_SIZE; ++x) {
+                long bit = BitBoard.bit(x, y);
+                int piece = board.getPiece(x, y);
+                Assert.assertEquals(piece != Config.EMPTY, (board.getOccupied() & bit) != 0);
+                if (piece != Config.EMPTY) {
+                    Assert.assertTrue(String.format("(%s,%s)\n%s", x, y, board), (board.getPieceBits(piece) & bit) != 0);
+                    Assert.assertTrue((board.getColorBits(piece & Config.BLACK) & bit) != 0);
+                }
+            }
+        }
+    }
+
     @Test(expected = Config.PGNException.class)
     public void testPackException() throws Config.PGNException, IOException {
         BitStream.Writer writer = spy(new BitStream.Writer());
@@ -240,29 +452,91 @@ public class BoardTest extends BaseTest {
         System.out.println("finish");
     }
 
-//* comment for  for Studio 3
     @Test(expected = Config.PGNException.class)
-    public void testBoardPackException() throws Exception {
-        BitStream.Writer writer = mock(BitStream.Writer.class);
-        doThrow(IOException.class).when(writer).getBits();
-        PowerMockito.whenNew(BitStream.Writer.class)
-                .withAnyArguments().thenReturn(writer);
-        Board board = new Board();
-        int[] p = board.pack();
+    public void testBoardPackException() throws Config.PGNException {
+        Board board = new Board("qqqqqqqq/qqqqqqqq/8/2k1K3/8/8/QQQQQQQQ/QQQQQQQQ w - - 0 1");
+        int[] p = board.pack();     // 32 pieces except kings do not fit int[6]
         System.out.println("finish");
     }
 
     @Test(expected = Config.PGNException.class)
-    public void testUnpackArrayException() throws Exception {
-        BitStream.Writer writer = new BitStream.Writer();
+    public void testUnpackArrayException() throws Config.PGNException {
         Board board = new Board();
-        board.pack(writer);
-        byte[] buf = writer.getBits();
         int[] p = board.pack();
-        PowerMockito.whenNew(ByteArrayInputStream.class)
-                .withAnyArguments().thenThrow(new IOException(){});
-        board = Board.unpack(p);
+        board = Board.unpack(Arrays.copyOf(p, p.length - 1));
         System.out.println("finish");
     }
-//*/
+
+    @Test
+    public void testPackCompatibility() throws Config.PGNException, IOException {
+        String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+            "r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 120",
+            "4k3/2R5/8/8/1KR3r1/8/7n/8 w - - 0 1",
+            "8/8/8/8/8/8/8/K6k b - - 0 1",
+        };
+        for (String fen : fens) {
+            Board board = new Board(fen);
+            int[] ints = board.pack();
+            Assert.assertArrayEquals(fen, legacyPack(board), ints);
+            Board unpacked = Board.unpack(ints);
+            Assert.assertEquals(fen, board.toFEN().replaceAll(" \\d+$", ""), unpacked.toFEN().replaceAll(" \\d+$", ""));
+            Assert.assertEquals(fen, board.getPositionKey(), unpacked.getPositionKey());
+
+            BitStream.Writer writer = new BitStream.Writer();
+            board.pack(writer);
+            BitStream.Writer legacyWriter = new BitStream.Writer();
+            legacyPack(board, legacyWriter);
+            Assert.assertArrayEquals(fen, legacyWriter.getBits(), writer.getBits());
+            unpacked = Board.unpack(new BitStream.Reader(writer));
+            Assert.assertArrayEquals(fen, ints, unpacked.pack());
+        }
+    }
+
+    // the original BitStream-based codec, the format must stay the same
+    private static int[] legacyPack(Board board) throws Config.PGNException, IOException {
+        BitStream.Writer writer = new BitStream.Writer();
+        legacyPack(board, writer);
+        byte[] buf = writer.getBits();
+        int[] ints = new int[Board.PACK_SIZE];
+        for (int n = 0; n < buf.length; ++n) {
+            ints[n / 4] |= ((int) buf[n] & 0x0ff) << (8 * (n % 4));
+        }
+        return ints;
+    }
+
+    private static void legacyPack(Board board, BitStream.Writer writer) throws IOException {
+        List<Integer> values = new LinkedList<>();
+        int val = 0;
+        int factor = 1;
+        for (int j = 0; j < Config.BOARD_SIZE; j++) {
+            int mask = 1;
+            int buf = 0;
+            for (int i = 0; i < Config.BOARD_SIZE; i++) {
+                int code = board.getPiece(i, j) - Board.PACK_PIECE_ADJUSTMENT;
+                if (code >= 0) {
+                    buf |= mask;
+                    val += factor * code;
+                    factor *= 10;
+                    if (factor == 1000) {
+                        values.add(val);
+                        factor = 1;
+                        val = 0;
+                    }
+                }
+                mask <<= 1;
+            }
+            writer.write(buf, 8);
+        }
+        if (factor != 1) {
+            values.add(val);
+        }
+        writer.write(board.getPlyNum() / 2, Board.MOVE_NUMBER_LENGTH);
+        writer.write(board.getBoardData(), Board.BOARD_DATA_PACK_LENGTH);
+        for (int v : values) {
+            writer.write(v, 10);
+        }
+    }
 }
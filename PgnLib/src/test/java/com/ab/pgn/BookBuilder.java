@@ -101,7 +101,7 @@ public class BookBuilder extends BaseTest {
                 ++newMoves;
                 move.comment = commonComment;
                 ecoBoard = nextBoard.clone();
-                book.positions.put(new Pack(move.packData), ecoBoard);
+                book.positions.put(move.getPack(), ecoBoard);
                 Move prevMove = prevBoard.getMove();
                 if (prevMove == null) {
                     prevBoard.setMove(move);
@@ -19,8 +19,12 @@
  */
 package com.ab.pgn;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class MoveValidationTest extends BaseTest {
 
     @Test
@@ -313,4 +317,142 @@ public class MoveValidationTest extends BaseTest {
             testUserMove(invertedInitBoard, invertedMove, Config.FLAGS_STALEMATE | (invertedInitBoard.getFlags() & Config.BLACK));
         }
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGenerateMoves() throws Config.PGNException {
+        final Pair<String, int[]>[] fenAndCounts = new Pair[]{
+            // legal, pseudo-legal, captures
+            new Pair<>("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", new int[] {20, 20, 0}),
+            new Pair<>("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", new int[] {48, 48, 8}),
+            new Pair<>("r1bqkbnr/pPp4p/4pp2/3pP3/6p1/5P2/P1PP2PP/RNBQKBNR w KQkq d6 0 1", new int[] {39, 39, 11}),
+            new Pair<>("k7/8/1Q6/8/8/8/8/4K3 b - - 0 1", new int[] {0, 3, 0}),          // stalemate
+            new Pair<>("4k3/8/8/8/8/8/4r3/R3K2R w KQ - 0 1", new int[] {3, 26, 1}),     // check, cannot castle
+        };
+        IntMoveList moves = new IntMoveList();
+        for (Pair<String, int[]> entry : fenAndCounts) {
+            Board board = new Board(entry.first);
+            Assert.assertEquals(String.format("%s\n%s", entry.first, moves), entry.second[0], board.generateLegalMoves(moves));
+            for (int i = 0; i < moves.size(); ++i) {
+                Move move = board.toMove(moves.get(i));
+                Assert.assertTrue(String.format("%s\n%s", move.toString(true), board),
+                        board.validatePgnMove(move, Config.VALIDATE_USER_MOVE) || IntMoveList.isCastle(moves.get(i)));
+            }
+            Assert.assertEquals(entry.first, entry.second[1], board.generatePseudoLegalMoves(moves));
+            Assert.assertEquals(entry.first, entry.second[2], board.generateCaptures(moves));
+        }
+    }
+
+    @Test
+    public void testIsSquareAttacked() throws Config.PGNException {
+        Board board = new Board("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
+        Assert.assertTrue(board.isSquareAttacked(square("e3"), Config.WHITE));
+        Assert.assertTrue(board.isSquareAttacked(square("f3"), Config.WHITE));
+        Assert.assertFalse(board.isSquareAttacked(square("e4"), Config.WHITE));      // pawn push is not an attack
+        Assert.assertFalse(board.isSquareAttacked(square("e3"), Config.BLACK));
+        Assert.assertTrue(board.isSquareAttacked(square("c6"), Config.BLACK));
+        Assert.assertFalse(board.isSquareAttacked(square("a1"), Config.WHITE));
+
+        board = new Board("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        Assert.assertTrue(board.isSquareAttacked(square("f7"), Config.WHITE));       // knight e5
+        Assert.assertTrue(board.isSquareAttacked(square("f6"), Config.WHITE));       // queen f3
+        Assert.assertFalse(board.isSquareAttacked(square("f8"), Config.WHITE));      // queen blocked by f6
+        Assert.assertTrue(board.isSquareAttacked(square("a6"), Config.WHITE));       // bishop e2, queen behind it does not count
+        Assert.assertTrue(board.isSquareAttacked(square("g2"), Config.BLACK));       // pawn h3
+        Assert.assertTrue(board.isSquareAttacked(square("e2"), Config.BLACK));       // bishop a6
+        Assert.assertFalse(board.isSquareAttacked(square("f1"), Config.BLACK));      // bishop a6 blocked by e2
+        Assert.assertFalse(board.isSquareAttacked(square("b1"), Config.BLACK));
+        Assert.assertTrue(board.isSquareAttacked(square("d7"), Config.BLACK));       // king e8
+
+        board = new Board("4k3/8/8/8/8/8/4r3/R3K2R w KQ - 0 1");
+        Assert.assertTrue(board.isKingAttacked(Config.WHITE));
+        Assert.assertFalse(board.isKingAttacked(Config.BLACK));
+        Assert.assertEquals(square("e1"), board.getKingSquare(Config.WHITE));
+        Assert.assertEquals(1L << square("e2"), board.getAttackers(square("e1"), Config.BLACK));
+    }
+
+    private static int square(String sq) {
+        Square square = new Square(sq);
+        return BitBoard.square(square.getX(), square.getY());
+    }
+
+    @Test
+    public void testResolvePgnMove() throws Config.PGNException {
+        final String[][] fenMoveFrom = {
+            {"4k3/4r3/8/7N/8/8/4N3/4K3 w - - 0 1", "Ng3", "h5"},     // Ne2 is pinned
+            {"4k3/4r3/8/7N/8/8/4N3/4K3 w - - 0 1", "Nf4", "h5"},
+            {"4k3/8/8/8/8/8/8/R3K2R w KQ - 0 1", "Rad1", "a1"},
+            {"4k3/8/8/8/8/8/8/R3K2R w KQ - 0 1", "Rhf1", "h1"},
+            {"4k3/8/8/3R4/8/8/8/3RK3 w - - 0 1", "R1d3", "d1"},
+            {"4k3/8/8/3R4/8/8/8/3RK3 w - - 0 1", "R5d3", "d5"},
+            {"4k3/8/8/8/8/8/8/Q3K1Q1 w - - 0 1", "Qge3", "g1"},
+            {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "e4", "e2"},
+            {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "e3", "e2"},
+            {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "Nf3", "g1"},
+            {"rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", "dxe3", "d4"},
+            {"rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", "d5", null},
+            {"4k3/4r3/8/8/8/8/4N3/4K3 w - - 0 1", "Ng3", null},
+            {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "e5", null},
+        };
+        for (String[] entry : fenMoveFrom) {
+            Board board = new Board(entry[0]);
+            Move move = new Move(board.getFlags() & Config.FLAGS_BLACK_MOVE);
+            Util.parseMove(move, entry[1]);
+            String msg = String.format("%s %s", entry[0], entry[1]);
+            if (entry[2] == null) {
+                Assert.assertFalse(msg, board.resolvePgnMove(move));
+            } else {
+                Assert.assertTrue(msg, board.resolvePgnMove(move));
+                Assert.assertTrue(msg, move.getFrom().equals(new Square(entry[2])));
+            }
+        }
+    }
+
+    @Test
+    public void testPinsAndEvasions() throws Config.PGNException {
+        Board board = new Board("4k3/4r3/8/1b5N/8/3B4/4N3/4K3 w - - 0 1");
+        Assert.assertEquals(1L << square("e2"), board.getPinned(square("e1"), Config.WHITE));
+        board = new Board("4k3/8/8/8/1b6/8/3P4/4K3 w - - 0 1");
+        Assert.assertEquals(1L << square("d2"), board.getPinned(square("e1"), Config.WHITE));
+        board = new Board("4k3/8/8/8/1b6/2P5/3P4/4K3 w - - 0 1");
+        Assert.assertEquals(0, board.getPinned(square("e1"), Config.WHITE));
+
+        // mask legality and direct evasions must agree with making each pseudo-legal move
+        final String[] fens = {
+            "4k3/4r3/8/1b5N/8/3B4/4N3/4K3 w - - 0 1",               // pins
+            "4k3/8/8/8/1b6/8/3P4/R3K2R w KQ - 0 1",                 // check, interpositions
+            "4k3/8/8/8/8/5n2/8/R3K2R w KQ - 0 1",                   // knight check
+            "4k3/8/8/8/1b6/8/8/R3K1nR w KQ - 0 1",                  // double check
+            "8/8/8/2k5/3Pp3/8/8/4K3 b - d3 0 1",                    // checking pawn taken en passant
+            "8/8/8/8/k2Pp2Q/8/8/3K4 b - d3 0 1",                    // en passant uncovers the king
+            "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1",
+            "r3k2r/8/8/8/8/8/4q3/R3K2R w KQkq - 0 1",
+            "2r1k3/1P6/8/8/8/8/8/4K3 w - - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        };
+        for (String fen : fens) {
+            board = new Board(fen);
+            IntMoveList moves = new IntMoveList();
+            board.generatePseudoLegalMoves(moves);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < moves.size(); ++i) {
+                int m = moves.get(i);
+                Move move = board.toMove(m);
+                long undo = board.makeMove(move);
+                boolean kingAttacked = board.isKingAttacked(move.getPiece() & Config.BLACK);
+                board.unmakeMove(move, undo);
+                if (!kingAttacked && (!IntMoveList.isCastle(m) || board.validateKingMove(board.toMove(m)))) {
+                    expected.add(m);
+                }
+            }
+            board.generateLegalMoves(moves);
+            Set<Integer> legal = new HashSet<>();
+            for (int i = 0; i < moves.size(); ++i) {
+                legal.add(moves.get(i));
+                Assert.assertTrue(fen, board.isLegal(moves.get(i)));
+            }
+            Assert.assertEquals(fen, expected.size(), moves.size());
+            Assert.assertEquals(fen, expected, legal);
+        }
+    }
 }
@@ -25,7 +25,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class PackTest extends BaseTest {
@@ -71,10 +73,10 @@ public class PackTest extends BaseTest {
             String onlyLetters = fen.substring(0, i).replaceAll("[^\\p{L}]", "");
             int pieces = onlyLetters.length() - 2;  // without kings
             Board board = new Board(fen);
-            Pack pack = new Pack(board.pack());
+            Pack pack = board.toPack();
             positions.put(pack, board);
             Board clone = Board.unpack(pack.getPackData());
-            Pack clonePack = new Pack(clone.pack());
+            Pack clonePack = clone.toPack();
             Assert.assertEquals(fen, clone.toFEN());
             Assert.assertEquals(pack, clonePack);
             Board fromMap = positions.get(clonePack);
@@ -104,6 +106,111 @@ public class PackTest extends BaseTest {
         Assert.assertTrue(String.format("\"%s\" != \"%s\"", fens[0], fens[1]), p1.equalPosition(p0));
     }
 
+    @Test
+    public void testPositionKey() throws Config.PGNException {
+        String[][] transpositions = {
+            // moves, resulting fen
+            {"e4 e5 Nf3 Nc6", "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3"},
+            {"Nf3 Nc6 e4 e5", "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3"},
+            {"e4 d5 e5 f5", "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3"},
+            {"Nf3 Nf6 Rg1 Rg8 Rh1 Rh8", "rnbqkb1r/pppppppp/5n2/8/8/5N2/PPPPPPPP/RNBQKB1R w Qq - 6 4"},
+        };
+        long[] keys = new long[transpositions.length];
+        for (int i = 0; i < transpositions.length; ++i) {
+            PgnGraph graph = new PgnGraph();
+            graph.parseMoves(transpositions[i][0]);
+            Board board = graph.getBoard();
+            Board fenBoard = new Board(transpositions[i][1]);
+            keys[i] = board.getPositionKey();
+            Assert.assertEquals(transpositions[i][0], fenBoard.getPositionKey(), keys[i]);
+            Assert.assertEquals(keys[i], graph.getCurrentMove().positionKey);
+            Assert.assertEquals(keys[i], board.toPack().getKey());
+            Assert.assertEquals(board, graph.positions.get(board.toPack()));
+        }
+        Assert.assertEquals(keys[0], keys[1]);
+        Assert.assertNotEquals(keys[0], keys[2]);
+        // castle rights lost
+        Assert.assertNotEquals(new Board().getPositionKey(), new Board("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w Kkq - 0 1").getPositionKey());
+        // en passant is not possible
+        Assert.assertEquals(new Board("rnbqkbnr/pppp1ppp/8/4p3/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 2").getPositionKey(),
+                new Board("rnbqkbnr/pppp1ppp/8/4p3/8/8/PPPPPPPP/RNBQKBNR w KQkq - 3 4").getPositionKey());
+    }
+
+    @Test
+    public void testPositionTable() throws Config.PGNException {
+        PositionTable positions = new PositionTable();
+        List<Pack> packs = new ArrayList<>();
+        PgnGraph graph = new PgnGraph();
+        graph.parseMoves("e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 Re1 b5 Bb3 d6 c3 O-O h3 Nb8 d4 Nbd7");
+        for (Move move : graph.moveLine) {
+            Board board = graph.getBoard(move).clone();
+            board.setMove(move);
+            Pack pack = move.getPack();
+            Assert.assertNull(positions.put(pack, board));
+            packs.add(pack);
+        }
+        Assert.assertEquals(graph.positions.size(), positions.size());
+        for (int i = 0; i < packs.size(); ++i) {
+            Board board = positions.get(packs.get(i));
+            Move move = graph.moveLine.get(i);
+            Assert.assertEquals(graph.getBoard(move), board);
+            Assert.assertSame(move, board.getMove());
+            Assert.assertSame(board, positions.get(move));
+        }
+
+        // write-through
+        Board board = positions.get(packs.get(3));
+        board.setInMoves(2);
+        board.setVisited(true);
+        Board copy = board.clone();
+        copy.setMove(null);
+        Board oldBoard = positions.put(packs.get(3), copy);
+        Assert.assertEquals(2, oldBoard.getInMoves());
+        Assert.assertTrue(oldBoard.getVisited());
+        Assert.assertSame(graph.moveLine.get(3), oldBoard.getMove());
+        Assert.assertEquals(0, positions.get(packs.get(3)).getInMoves());
+        Assert.assertNull(positions.get(packs.get(3)).getMove());
+
+        positions.setVisited(true);
+        Assert.assertTrue(positions.get(packs.get(5)).getVisited());
+        Assert.assertTrue(copy.getVisited());
+
+        // removal keeps the other entries reachable, removed boards are detached with their data
+        List<Board> removed = new ArrayList<>();
+        for (int i = 0; i < packs.size(); i += 2) {
+            Board removedBoard = positions.remove(packs.get(i));
+            Assert.assertNotNull(removedBoard);
+            Assert.assertEquals(-1, removedBoard.getPositionId());
+            Assert.assertNull(positions.get(packs.get(i)));
+            removed.add(removedBoard);
+        }
+        Assert.assertEquals(packs.size() / 2, positions.size());
+        Assert.assertEquals(packs.size() / 2, positions.getBoards().size());
+        for (int i = 1; i < packs.size(); i += 2) {
+            Assert.assertEquals(graph.getBoard(graph.moveLine.get(i)), positions.get(packs.get(i)));
+        }
+        Assert.assertNull(positions.remove(packs.get(0)));
+        positions.setVisited(false);
+        for (int i = 0; i < removed.size(); ++i) {
+            Board removedBoard = removed.get(i);
+            Assert.assertTrue(removedBoard.getVisited());
+            Assert.assertSame(graph.moveLine.get(2 * i), removedBoard.getMove());
+        }
+
+        // only the moves of remaining entries are compacted
+        positions.compact();
+        Assert.assertEquals(packs.size() / 2 - 1, positions.getMoveStore().size());    // entry 3 has no move
+        for (int i = 1; i < packs.size(); i += 2) {
+            Assert.assertFalse(positions.get(packs.get(i)).getVisited());
+        }
+        try {
+            positions.remove(packs.get(1));
+            Assert.fail("compact positions removed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testPack() throws Config.PGNException, IOException {
         String fen = "r1bq1rk1/4bppp/p1n2n2/1pppp3/4P3/2PP1N2/PPB2PPP/R1BQRNK1 w - - 0 1";
@@ -0,0 +1,74 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * perft node counts for standard test positions, https://www.chessprogramming.org/Perft_Results
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PerftTest extends BaseTest {
+
+    private void perft(String fen, long[] counts) throws Config.PGNException {
+        Board board = new Board(fen);
+        String initFen = board.toFEN();
+        Perft perft = new Perft(board);
+        for (int depth = 1; depth <= counts.length; ++depth) {
+            Assert.assertEquals(String.format("%s, depth %s", fen, depth), counts[depth - 1], perft.perft(depth));
+            Assert.assertEquals(initFen, board.toFEN());
+        }
+    }
+
+    @Test
+    public void testInitPosition() throws Config.PGNException {
+        perft("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", new long[] {20, 400, 8902, 197281});
+    }
+
+    @Test
+    public void testKiwipete() throws Config.PGNException {
+        perft("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", new long[] {48, 2039, 97862});
+    }
+
+    @Test
+    public void testEnpassantPins() throws Config.PGNException {
+        perft("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", new long[] {14, 191, 2812, 43238});
+    }
+
+    @Test
+    public void testPromotions() throws Config.PGNException {
+        perft("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", new long[] {6, 264, 9467});
+        perft("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", new long[] {44, 1486, 62379});
+    }
+
+    @Test
+    public void testDivide() throws Config.PGNException {
+        Perft perft = new Perft(new Board());
+        List<Pair<String, Long>> divide = perft.divide(3);
+        Assert.assertEquals(20, divide.size());
+        long total = 0;
+        for (Pair<String, Long> entry : divide) {
+            if (entry.first.equals("e2e4")) {
+                Assert.assertEquals(600, (long) entry.second);
+            }
+            total += entry.second;
+        }
+        Assert.assertEquals(8902, total);
+    }
+}
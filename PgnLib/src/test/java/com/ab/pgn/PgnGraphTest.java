@@ -24,16 +24,22 @@ import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Random;
+import java.util.Set;
 
 public class PgnGraphTest extends BaseTest {
     private static final String LOG_DIR_NAME = "log/";
@@ -365,6 +371,143 @@ public class PgnGraphTest extends BaseTest {
         Assert.assertEquals(100, graph.getBoard().getReversiblePlyNum());
     }
 
+    @Test
+    public void testDrawFlags() throws Config.PGNException {
+        String pgn =
+            "[FEN \"4k3/8/8/8/8/7p/8/4K1N1 w - - 96 60\"]\n" +
+            "60. Nf3 Kd7 61. Ng1 Ke8 62. Nf3 Kd7 63. Ng1 Ke8 64. Nf3 Kd7 65. Ng1 Ke8 66. Nf3 Kd7 67. Ng1 Ke8 68. Nxh3" +
+            "\n";
+        List<PgnGraph> graphs = parse2PgnGraphs(pgn);
+        Assert.assertEquals(1, graphs.size());
+        PgnGraph graph = graphs.get(0);
+        int[] expected = {
+            0, 0, 0, Config.FLAGS_50_MOVES,                             // 60. Nf3 Kd7 61. Ng1 Ke8
+            Config.FLAGS_50_MOVES, Config.FLAGS_50_MOVES,               // 62. Nf3 Kd7
+            Config.FLAGS_50_MOVES, Config.FLAGS_50_MOVES | Config.FLAGS_REPETITION,    // 63. Ng1 Ke8
+        };
+        for (int i = 0; i < expected.length; ++i) {
+            Move move = graph.moveLine.get(i + 1);
+            Assert.assertEquals(move.toString(), expected[i], move.moveFlags & Config.DRAW_FLAGS);
+        }
+        Move move = graph.moveLine.get(16);     // 67... Ke8, the 5th occurrence
+        Assert.assertTrue((move.moveFlags & Config.FLAGS_5_FOLD_REPETITION) != 0);
+        Assert.assertEquals(Config.FLAGS_INSUFFICIENT_MATERIAL, graph.getCurrentMove().moveFlags & Config.DRAW_FLAGS);
+
+        // after navigation the repetition count follows the new line
+        graph.toPrev();
+        graph.toPrev();
+        move = new Move(graph.getBoard().getFlags() & Config.FLAGS_BLACK_MOVE);
+        Util.parseMove(move, "Ke7");
+        Assert.assertTrue(graph.validatePgnMove(move));
+        graph.addUserMove(move);
+        Assert.assertEquals(Config.FLAGS_50_MOVES, move.moveFlags & Config.DRAW_FLAGS);
+        graph.toPrev();
+        move = new Move(graph.getBoard().getFlags() & Config.FLAGS_BLACK_MOVE);
+        Util.parseMove(move, "Ke8");
+        Assert.assertTrue(graph.validatePgnMove(move));
+        graph.addUserMove(move);
+        Assert.assertTrue((move.moveFlags & Config.FLAGS_5_FOLD_REPETITION) != 0);
+    }
+
+    @Test
+    public void testLongReversibleLine() throws Config.PGNException, IOException {
+        final int plies = 160;
+        Assert.assertEquals(255, new Board("rn2k1nr/8/8/8/8/8/8/RN2K1NR w - - 300 1").getReversiblePlyNum());    // saturated
+
+        // merge starts from the initial position
+        PgnGraph graph = new PgnGraph();
+        BitStream.Writer snapshot = new BitStream.Writer();
+        graph.serializeSnapshot(snapshot, TEST_SERIALIZATION_VERSION);
+        snapshot.close();
+        ByteArrayOutputStream journalBytes = new ByteArrayOutputStream();
+        GraphJournal journal = new GraphJournal(new FilterOutputStream(journalBytes));
+        graph.setJournal(journal);
+        graph.toInit();
+
+        for (Move move : getReversibleLine(plies)) {
+            Assert.assertTrue(graph.validateUserMove(move));    // sets ambiguity flags for toPgn
+            graph.addUserMove(move);
+        }
+        assertReversibleFlags(graph, plies);     // along moveLine
+
+        PgnGraph restored = new PgnGraph(new BitStream.Reader(snapshot), TEST_SERIALIZATION_VERSION);
+        Assert.assertEquals(journal.getRecords(), restored.replayJournal(new BitStream.Reader(journalBytes.toByteArray())));
+        assertReversibleFlags(restored, plies);
+
+        BitStream.Writer writer = new BitStream.Writer();
+        graph.serializeGraph(writer, TEST_SERIALIZATION_VERSION);
+        writer.close();
+        assertReversibleFlags(new PgnGraph(new BitStream.Reader(writer), TEST_SERIALIZATION_VERSION), plies);
+
+        String fName = "reversible-line.pgn";
+        PrintStream ps = new PrintStream(new FileOutputStream(TEST_TMP_ROOT + fName));
+        ps.print(String.format("[Event \"reversible\"]\n\n%s\n\n", graph.toPgn()));
+        ps.close();
+        currentRootPath = TEST_TMP_ROOT;
+        PgnGraph merged = new PgnGraph();
+        merged.addUserMove(graph.moveLine.get(1).clone());
+        PgnGraph.MergeData md = new PgnGraph.MergeData((CpFile.PgnFile)CpFile.fromPath(fName));
+        md.workerThreads = 0;
+        merged.merge(md);
+        Assert.assertEquals(1, md.merged);
+        assertReversibleFlags(merged, plies);
+    }
+
+    // knight and rook moves from the initial position without repeated positions
+    private List<Move> getReversibleLine(int plies) {
+        Random random = new Random(1);
+        while (true) {
+            Board board = new Board();
+            Set<Long> keys = new HashSet<>();
+            keys.add(board.getPositionKey());
+            List<Move> line = new ArrayList<>();
+            while (line.size() < plies) {
+                IntMoveList moves = new IntMoveList();
+                board.generateLegalMoves(moves);
+                List<Move> candidates = new ArrayList<>();
+                for (int i = 0; i < moves.size(); ++i) {
+                    Move move = board.toMove(moves.get(i));
+                    if (MoveLine.isIrreversible(move)) {
+                        continue;
+                    }
+                    Board next = board.clone();
+                    next.doMove(move.clone());
+                    if (!keys.contains(next.getPositionKey())) {
+                        candidates.add(move);
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    break;      // dead end, start again
+                }
+                Move move = candidates.get(random.nextInt(candidates.size()));
+                line.add(move.clone());
+                board.doMove(move);
+                keys.add(board.getPositionKey());
+            }
+            if (line.size() == plies) {
+                return line;
+            }
+        }
+    }
+
+    private void assertReversibleFlags(PgnGraph graph, int plies) {
+        Board board = graph.getInitBoard();
+        for (int ply = 1; ply <= plies; ++ply) {
+            Move move = board.getMove();
+            Assert.assertNotNull(String.format("ply %d", ply), move);
+            int expected = 0;
+            if (ply >= DrawDetector.FIFTY_MOVES_PLIES) {
+                expected |= Config.FLAGS_50_MOVES;
+            }
+            if (ply >= DrawDetector.SEVENTY_FIVE_MOVES_PLIES) {
+                expected |= Config.FLAGS_75_MOVES;
+            }
+            Assert.assertEquals(String.format("ply %d", ply), expected, move.moveFlags & (Config.FLAGS_50_MOVES | Config.FLAGS_75_MOVES));
+            board = graph.getBoard(move);
+            Assert.assertEquals(ply, board.getReversiblePlyNum());
+        }
+    }
+
     @Test
     public void testMerge_SicilianMisc2() throws Config.PGNException {
         String pgn =
@@ -457,15 +600,16 @@ public class PgnGraphTest extends BaseTest {
             Pack pack = null;
             for (Move m : graph.moveLine) {
                 if (pack == null) {
-                    pack = new Pack(m.packData);  // init board
+                    pack = m.getPack();  // init board
                     continue;
                 }
                 Board b = graph.positions.remove(pack);
                 String x = b.toString();
                 logger.debug(x);
-                pack = new Pack(m.packData);  // init board
+                pack = m.getPack();
             }
             graph.rootMove.packData = graph.moveLine.getLast().packData;
+            graph.rootMove.positionKey = graph.moveLine.getLast().positionKey;
             mergedGraphs[++i] = graph;
         }
         for (i = 1; i < mergedGraphs.length; ++i) {
@@ -504,6 +648,143 @@ public class PgnGraphTest extends BaseTest {
         ps.close();
     }
 
+    @Test
+    public void testMergeParallel() throws Config.PGNException, IOException {
+        String[] games = {
+            "1.e4 e5 2.Nf3 Nc6 3.Bb5 {Spanish} a6 (3... Nf6 4.O-O Nxe4) 4.Ba4 Nf6 $1",
+            "1.e4 c5 2.Nf3 d6 3.d4 cxd4",
+            "1.Nf3 Nc6 2.e4 e5 3.Bc4 {transposition} Bc5 (3... Nf6 4.Ng5 d5 5.exd5 Nxd5) 4.c3",
+            "1.e4 e5 2.Nf3 Nc6 3.d4 exd4 4.Nxd4 Nf6 5.Nxc6 bxc6",
+            "1.d4 d5 2.c4 e6 (2... dxc4 3.e4) 3.Nc3",
+            "1.e4 e5 2.Nf3 Nc6 3.Bc4 Bc5 (3... Nf6 4.Ng5 d5 5.exd5 Na5) 4.b4 Bxb4 5.c3",
+        };
+        String[] results = {"1-0", "0-1", "1/2-1/2", "*"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 60; ++i) {
+            String result = results[i % results.length];
+            sb.append(String.format("[Event \"game %d\"]\n[White \"White%d, A\"]\n[Black \"Black%d, B\"]\n[Result \"%s\"]\n\n%s %s\n\n",
+                i, i % 5, i % 7, result, games[i % games.length], result));
+        }
+        String fName = "merge-parallel.pgn";
+        PrintStream ps = new PrintStream(new FileOutputStream(TEST_TMP_ROOT + fName));
+        ps.print(sb);
+        ps.close();
+        currentRootPath = TEST_TMP_ROOT;
+
+        PgnGraph[] graphs = new PgnGraph[2];
+        int[] merged = new int[2];
+        String[] pgns = new String[2];
+        for (int i = 0; i < graphs.length; ++i) {
+            graphs[i] = new PgnGraph();
+            graphs[i].parseMoves("e4 e5 Nf3 Nc6");
+            CpFile.PgnFile pgnFile = (CpFile.PgnFile)CpFile.fromPath(fName);
+            PgnGraph.MergeData md = new PgnGraph.MergeData(pgnFile);
+            md.annotate = true;
+            md.workerThreads = i * 3;     // sequential, then 3 worker threads
+            graphs[i].merge(md);
+            merged[i] = md.merged;
+            pgns[i] = graphs[i].toPgn();
+            Assert.assertEquals(0, graphs[i].getNumberOfMissingVertices());
+        }
+        Assert.assertEquals(40, merged[0]);
+        Assert.assertEquals(merged[0], merged[1]);
+        Assert.assertTrue(areEqual(graphs[0], graphs[1]));
+        Assert.assertEquals(pgns[0], pgns[1]);
+        Assert.assertTrue(pgns[0].contains("w="));
+    }
+
+    @Test
+    public void testMergeParallelCommonComment() throws Config.PGNException, IOException {
+        String[] games = {
+            "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4 Nf6",
+            "1.e4 c5 2.Nf3 d6 3.d4 cxd4",
+            "1.Nf3 Nc6 2.e4 e5 3.Bc4 Bc5 4.c3",
+            "1.e4 e5 2.Nf3 Nc6 3.d4 exd4 4.Nxd4 Nf6",
+            "1.d4 d5 2.c4 e6 3.Nc3",
+        };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 60; ++i) {
+            sb.append(String.format("[Event \"game %d\"]\n\n%s *\n\n", i, games[i % games.length]));
+        }
+        String fName = "merge-parallel-comment.pgn";
+        PrintStream ps = new PrintStream(new FileOutputStream(TEST_TMP_ROOT + fName));
+        ps.print(sb);
+        ps.close();
+        currentRootPath = TEST_TMP_ROOT;
+
+        String[] pgns = new String[2];
+        for (int i = 0; i < pgns.length; ++i) {
+            PgnGraph graph = new PgnGraph();
+            graph.parseMoves("e4 e5 Nf3 Nc6");
+            CpFile.PgnFile pgnFile = (CpFile.PgnFile)CpFile.fromPath(fName);
+            // onNewItem is called ahead of the merge by the parallel one
+            PgnGraph.MergeData md = new PgnGraph.MergeData(pgnFile) {
+                String commonComment;
+
+                @Override
+                public PgnGraph.MergeState onNewItem(CpFile.PgnItem pgnItem) {
+                    commonComment = pgnItem.getTag(Config.TAG_Event);
+                    return super.onNewItem(pgnItem);
+                }
+
+                @Override
+                public String getCommonComment() {
+                    return commonComment;
+                }
+            };
+            md.workerThreads = i * 3;     // sequential, then 3 worker threads
+            graph.merge(md);
+            pgns[i] = graph.toPgn();
+        }
+        logger.debug(pgns[0]);
+        Assert.assertTrue(pgns[0].contains("{game 0}"));
+        Assert.assertEquals(pgns[0], pgns[1]);
+    }
+
+    @Test
+    public void testMergeStatistics() throws Config.PGNException, IOException {
+        String[][] games = {
+            // result, moves
+            {"1-0", "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4"},
+            {"0-1", "1.e4 e5 2.Nf3 Nc6 3.Bb5 Nf6 4.O-O"},
+            {"1/2-1/2", "1.e4 e5 2.Nf3 Nc6 3.Bc4 Bc5 4.c3"},
+            {"1-0", "1.Nf3 Nc6 2.e4 e5 3.Bb5 a6 4.Ba4"},     // transposition
+            {"*", "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4"},       // unknown result
+        };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < games.length; ++i) {
+            sb.append(String.format("[Event \"game %d\"]\n[Result \"%s\"]\n\n%s %s\n\n", i, games[i][0], games[i][1], games[i][0]));
+        }
+        String fName = "merge-statistics.pgn";
+        PrintStream ps = new PrintStream(new FileOutputStream(TEST_TMP_ROOT + fName));
+        ps.print(sb);
+        ps.close();
+        currentRootPath = TEST_TMP_ROOT;
+
+        PgnGraph graph = new PgnGraph();
+        graph.parseMoves("e4 e5 Nf3 Nc6 Bb5");
+        graph.getCurrentMove().comment = "Spanish; w=10; b=5; d=3";
+        graph.toPrev();
+        CpFile.PgnFile pgnFile = (CpFile.PgnFile)CpFile.fromPath(fName);
+        PgnGraph.MergeData md = new PgnGraph.MergeData(pgnFile);
+        md.annotate = true;
+        md.workerThreads = 0;
+        graph.merge(md);
+        logger.debug(graph.toPgn());
+        Assert.assertEquals(5, md.merged);
+
+        // counted on the moves leaving positions that already had a move, as with per-game comment updates
+        List<Move> moveLine = navigate(graph, "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4");
+        Assert.assertEquals("Spanish; w=12; b=6; d=3", moveLine.get(4).comment);
+        Assert.assertEquals("w=1; b=0; d=0", moveLine.get(5).comment);
+        Assert.assertEquals("w=1; b=0; d=0", moveLine.get(6).comment);
+        moveLine = navigate(graph, "1.e4 e5 2.Nf3 Nc6 3.Bb5 Nf6");
+        Assert.assertEquals("w=0; b=1; d=0", moveLine.get(5).comment);
+        moveLine = navigate(graph, "1.e4 e5 2.Nf3 Nc6 3.Bc4 Bc5 4.c3");
+        Assert.assertEquals("w=0; b=0; d=1", moveLine.get(4).comment);
+        Assert.assertNull(moveLine.get(5).comment);
+    }
+
     @Test
     public void testMerge_MaxLangeAttackMain() throws Config.PGNException {
         Board.DEBUG = false;
@@ -654,6 +935,140 @@ public class PgnGraphTest extends BaseTest {
         PgnLogger.setFile(null);
     }
 
+    @Test
+    public void testSerializeDeepGraph() throws Config.PGNException, IOException, InterruptedException {
+        final int cycles = 300;     // 1200 plies in the main line and a variation for every other move
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cycles; ++i) {
+            int n = 2 * i + 1;
+            sb.append(String.format("%d.Nf3 Nf6 (%d... Nc6 %d.Nc3) %d.Ng1 Ng8 ", n, n, n + 1, n + 1));
+        }
+        final CpFile.PgnItem pgnItem = new CpFile.PgnItem(null);
+        pgnItem.setMoveText(new String(sb));
+        pgnItem.setTag(Config.TAG_White, "deep");
+        final PgnGraph graph = new PgnGraph(pgnItem);
+        Assert.assertNull(graph.getParsingError());
+        Assert.assertEquals(4 * cycles + 1, graph.moveLine.size());
+
+        final BitStream.Writer writer = new BitStream.Writer();
+        final BitStream.Writer moveLineWriter = new BitStream.Writer();
+        final PgnGraph[] res = new PgnGraph[2];
+        final Throwable[] error = new Throwable[1];
+        // small stack like on Android background threads
+        Thread thread = new Thread(null, () -> {
+            try {
+                graph.serializeGraph(writer, TEST_SERIALIZATION_VERSION);
+                writer.close();
+                graph.serializeMoveLine(moveLineWriter, TEST_SERIALIZATION_VERSION);
+                moveLineWriter.close();
+                res[1] = new PgnGraph(new BitStream.Reader(writer), TEST_SERIALIZATION_VERSION, (head) -> {
+                    try {
+                        head.unserializeMoveLine(new BitStream.Reader(moveLineWriter), TEST_SERIALIZATION_VERSION);
+                    } catch (Config.PGNException | IOException e) {
+                        error[0] = e;
+                    }
+                    res[0] = head;
+                });
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "testSerializeDeepGraph", 32 * 1024);
+        thread.start();
+        thread.join();
+        Assert.assertNull(error[0]);
+
+        PgnGraph head = res[0];
+        Assert.assertEquals("deep", head.getPgnItem().getTag(Config.TAG_White));
+        Assert.assertEquals(graph.moveLine.size(), head.moveLine.size());
+        Assert.assertEquals(graph.getBoard(), head.getBoard());
+
+        PgnGraph unserialized = res[1];
+        Assert.assertTrue(areEqual(graph, unserialized));
+        unserialized.unserializeMoveLine(new BitStream.Reader(moveLineWriter), TEST_SERIALIZATION_VERSION);
+        Assert.assertEquals(graph.getBoard(), unserialized.getBoard());
+    }
+
+    @Test
+    public void testJournal() throws Config.PGNException, IOException {
+        CpFile.PgnItem pgnItem = new CpFile.PgnItem(null);
+        pgnItem.setMoveText("{journal test} 1.e4 e5 2.Nf3 (2.Bc4 Nc6) 2. ... Nc6 3.Bb5 a6 *");
+        PgnGraph graph = new PgnGraph(pgnItem);
+        BitStream.Writer snapshot = new BitStream.Writer();
+        graph.serializeSnapshot(snapshot, TEST_SERIALIZATION_VERSION);
+        snapshot.close();
+
+        // other serializations keep the snapshot id
+        BitStream.Writer copy = new BitStream.Writer();
+        graph.serializeGraph(copy, TEST_SERIALIZATION_VERSION);
+        copy.close();
+        Assert.assertArrayEquals(snapshot.getBits(), copy.getBits());
+
+        ByteArrayOutputStream journalBytes = new ByteArrayOutputStream();
+        // BitStream.Writer replaces ByteArrayOutputStream with its own
+        GraphJournal journal = new GraphJournal(new FilterOutputStream(journalBytes));
+        graph.setJournal(journal);
+        graph.toInit();
+        graph.setComment("root comment");
+        graph.toNext();
+        graph.toNext();
+        addUserMove(graph, "Nc3");
+        graph.setGlyph(TEST_GLYPH);
+        graph.setComment(TEST_COMMENT);
+        addUserMove(graph, "Nf6");
+        List<Pair<String, String>> tags = new ArrayList<>(graph.getPgnItem().getTags());
+        tags.add(new Pair<>(Config.TAG_White, "journal"));
+        graph.setTags(tags);
+        int records = journal.getRecords();
+        Assert.assertEquals(7, records);    // snapshot id and 6 edits
+
+        // next session appends to the same journal
+        journal = new GraphJournal(new FilterOutputStream(journalBytes));
+        graph.setJournal(journal);
+        graph.toInit();
+        graph.toNext();
+        graph.toNext();
+        graph.toNext();
+        graph.toNext();
+        graph.toNext();
+        Assert.assertEquals("Bb5", graph.getCurrentMove().toString().trim());
+        graph.delCurrentMove();
+        graph.setModified(false);
+        records += journal.getRecords();
+        Assert.assertTrue(journal.isValid());
+
+        PgnGraph restored = new PgnGraph(new BitStream.Reader(snapshot), TEST_SERIALIZATION_VERSION);
+        Assert.assertEquals(records, restored.replayJournal(new BitStream.Reader(journalBytes.toByteArray())));
+        Assert.assertTrue(areEqual(graph, restored));
+        Assert.assertEquals(graph.toPgn(), restored.toPgn());
+        Assert.assertEquals("journal", restored.getPgnItem().getTag(Config.TAG_White));
+        Assert.assertFalse(restored.isModified());
+
+        // a new snapshot written, the old journal is not truncated yet
+        BitStream.Writer newSnapshot = new BitStream.Writer();
+        graph.serializeSnapshot(newSnapshot, TEST_SERIALIZATION_VERSION);
+        newSnapshot.close();
+        restored = new PgnGraph(new BitStream.Reader(newSnapshot), TEST_SERIALIZATION_VERSION);
+        String pgn = restored.toPgn();
+        try {
+            restored.replayJournal(new BitStream.Reader(journalBytes.toByteArray()));
+            Assert.fail("journal of the old snapshot replayed");
+        } catch (Config.PGNException e) {
+            // expected
+        }
+        Assert.assertEquals(pgn, restored.toPgn());
+        Assert.assertTrue(areEqual(graph, restored));
+
+        graph.parseMoves("Bc4");
+        Assert.assertFalse(journal.isValid());
+    }
+
+    private void addUserMove(PgnGraph graph, String moveText) throws Config.PGNException {
+        Move move = new Move(graph.getBoard().getFlags() & Config.FLAGS_BLACK_MOVE);
+        Util.parseMove(move, moveText);
+        Assert.assertTrue(graph.validatePgnMove(move));
+        graph.addUserMove(move);
+    }
+
     @Test
     public void test_withIndent() {
         System.out.println("0         1         2         3         4");
@@ -685,6 +1100,185 @@ public class PgnGraphTest extends BaseTest {
         logger.debug(String.format("draw, %s", move.comment));
     }
 
+    @Test
+    public void testLongMoveLine() throws Config.PGNException, IOException {
+        final int cycles = 300;     // 1200 plies
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cycles; ++i) {
+            sb.append("Nf3 Nf6 Ng1 Ng8 ");
+        }
+        PgnGraph graph = new PgnGraph();
+        graph.parseMoves(new String(sb));
+        Assert.assertEquals(4 * cycles + 1, graph.moveLine.size());
+        Assert.assertEquals("Ng8", graph.moveLine.get(4 * cycles).toString().trim());
+        Assert.assertEquals(graph.moveLine.getPositionKey(0), graph.moveLine.getPositionKey(4 * cycles));
+        Assert.assertEquals(0, graph.moveLine.getLastIrreversible(4 * cycles));
+
+        BitStream.Writer writer = new BitStream.Writer();
+        graph.serializeMoveLine(writer, 1);
+        graph.toInit();
+        Assert.assertEquals(1, graph.moveLine.size());
+        graph.unserializeMoveLine(new BitStream.Reader(writer), 1);
+        Assert.assertEquals(4 * cycles + 1, graph.moveLine.size());
+        Assert.assertEquals("Ng8", graph.getCurrentMove().toString().trim());
+
+        // repetitions after navigation
+        graph.toInit();
+        graph.parseMoves("e4 e5 Nf3 Nc6 Ng1 Nb8");
+        Assert.assertEquals(3, graph.moveLine.getLastIrreversible(graph.moveLine.size() - 1) + 1);
+        graph.delCurrentMove();
+        graph.parseMoves("Nb8 Nf3 Nc6 Ng1");
+        Assert.assertTrue((graph.getCurrentMove().moveFlags & Config.FLAGS_REPETITION) == 0);
+        graph.parseMoves("Nb8");
+        Assert.assertTrue((graph.getCurrentMove().moveFlags & Config.FLAGS_REPETITION) != 0);
+    }
+
+    @Test
+    public void testLazyVariations() throws Config.PGNException {
+        String[] moveTexts = {
+            "{Lazy test} 1.e4 e5 (1... c5 {Sicilian} 2.Nf3 (2.Nc3 Nc6 (2... d6) 3.f4) d6) (1... e6 2.d4 d5) 2.Nf3 {main} Nc6 (2... Nf6 3.Nxe5 (3.Nc3 Nc6)) 3.Bb5 a6 *",
+            // transpositions
+            "1.e4 e5 2.Nf3 {main} (2.Bc4 {v1} Nc6 {v1} 3.Nf3 {v1} Nf6 {v1} $4 4.c3{v1} $7) (2.Bc4 {v2} Nf6 {v2} 3.Nf3 {v2} Nc6 {v2} $20 4.c3{v2} $21) 2. ... Nc6 {main} 3.Bc4{main} Nf6{main} $5 4.c3{main}",
+            // a variation transposes into a main line position with its own lazy variations
+            "1.e4 (1.Nf3 Nc6 2.e4 e5 3.Bb5) (1.d4) 1...e5 2.Nf3 Nc6 3.Bc4 (3.Bb5) Nf6 *",
+        };
+        for (int i = 0; i < moveTexts.length; ++i) {
+            String moveText = moveTexts[i];
+            CpFile.PgnItem pgnItem = new CpFile.PgnItem(null);
+            pgnItem.setMoveText(moveText);
+            PgnGraph graph = new PgnGraph(pgnItem);
+            PgnGraph lazyGraph = new PgnGraph(pgnItem, true);
+            Assert.assertTrue(lazyGraph.hasLazyVariations());
+            Assert.assertTrue(lazyGraph.positions.size() < graph.positions.size());
+            Assert.assertEquals(graph.moveLine.size(), lazyGraph.moveLine.size());
+            Assert.assertEquals(graph.getBoard(), lazyGraph.getBoard());
+
+            // variations are parsed when visited
+            graph.toInit();
+            lazyGraph.toInit();
+            List<Move> variations;
+            while ((variations = graph.getVariations()) == null) {
+                graph.toNext();
+                lazyGraph.toNext();
+            }
+            List<Move> lazyVariations = lazyGraph.getVariations();
+            Assert.assertEquals(variations.size(), lazyVariations.size());
+            lazyGraph.toVariation(lazyVariations.get(1));
+            Assert.assertSame(lazyVariations.get(1), lazyGraph.getCurrentMove());
+            Assert.assertTrue(variations.get(1).isSameAs(lazyGraph.getCurrentMove()));
+            Assert.assertFalse(lazyGraph.isModified());
+
+            String pgn = lazyGraph.toPgn();
+            if (i == 0) {
+                Assert.assertEquals(graph.toPgn(), pgn);
+            }   // else transpositions are parsed in another order, with comments and glyphs merged differently
+            Assert.assertEquals(0, lazyGraph.getNumberOfMissingVertices());
+            Assert.assertFalse(lazyGraph.hasLazyVariations());
+            Assert.assertEquals(graph.positions.size(), lazyGraph.positions.size());
+        }
+    }
+
+    @Test
+    public void testLazyFirstMoveVariations() throws Config.PGNException {
+        String[] moveTexts = {
+            "{start} ({before} 1.d4 d5) {after d5} 1.e4 e5 2.Nf3 *",
+            "1.e4 (1.d4 {v} d5 (1...Nf6 {x}) {after Nf6}) {after d5} $1 1...e5 (1...c5 {s} 2.Nf3) !? {after Nf3} 2.Nf3 *",
+            "{start} (1.d4) (1.c4 e5) 1.e4 *",
+            "{no main line} (1.d4 d5)",
+        };
+        for (String moveText : moveTexts) {
+            CpFile.PgnItem pgnItem = new CpFile.PgnItem(null);
+            pgnItem.setMoveText(moveText);
+            PgnGraph graph = new PgnGraph(pgnItem);
+            PgnGraph lazyGraph = new PgnGraph(pgnItem, true);
+            Assert.assertNull(graph.getParsingError());
+            Assert.assertNull(lazyGraph.getParsingError());
+            Assert.assertEquals(graph.moveLine.size(), lazyGraph.moveLine.size());
+            graph.toInit();
+            lazyGraph.toInit();
+            List<Move> variations = graph.getVariations();
+            List<Move> lazyVariations = lazyGraph.getVariations();
+            Assert.assertEquals(variations == null, lazyVariations == null);
+            if (variations != null) {
+                Assert.assertEquals(variations.size(), lazyVariations.size());
+            }
+            Assert.assertEquals(graph.getComment(), lazyGraph.getComment());
+            Assert.assertEquals(graph.toPgn(), lazyGraph.toPgn());
+            Assert.assertTrue(areEqual(graph, lazyGraph));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Config.PGNException {
+        String pgn =
+            "[White \"compact\"]\n" +
+            "[Black \"variations\"]\n" +
+            "{Compact test}" +
+            "1.e4 e5 2.Nf3 {main} (2.Bc4 {v1} Nc6 {v1} 3.Nf3 {v1} Nf6 {v1} $4 4.c3{v1} $7) (2.Bc4 {v2} Nf6 {v2} 3.Nf3 {v2} Nc6 {v2} $20 4.c3{v2} $21) 2. ... Nc6 {main} 3.Bc4{main} Nf6{main} $5 4.c3{main}\n" +
+            "\n";
+        PgnGraph graph = parse2PgnGraphs(pgn).get(0);
+        String expected = graph.toPgn();
+        PgnGraph compactGraph = parse2PgnGraphs(pgn).get(0);
+        compactGraph.compact();
+        Assert.assertTrue(compactGraph.isCompact());
+        Assert.assertEquals(expected, compactGraph.toPgn());
+        Assert.assertEquals(0, compactGraph.getNumberOfMissingVertices());
+        Assert.assertTrue(areEqual(graph, compactGraph));
+
+        MoveStore moveStore = compactGraph.positions.getMoveStore();
+        Assert.assertEquals(compactGraph.positions.size() - 1 + 2, moveStore.size());     // transpositions
+        Assert.assertEquals(6, moveStore.getCommentPoolSize());      // repeated comments are stored once
+
+        // navigation through views
+        Board board = compactGraph.getInitBoard();
+        Move move = board.getMove();
+        Assert.assertEquals("e4", move.toString().trim());
+        board = compactGraph.getBoard(move);
+        Assert.assertEquals(1, board.getPlyNum());
+        move = compactGraph.getBoard(board.getMove()).getMove();
+        Assert.assertEquals("Nf3", move.toString().trim());
+        Assert.assertEquals("main", move.comment);
+        Assert.assertEquals("Bc4", move.getVariation().toString().trim());
+        Assert.assertNull(move.getVariation().getVariation());
+
+        // views keep identity
+        Assert.assertSame(move, compactGraph.getBoard(board.getMove()).getMove());
+        Assert.assertSame(move.getVariation(), compactGraph.getBoard(board.getMove()).getMove().getVariation());
+        compactGraph.toInit();
+        compactGraph.toNext();
+        compactGraph.toNext();
+        compactGraph.toVariation(move.getVariation());
+        Assert.assertSame(move.getVariation(), compactGraph.getCurrentMove());
+
+        try {
+            compactGraph.addMove(new Move(board, new Square("d2"), new Square("d4")));
+            Assert.fail("compact graph modified");
+        } catch (Config.PGNException e) {
+            // expected
+        }
+        Assert.assertFalse(compactGraph.okToSetGlyph());
+        try {
+            compactGraph.setComment("lost");
+            Assert.fail("compact graph comment modified");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            compactGraph.setGlyph(1);
+            Assert.fail("compact graph glyph modified");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            compactGraph.delCurrentMove();
+            Assert.fail("compact graph move deleted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(4, compactGraph.moveLine.size());
+        Assert.assertEquals(expected, compactGraph.toPgn());
+    }
+
     @Test
     @Ignore("can run only after runBookBuilder()")
     public void testBook() throws Config.PGNException, IOException {
@@ -0,0 +1,161 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * Search, MateSolver and JavaEngine
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import com.ab.pgn.uci.JavaEngine;
+import com.ab.pgn.uci.UCI;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SearchTest extends BaseTest {
+
+    private String bestMove(String fen, int depth) throws Config.PGNException {
+        Search search = new Search(1);
+        search.setPosition(new Board(fen));
+        return IntMoveList.toString(search.go(depth, 0, 0, null));
+    }
+
+    @Test
+    public void testMates() throws Config.PGNException {
+        Assert.assertEquals("d1d8", bestMove("6k1/5ppp/8/8/8/8/8/3R2K1 w - - 0 1", 3));
+        Assert.assertEquals("h5f7", bestMove("r1bqkbnr/pppp1ppp/2n5/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 0 1", 3));
+        // mate in 2
+        Search search = new Search(1);
+        search.setPosition(new Board("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1"));     // Morphy
+        final int[] lastScore = new int[1];
+        int move = search.go(5, 0, 0, (depth, selDepth, score, nodes, msec, pv) -> lastScore[0] = score);
+        Assert.assertEquals("a1a6", IntMoveList.toString(move));
+        Assert.assertEquals(2, Search.getMateMoves(lastScore[0]));
+    }
+
+    @Test
+    public void testMaterial() throws Config.PGNException {
+        // hanging queen
+        Assert.assertEquals("d4d8", bestMove("3q2k1/5ppp/8/8/3Q4/8/5PPP/6K1 w - - 0 1", 4));
+        Search search = new Search(1);
+        search.setPosition(new Board());
+        Assert.assertEquals(0, search.evaluate());
+        Assert.assertTrue(search.makeMove("e2e4"));
+        Assert.assertFalse(search.makeMove("e2e4"));
+        Assert.assertTrue(search.evaluate() < 0);      // black to move
+    }
+
+    @Test
+    public void testNoMoves() throws Config.PGNException {
+        Search search = new Search(1);
+        search.setPosition(new Board("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1"));     // stalemate
+        Assert.assertEquals(0, search.go(3, 0, 0, null));
+        Assert.assertFalse(search.isCheck());
+    }
+
+    @Test
+    public void testFindMate() throws Config.PGNException {
+        IntMoveList solutions = new IntMoveList();
+        Board board = new Board("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1");     // Morphy
+        String fen = board.toFEN();
+        Assert.assertEquals(0, board.findMate(1));
+        Assert.assertEquals(2, board.findMate(3, solutions));
+        Assert.assertEquals("a1a6", solutions.toString());
+        Assert.assertEquals(fen, board.toFEN());
+
+        board = new Board("6k1/5ppp/8/8/8/8/8/R2R2K1 w - - 0 1");
+        Assert.assertEquals(1, board.findMate(2, solutions));
+        Assert.assertEquals(2, solutions.size());
+        // Qg6 stalemates
+        Assert.assertEquals(0, new Board("7k/8/8/6Q1/8/8/8/K7 w - - 0 1").findMate(1));
+    }
+
+    @Test
+    public void testPuzzleVerifier() throws Config.PGNException {
+        String pgn =
+            "[Event \"correct\"]\n[FEN \"kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1\"]\n\n1. Ra6 bxa6 2. b7# *\n\n" +
+            "[Event \"alternative\"]\n[FEN \"6k1/5ppp/8/8/8/8/8/R2R2K1 w - - 0 1\"]\n\n1. Rd8# *\n\n" +
+            "[Event \"broken\"]\n[FEN \"kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1\"]\n\n1. Ra2 *\n";
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        List<PuzzleVerifier.Result> results = new PuzzleVerifier(3, 2).verify(new ByteArrayInputStream(pgn.getBytes()), os);
+        Assert.assertEquals(3, results.size());
+        Assert.assertNull(results.get(0).getProblem());
+        Assert.assertEquals(2, results.get(0).getMateIn());
+        Assert.assertEquals(1, results.get(1).getMateIn());
+        Assert.assertNotNull(results.get(1).getProblem());
+        Assert.assertNotNull(results.get(2).getProblem());
+        String out = os.toString();
+        Assert.assertFalse(out.contains("correct"));
+        Assert.assertTrue(out.contains("alternative") && out.contains("broken") && out.contains(PuzzleVerifier.TAG_PROBLEM));
+    }
+
+    @Test
+    public void testJavaEngine() throws Config.PGNException, IOException, InterruptedException {
+        final Board board = new Board("6k1/5ppp/8/8/8/8/8/3R2K1 w - - 0 1");
+        final List<UCI.IncomingInfoMessage> messages = new ArrayList<>();
+        final CountDownLatch engineOk = new CountDownLatch(1);
+        final CountDownLatch analysis = new CountDownLatch(1);
+        final List<String> errors = new ArrayList<>();     // reported on the engine thread, checked here
+        UCI uci = new UCI(new UCI.EngineWatcher() {
+            @Override
+            public Board getCurrentBoard() {
+                return board;
+            }
+
+            @Override
+            public void engineOk() {
+                engineOk.countDown();
+            }
+
+            @Override
+            public void acceptAnalysis(UCI.IncomingInfoMessage incomingInfoMessage) {
+                synchronized (messages) {
+                    messages.add(incomingInfoMessage);
+                }
+                analysis.countDown();
+            }
+
+            @Override
+            public void reportError(String message) {
+                synchronized (errors) {
+                    errors.add(message);
+                }
+            }
+        }, new JavaEngine());
+        Assert.assertTrue(engineOk.await(5, TimeUnit.SECONDS));
+        uci.doAnalysis(true);
+        boolean analyzed = analysis.await(5, TimeUnit.SECONDS);
+        uci.doAnalysis(false);
+        uci.shutDown();
+        Assert.assertTrue("no analysis in 5 sec", analyzed);
+        synchronized (errors) {
+            Assert.assertTrue(errors.toString(), errors.isEmpty());
+        }
+        synchronized (messages) {
+            Assert.assertFalse(messages.isEmpty());
+            Assert.assertTrue(messages.get(0).getMoves().startsWith("d1d8"));
+            Assert.assertEquals(1, messages.get(0).score);
+        }
+    }
+}
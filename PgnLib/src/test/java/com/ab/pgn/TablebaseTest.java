@@ -0,0 +1,197 @@
+/*
+     Copyright (C) 2021-2022	Alexander Bootman, alexbootman@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ * Tablebase and TablebaseGenerator on small generated tables
+ * Created by Alexander Bootman on 10/18/26.
+ */
+package com.ab.pgn;
+
+import com.ab.pgn.uci.UCI;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TablebaseTest extends BaseTest {
+
+    private Tablebase generate(String... names) throws Config.PGNException {
+        File dir = new File(TEST_TMP_ROOT, "tb");
+        dir.mkdirs();
+        TablebaseGenerator generator = new TablebaseGenerator(dir);
+        for (String name : names) {
+            Assert.assertTrue(generator.generate(name).exists());
+        }
+        return new Tablebase(dir);
+    }
+
+    private int probe(Tablebase tablebase, String fen) throws Config.PGNException {
+        return tablebase.probe(new Board(fen));
+    }
+
+    @Test
+    public void testMates() throws Config.PGNException {
+        Tablebase tablebase = generate("KQvK");
+        int value = probe(tablebase, "8/8/8/8/8/8/8/k1K4Q w - - 0 1");
+        Assert.assertEquals(1, Tablebase.getMateMoves(value));
+        Assert.assertEquals("h1a8", tablebase.getPv(new Board("8/8/8/8/8/8/8/k1K4Q w - - 0 1"), 10));
+        // colors reversed
+        Assert.assertEquals(1, Tablebase.getMateMoves(probe(tablebase, "K1k4q/8/8/8/8/8/8/8 b - - 0 1")));
+        Assert.assertEquals(0, Tablebase.getPlies(probe(tablebase, "k7/1Q6/1K6/8/8/8/8/8 b - - 0 1")));   // mated
+        Assert.assertEquals(Tablebase.DRAW, probe(tablebase, "k7/8/1QK5/8/8/8/8/8 b - - 0 1"));           // stalemate
+        Assert.assertEquals(Tablebase.DRAW, probe(tablebase, "k7/1Q6/8/8/8/8/8/7K b - - 0 1"));           // Kxb7
+        // longest KQK mate is 10 moves
+        value = probe(tablebase, "8/8/8/3k4/8/8/8/Q6K w - - 0 1");
+        Assert.assertTrue(Tablebase.isWin(value));
+        Assert.assertTrue(Tablebase.getMateMoves(value) <= 10);
+        Board board = new Board("8/8/8/3k4/8/8/8/Q6K b - - 0 1");
+        value = tablebase.probe(board);
+        Assert.assertFalse(Tablebase.isWin(value));
+        String[] pv = tablebase.getPv(board, 40).split(" ");
+        Assert.assertEquals(Tablebase.getPlies(value), pv.length);
+
+        Assert.assertEquals(Tablebase.NOT_FOUND, probe(tablebase, "8/8/8/3k4/8/8/8/R6K w - - 0 1"));
+        Assert.assertEquals(Tablebase.NOT_FOUND, probe(tablebase, "r3k3/8/8/8/8/8/8/Q6K w q - 0 1"));
+        Assert.assertEquals(Tablebase.DRAW, probe(tablebase, "8/8/8/3k4/8/8/8/N6K w - - 0 1"));
+    }
+
+    @Test
+    public void testPawnAndUci() throws Config.PGNException, IOException, InterruptedException {
+        Tablebase tablebase = generate("KQvK", "KRvK", "KPvK");
+        Assert.assertTrue(Tablebase.getMateMoves(probe(tablebase, "4k3/8/4K3/4P3/8/8/8/8 b - - 0 1")) < 0);
+        Assert.assertEquals(Tablebase.DRAW, probe(tablebase, "4k3/4P3/4K3/8/8/8/8/8 b - - 0 1"));        // stalemate
+        Assert.assertEquals(Tablebase.DRAW, probe(tablebase, "k7/8/K7/P7/8/8/8/8 w - - 0 1"));          // rook pawn
+        Assert.assertTrue(Tablebase.isWin(probe(tablebase, "8/8/8/8/8/4k3/4p3/K7 b - - 0 1")));
+
+        final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+        final List<UCI.IncomingInfoMessage> messages = Collections.synchronizedList(new ArrayList<>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch analysis = new CountDownLatch(1);
+        final CountDownLatch engineStarted = new CountDownLatch(1);
+        final Board[] board = {new Board("8/8/8/8/8/4k3/4p3/K7 b - - 0 1")};
+        UCI uci = new UCI(new UCI.EngineWatcher() {
+            @Override
+            public Board getCurrentBoard() {
+                return board[0];
+            }
+
+            @Override
+            public void engineOk() {
+            }
+
+            @Override
+            public void acceptAnalysis(UCI.IncomingInfoMessage incomingInfoMessage) {
+                messages.add(incomingInfoMessage);
+                analysis.countDown();
+            }
+
+            @Override
+            public void reportError(String message) {
+                errors.add(message);
+            }
+        }, new UCI.UCIImpl() {
+            @Override
+            public void loadLibrary() {
+            }
+
+            @Override
+            public void launch() {
+            }
+
+            @Override
+            public void setOptions(UCI uci) {
+            }
+
+            @Override
+            public void execute(String command) {
+                commands.add(command);
+                if (UCI.COMMAND_GO_INFINITE.equals(command)) {
+                    engineStarted.countDown();
+                }
+            }
+
+            @Override
+            public String read() {
+                return null;
+            }
+
+            @Override
+            public String read_err() {
+                return null;
+            }
+
+            @Override
+            public void quit() {
+            }
+        });
+        uci.setTablebase(tablebase);
+        uci.sendPosition();
+        Assert.assertTrue("no tablebase analysis in 5 sec", analysis.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertTrue(commands.isEmpty());
+        Assert.assertEquals(1, messages.size());
+        Assert.assertTrue(messages.get(0).score > 0);
+        Assert.assertTrue(messages.get(0).getMoves().startsWith("e2e1q") || messages.get(0).getMoves().startsWith("e3"));
+
+        // not in the tables, the engine is started after the background probe
+        board[0] = new Board("r3k3/8/8/8/8/8/8/R3K3 w - - 0 1");
+        uci.sendPosition();
+        Assert.assertTrue("engine not started in 5 sec", engineStarted.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(commands.contains(UCI.COMMAND_POSITION + "r3k3/8/8/8/8/8/8/R3K3 w - - 0 1"));
+        Assert.assertTrue(commands.contains(UCI.COMMAND_GO_INFINITE));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testInvalidTable() throws Config.PGNException, IOException {
+        File dir = new File(TEST_TMP_ROOT, "tb-invalid");
+        dir.mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(new File(dir, "KRvK" + Tablebase.FILE_EXT))) {
+            fos.write(new byte[Tablebase.HEADER_LENGTH + 3]);
+        }
+        Tablebase tablebase = new Tablebase(dir);
+        try {
+            probe(tablebase, "8/8/8/3k4/8/8/8/R6K w - - 0 1");
+            Assert.fail("invalid table accepted");
+        } catch (Config.PGNException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("invalid table"));
+        }
+        // the failed load is not repeated
+        Assert.assertEquals(Tablebase.NOT_FOUND, probe(tablebase, "8/8/8/3k4/8/8/8/R6K w - - 0 1"));
+        Assert.assertEquals(Tablebase.NOT_FOUND, probe(tablebase, "8/8/8/4k3/8/8/8/R6K b - - 0 1"));
+    }
+
+    @Test
+    public void testGenerateMissing() throws Config.PGNException {
+        generate("KQvK");
+        File dir = new File(TEST_TMP_ROOT, "tb");
+        File file = new File(dir, "KQvK" + Tablebase.FILE_EXT);
+        long lastModified = file.lastModified();
+        Assert.assertTrue(file.setLastModified(lastModified - 10000));
+        TablebaseGenerator generator = new TablebaseGenerator(dir);
+        Assert.assertFalse(generator.generateMissing("KQvK"));
+        Assert.assertEquals(lastModified - 10000, file.lastModified());
+        Assert.assertFalse(new File(dir, "KQvK" + Tablebase.FILE_EXT + ".tmp").exists());
+    }
+}